@@ -0,0 +1,520 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Runs the console operations headless from a command file or stdin, without prompts or pauses.
+ *
+ * Input is one command per line, either JSON lines ({"op":"completeOrder","employeeId":3,"orderId":1042})
+ * or CSV (completeOrder,3,1042) with the parameters in the order listed by --help. Blank lines and lines
+ * starting with # are skipped. A placeOrder line carries its drug lines as a "lines" array of
+ * {drug, pharmacy, batch, quantity, price} objects, or in CSV as trailing groups of those five fields;
+ * leaving pharmacy and batch empty takes the quantity from the batches expiring first, and leaving price
+ * empty uses the catalogue price. Listings given a limit return one page and the cursor for the next
+ * (see Page); pass it back as cursor to continue. completeOrders takes orderIds as an array or as text like
+ * "12, 15-20", or a before date to complete every older incomplete order of the employee.
+ *
+ * With --tx n, every n commands share one transaction; a failing command is rolled back to a savepoint
+ * and logged while the rest of its group goes on (or the whole group is rolled back with --fail-fast).
+ * Without --tx every command commits on its own. One result line per command is written in the input's
+ * format; totals and per-command latencies go to stderr at the end.
+ *
+ * Usage: java BatchRunner [--format jsonl|csv] [--tx n] [--fail-fast] [--log file] [file | -]
+ * The connection is configured with the same opms.* system properties as OPMSDemo, and opms.rankings,
+ * opms.entitlements and opms.inventory.cache install the same components. The inventory cache is only used
+ * without --tx: a group rolled back by the runner would otherwise leave its sales in the cache.
+ */
+public class BatchRunner {
+    private static final String USAGE = "Usage: java BatchRunner [--format jsonl|csv] [--tx n] [--fail-fast] [--log file] [file | -]";
+    private static final String[] LINE_FIELDS = {"drug", "pharmacy", "batch", "quantity", "price"};
+
+    private static FefoAllocator fefo; // Allocates from the inventory cache, only with -Dopms.inventory.cache=true
+
+    interface Command {
+        Object run(Connection conn, IdAllocator ids, Args args) throws SQLException;
+    }
+
+    // Parameter names (the CSV field order after the command name) and the operation
+    private static class Spec {
+        final String[] params;
+        final Command command;
+
+        Spec(String[] params, Command command) {
+            this.params = params;
+            this.command = command;
+        }
+    }
+
+    static final Map<String, Spec> COMMANDS = new LinkedHashMap<>();
+
+    static {
+        command("registerCustomer", new String[]{"ssn", "firstName", "lastName", "gender", "dob", "phone", "password", "address"}, (conn, ids, a) -> {
+            Operations.registerCustomer(conn, a.text("ssn"), a.text("firstName"), a.text("lastName"), a.text("gender"),
+                    a.text("dob"), a.text("phone"), a.text("password"), a.text("address"));
+            return a.text("ssn");
+        });
+        command("customerLogin", new String[]{"ssn", "password"},
+                (conn, ids, a) -> Operations.customerLogin(conn, a.text("ssn"), a.text("password")));
+        command("doctorLogin", new String[]{"doctorId", "phone"},
+                (conn, ids, a) -> Operations.doctorLogin(conn, a.integer("doctorId"), a.text("phone")));
+        command("employeeLogin", new String[]{"employeeId", "phone"},
+                (conn, ids, a) -> Operations.employeeLogin(conn, a.integer("employeeId"), a.text("phone")));
+        command("viewPrescriptions", new String[]{"ssn", "limit", "cursor"}, (conn, ids, a) -> (a.optional("limit") == null)
+                ? Operations.prescriptions(conn, a.text("ssn"))
+                : page(Operations.prescriptions(conn, a.text("ssn"), a.integer("limit"), a.optional("cursor"))));
+        command("issuePrescription", new String[]{"doctorId", "ssn", "date", "note", "drug", "quantity", "refillLimit"},
+                (conn, ids, a) -> Operations.issuePrescription(conn, ids, a.integer("doctorId"), a.text("ssn"),
+                        a.date("date"), a.optional("note"), a.text("drug"), a.integer("quantity"), a.integer("refillLimit")));
+        command("placeOrder", new String[]{"ssn", "prescriptionId", "employeeId", "date", "type"}, BatchRunner::placeOrder);
+        command("incompleteOrders", new String[]{"employeeId", "limit", "cursor"}, (conn, ids, a) -> (a.optional("limit") == null)
+                ? Operations.incompleteOrders(conn, a.integer("employeeId"))
+                : page(Operations.incompleteOrders(conn, a.integer("employeeId"), a.integer("limit"), a.optional("cursor"))));
+        command("completeOrder", new String[]{"employeeId", "orderId"}, (conn, ids, a) -> {
+            if(!Operations.completeOrder(conn, a.integer("employeeId"), a.number("orderId"))) {
+                throw new IllegalArgumentException("No incomplete order " + a.number("orderId") + " for employee " + a.integer("employeeId"));
+            }
+            return a.number("orderId");
+        });
+        command("completeOrders", new String[]{"employeeId", "orderIds", "before"}, BatchRunner::completeOrders);
+        command("monthlyRevenue", new String[]{"month"}, (conn, ids, a) -> Operations.monthlyRevenue(conn, a.text("month")));
+        command("annualRevenue", new String[]{"year"}, (conn, ids, a) -> Operations.annualRevenue(conn, a.text("year")));
+        command("expiredStock", new String[]{}, (conn, ids, a) -> Operations.expiredStock(conn));
+        command("topSoldDrugs", new String[]{"n", "window"},
+                (conn, ids, a) -> Operations.topSoldDrugs(conn, a.integer("n", 5), a.integer("window", 0)));
+        command("topCustomers", new String[]{"n", "window"},
+                (conn, ids, a) -> Operations.topCustomers(conn, a.integer("n", 5), a.integer("window", 0)));
+        command("topDoctors", new String[]{"n", "window"},
+                (conn, ids, a) -> Operations.topDoctors(conn, a.integer("n", 5), a.integer("window", 0)));
+        command("lowStock", new String[]{"threshold"}, (conn, ids, a) -> Operations.lowStock(conn, a.integer("threshold", 10)));
+        command("setReorderPoint", new String[]{"drug", "pharmacyId", "threshold"}, (conn, ids, a) -> {
+            // Without a threshold the reorder point is removed
+            Integer threshold = (a.optional("threshold") == null) ? null : a.integer("threshold");
+            Operations.setReorderPoint(conn, a.optional("drug"), (a.optional("pharmacyId") == null) ? null : a.integer("pharmacyId"), threshold);
+            return threshold;
+        });
+    }
+
+    private static void command(String name, String[] params, Command command) {
+        COMMANDS.put(name, new Spec(params, command));
+    }
+
+    /**
+     * Named parameters of one command, whichever format they came from
+     */
+    static class Args {
+        final Map<String, Object> values;
+
+        Args(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        String optional(String name) {
+            Object value = values.get(name);
+            return (value == null) ? null : value.toString();
+        }
+
+        String text(String name) {
+            String value = optional(name);
+            if(value == null) {
+                throw new IllegalArgumentException("Missing " + name);
+            }
+            return value;
+        }
+
+        long number(String name) {
+            Object value = values.get(name);
+            if(value instanceof Number) {
+                return ((Number)value).longValue();
+            }
+            return Long.parseLong(text(name).trim());
+        }
+
+        int integer(String name) {
+            return Math.toIntExact(number(name));
+        }
+
+        int integer(String name, int defaultValue) {
+            return (values.get(name) == null) ? defaultValue : integer(name);
+        }
+
+        Double decimal(String name) {
+            Object value = values.get(name);
+            if(value == null) {
+                return null;
+            }
+            return (value instanceof Number) ? ((Number)value).doubleValue() : Double.parseDouble(value.toString().trim());
+        }
+
+        // YYYY-MM-DD, today when absent
+        String date(String name) {
+            String value = optional(name);
+            return (value == null) ? LocalDate.now().toString() : LocalDate.parse(value.trim()).toString();
+        }
+
+        // A JSON array of ids, or ids and ranges as text ("12, 15-20")
+        List<Long> ids(String name) {
+            Object value = values.get(name);
+            if(!(value instanceof List)) {
+                return Operations.parseIdRanges(text(name));
+            }
+            List<Long> ids = new ArrayList<>();
+            for(Object item : (List<?>)value) {
+                if(!(item instanceof Number)) {
+                    throw new IllegalArgumentException(name + " must be a list of numbers");
+                }
+                ids.add(((Number)item).longValue());
+            }
+            return ids;
+        }
+
+        List<Args> list(String name) {
+            Object value = values.get(name);
+            if(!(value instanceof List)) {
+                throw new IllegalArgumentException("Missing " + name);
+            }
+            List<Args> items = new ArrayList<>();
+            for(Object item : (List<?>)value) {
+                if(!(item instanceof Map)) {
+                    throw new IllegalArgumentException(name + " must be a list of objects");
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>)item;
+                items.add(new Args(map));
+            }
+            return items;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final IdAllocator ids;
+    private final boolean csv;
+    private final int txSize;
+    private final boolean failFast;
+    private final Map<String, LatencyHistogram> latencies = new TreeMap<>();
+    private final Map<String, Long> failures = new TreeMap<>();
+    private long succeeded;
+    private long failed;
+
+    public BatchRunner(ConnectionPool pool, IdAllocator ids, boolean csv, int txSize, boolean failFast) {
+        this.pool = pool;
+        this.ids = ids;
+        this.csv = csv;
+        this.txSize = txSize;
+        this.failFast = failFast;
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        String format = null;
+        int tx = 0;
+        boolean failFast = false;
+        String log = null;
+        String input = "-";
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--format": format = args[++i]; break;
+                case "--tx": tx = Integer.parseInt(args[++i]); break;
+                case "--fail-fast": failFast = true; break;
+                case "--log": log = args[++i]; break;
+                case "--help":
+                    System.err.println(USAGE);
+                    for(Map.Entry<String, Spec> e : COMMANDS.entrySet()) {
+                        System.err.println("  " + e.getKey() + " " + String.join(" ", e.getValue().params) + (e.getKey().equals("placeOrder") ? " {lines}" : ""));
+                    }
+                    return;
+                default:
+                    if(args[i].startsWith("--") || !input.equals("-")) {
+                        System.err.println(USAGE);
+                        System.exit(2);
+                    }
+                    input = args[i];
+            }
+        }
+        if(format == null) {
+            format = input.toLowerCase().endsWith(".csv") ? "csv" : "jsonl";
+        }
+        if(!format.equals("csv") && !format.equals("jsonl") || tx < 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user"), System.getProperty("opms.jdbc.password"));
+        InputStream in = input.equals("-") ? System.in : new FileInputStream(input);
+        OutputStream out = (log == null) ? System.out : new FileOutputStream(log);
+        boolean succeeded;
+        // The cache closes (flushing its pending deltas) before the pool
+        try(ConnectionPool pool = new ConnectionPool(config);
+            InventoryCache inventory = inventoryCache(pool, tx);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16)) {
+            if(Boolean.getBoolean("opms.rankings")) {
+                Operations.useRankings(new TopRankings(pool));
+            }
+            if(Boolean.getBoolean("opms.entitlements")) {
+                OrderPlacement.useEntitlements(PrescriptionEntitlements.fromSystemProperties());
+            }
+            Metrics.start();
+            BatchRunner runner = new BatchRunner(pool, new IdAllocator(pool), format.equals("csv"), tx, failFast);
+            long start = System.nanoTime();
+            runner.run(reader, writer);
+            writer.flush();
+            runner.report(System.nanoTime() - start);
+            if(inventory != null) {
+                System.err.println("Inventory cache: " + inventory.getStats());
+            }
+            succeeded = runner.failed == 0;
+        }
+        if(!succeeded) {
+            System.exit(1);
+        }
+    }
+
+    // With -Dopms.inventory.cache=true the resident stock cache, wired as in OPMSDemo; otherwise null
+    private static InventoryCache inventoryCache(ConnectionPool pool, int tx) throws SQLException {
+        if(!Boolean.getBoolean("opms.inventory.cache")) {
+            return null;
+        }
+        if(tx > 0) {
+            System.err.println("opms.inventory.cache is ignored with --tx; stock is reserved in the database");
+            return null;
+        }
+        InventoryCache inventory = new InventoryCache(pool, Long.getLong("opms.inventory.flushMillis", 500));
+        StockReservations.useInventoryCache(inventory);
+        fefo = new FefoAllocator(inventory);
+        Operations.useLowStockMonitor(new LowStockMonitor(pool, inventory, Integer.getInteger("opms.lowStock.threshold", 10)));
+        return inventory;
+    }
+
+    /**
+     * Run every command of the input on one connection, writing one result line each
+     */
+    public void run(BufferedReader reader, Writer writer) throws IOException, SQLException {
+        try(Connection conn = pool.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(txSize == 0);
+            try {
+                int inGroup = 0;
+                int lineNumber = 0;
+                String line;
+                while((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    String trimmed = line.trim();
+                    if(trimmed.isEmpty() || trimmed.startsWith("#")) {
+                        continue;
+                    }
+                    boolean ok = execute(conn, lineNumber, trimmed, writer);
+                    if(!ok && failFast) {
+                        if(txSize > 0) {
+                            conn.rollback();
+                            writer.write(logLine(lineNumber, "rollback", "", 0, "Rolled back " + (inGroup + 1) + " commands"));
+                        }
+                        return;
+                    }
+                    if(txSize > 0 && ++inGroup == txSize) {
+                        conn.commit();
+                        inGroup = 0;
+                    }
+                }
+                if(txSize > 0) {
+                    conn.commit();
+                }
+            }
+            catch(SQLException | RuntimeException | IOException e) {
+                if(txSize > 0) {
+                    conn.rollback();
+                }
+                throw e;
+            }
+            finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    // Run one command and log it; a failure inside a transaction group is rolled back to its savepoint
+    private boolean execute(Connection conn, int lineNumber, String line, Writer writer) throws IOException, SQLException {
+        String op = "";
+        long start = System.nanoTime();
+        Savepoint savepoint = null;
+        try {
+            Map<String, Object> values = csv ? fromCsv(line) : fromJson(line);
+            op = String.valueOf(values.remove("op"));
+            Spec spec = COMMANDS.get(op);
+            if(spec == null) {
+                throw new IllegalArgumentException("Unknown command " + op);
+            }
+            if(txSize > 0) {
+                savepoint = conn.setSavepoint();
+            }
+            Object result;
+            Metrics.Scope scope = Metrics.operation("batch." + op);
+            try {
+                result = spec.command.run(conn, ids, new Args(values));
+            }
+            finally {
+                scope.close();
+            }
+            if(savepoint != null) {
+                conn.releaseSavepoint(savepoint);
+            }
+            long nanos = System.nanoTime() - start;
+            latency(op).record(nanos);
+            succeeded++;
+            writer.write(logLine(lineNumber, "ok", op, nanos, result));
+            return true;
+        }
+        catch(SQLException | RuntimeException e) {
+            if(savepoint != null) {
+                conn.rollback(savepoint);
+            }
+            long nanos = System.nanoTime() - start;
+            latency(op).record(nanos);
+            failures.merge(op, 1L, Long::sum);
+            failed++;
+            writer.write(logLine(lineNumber, "error", op, nanos, e.getMessage()));
+            return false;
+        }
+    }
+
+    static Object placeOrder(Connection conn, IdAllocator ids, Args a) throws SQLException {
+        OrderPlacement.OrderRequest request = new OrderPlacement.OrderRequest(a.text("ssn"), a.integer("prescriptionId"),
+                a.integer("employeeId"), a.date("date"), a.optional("type") == null ? "normal" : a.text("type"));
+        for(Args line : a.list("lines")) {
+            String drug = line.text("drug");
+            int quantity = line.integer("quantity");
+            Double price = line.decimal("price");
+            if(price == null) {
+                price = catalogPrice(conn, drug);
+            }
+            if(line.optional("batch") == null) {
+                Integer pharmacy = (line.optional("pharmacy") == null) ? null : line.integer("pharmacy");
+                List<OrderPlacement.OrderLine> batches = (fefo != null)
+                        ? fefo.allocate(drug, quantity, pharmacy, price)
+                        : FefoAllocator.allocate(conn, drug, quantity, pharmacy, price);
+                for(OrderPlacement.OrderLine allocated : batches) {
+                    request.addLine(allocated);
+                }
+            }
+            else {
+                request.addLine(new OrderPlacement.OrderLine(drug, line.integer("pharmacy"), line.text("batch"), quantity, price));
+            }
+        }
+        return OrderPlacement.place(conn, ids, request);
+    }
+
+    // The given orders, or with "before" every incomplete order of the employee dated earlier
+    static Object completeOrders(Connection conn, IdAllocator ids, Args a) throws SQLException {
+        int employeeId = a.integer("employeeId");
+        Operations.BulkCompletion result = (a.optional("before") != null)
+                ? Operations.completeOrdersBefore(conn, employeeId, LocalDate.parse(a.date("before")))
+                : Operations.completeOrders(conn, employeeId, a.ids("orderIds"));
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("completed", result.completed);
+        summary.put("rejected", result.rejected);
+        return summary;
+    }
+
+    // A page as logged: its rows and the cursor to pass as "cursor" for the next one
+    private static Map<String, Object> page(Page page) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rows", page.rows);
+        result.put("nextCursor", page.nextCursor);
+        return result;
+    }
+
+    private static double catalogPrice(Connection conn, String drug) throws SQLException {
+        try(PreparedStatement pstmt = conn.prepareStatement("SELECT Price FROM Drug WHERE Drug_Name = ?")) {
+            pstmt.setString(1, drug);
+            ResultSet rs = pstmt.executeQuery();
+            if(!rs.next()) {
+                throw new IllegalArgumentException("Unknown drug " + drug);
+            }
+            return rs.getDouble(1);
+        }
+    }
+
+    private static Map<String, Object> fromJson(String line) {
+        Object value = Json.parse(line);
+        if(!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> values = (Map<String, Object>)value;
+        return values;
+    }
+
+    // Positional fields after the command name; anything past a placeOrder's own fields is its drug lines
+    private static Map<String, Object> fromCsv(String line) {
+        List<String> fields = BulkLoader.parseCsvLine(line);
+        Map<String, Object> values = new HashMap<>();
+        String op = fields.get(0);
+        values.put("op", op);
+        Spec spec = COMMANDS.get(op);
+        if(spec == null) {
+            return values;
+        }
+        int extra = fields.size() - 1 - spec.params.length;
+        boolean lines = op.equals("placeOrder");
+        if(extra > 0 && !(lines && extra % LINE_FIELDS.length == 0)) {
+            throw new IllegalArgumentException("Too many fields for " + op);
+        }
+        for(int i = 0; i < spec.params.length && i + 1 < fields.size(); i++) {
+            values.put(spec.params[i], fields.get(i + 1));
+        }
+        if(lines) {
+            List<Object> orderLines = new ArrayList<>();
+            for(int i = 1 + spec.params.length; i < fields.size(); i += LINE_FIELDS.length) {
+                Map<String, Object> orderLine = new HashMap<>();
+                for(int j = 0; j < LINE_FIELDS.length; j++) {
+                    orderLine.put(LINE_FIELDS[j], fields.get(i + j));
+                }
+                orderLines.add(orderLine);
+            }
+            values.put("lines", orderLines);
+        }
+        return values;
+    }
+
+    private String logLine(int lineNumber, String status, String op, long nanos, Object result) {
+        String millis = String.format("%.3f", nanos / 1e6);
+        if(!csv) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("line", lineNumber);
+            entry.put("status", status);
+            entry.put("op", op);
+            entry.put("millis", Double.valueOf(millis));
+            entry.put(status.equals("ok") ? "result" : "message", result);
+            return Json.write(entry) + "\n";
+        }
+        String summary = String.valueOf(result);
+        if(result instanceof List) {
+            summary = ((List<?>)result).size() + " rows";
+        }
+        else if(result instanceof Map && ((Map<?, ?>)result).containsKey("rows")) {
+            Map<?, ?> page = (Map<?, ?>)result;
+            summary = ((List<?>)page.get("rows")).size() + " rows, next " + page.get("nextCursor");
+        }
+        return lineNumber + "," + status + "," + op + "," + millis + "," + csvField(summary) + "\n";
+    }
+
+    private static String csvField(String s) {
+        if(s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"").replace('\n', ' ') + "\"";
+    }
+
+    private LatencyHistogram latency(String op) {
+        return latencies.computeIfAbsent(op.isEmpty() ? "(unparsed)" : op, k -> new LatencyHistogram());
+    }
+
+    private void report(long nanos) {
+        long total = succeeded + failed;
+        System.err.println(String.format("%d commands (%d ok, %d failed) in %.3f s: %.1f commands/s",
+                total, succeeded, failed, nanos / 1e9, (nanos == 0) ? 0.0 : total / (nanos / 1e9)));
+        for(Map.Entry<String, LatencyHistogram> e : latencies.entrySet()) {
+            System.err.println(String.format("  %-20s %s failed=%d", e.getKey(), e.getValue(), failures.getOrDefault(e.getKey(), 0L)));
+        }
+    }
+}
@@ -0,0 +1,602 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * Streams seed data into the database with batched prepared inserts and periodic commits.
+ *
+ * Input is either a SQL script of literal INSERT statements (such as testing_data.sql) or a directory
+ * of <Table>.csv files (or <Table>.<part>.csv parts, as written by DataGenerator) with a header row of column names. Rows are grouped per table into batches;
+ * tables that do not depend on each other load in parallel, following the foreign keys declared in
+ * create_schema.sql. Memory stays constant: every table reads through a bounded queue.
+ *
+ * Usage: java BulkLoader [--schema create_schema.sql] [--batch 1000] [--commit 10000] [--threads 4] <script.sql | csv-dir>
+ * The connection is configured with the same opms.* system properties as OPMSDemo.
+ */
+public class BulkLoader {
+    private static final Pattern CREATE_TABLE = Pattern.compile("CREATE\\s+TABLE\\s+(\"[^\"]+\"|\\w+)\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern REFERENCES = Pattern.compile("REFERENCES\\s+(\"[^\"]+\"|\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERT = Pattern.compile("INSERT\\s+INTO\\s+(\"[^\"]+\"|\\w+)\\s*\\(([^)]*)\\)\\s*VALUES\\s*\\((.*)\\)\\s*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern TO_DATE = Pattern.compile("TO_DATE\\s*\\(\\s*('(?:[^']|'')*')\\s*,\\s*('(?:[^']|'')*')\\s*\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NUMBER = Pattern.compile("[-+]?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+    private static final Object END = new Object(); // Marks the end of a table's rows in its queue
+
+    private final ConnectionPool pool;
+    private final int batchSize;
+    private final int commitEvery;
+    private final ExecutorService workers;
+    private final Map<String, String> declaredNames = new LinkedHashMap<>(); // Normalised name -> name as declared
+    private final Map<String, Set<String>> parents = new HashMap<>(); // Normalised name -> tables it references
+    private final Map<String, List<Future<TableStats>>> running = new HashMap<>();
+    private final List<Future<TableStats>> all = new ArrayList<>();
+    private String segmentTable; // Table of the script rows currently being read
+    private BlockingQueue<Object> segmentQueue;
+
+    /**
+     * Rows and time spent for one table (or one segment of a script)
+     */
+    public static class TableStats {
+        public final String table;
+        public final long rows;
+        public final long nanos;
+
+        TableStats(String table, long rows, long nanos) {
+            this.table = table;
+            this.rows = rows;
+            this.nanos = nanos;
+        }
+
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : rows / (nanos / 1e9);
+        }
+    }
+
+    // One row waiting to be bound: the INSERT template and its parameters
+    private static class Row {
+        final String sql;
+        final Object[] params;
+
+        Row(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
+    public BulkLoader(ConnectionPool pool, String schemaPath, int batchSize, int commitEvery, int threads) throws IOException {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.commitEvery = commitEvery;
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "opms-bulk-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        readSchema(schemaPath);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String schema = "create_schema.sql";
+        int batch = 1000;
+        int commit = 10000;
+        int threads = 4;
+        String input = null;
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--schema": schema = args[++i]; break;
+                case "--batch": batch = Integer.parseInt(args[++i]); break;
+                case "--commit": commit = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                default: input = args[i];
+            }
+        }
+        if(input == null) {
+            System.err.println("Usage: java BulkLoader [--schema file] [--batch n] [--commit n] [--threads n] <script.sql | csv-dir>");
+            System.exit(2);
+        }
+
+        ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user"), System.getProperty("opms.jdbc.password"));
+        config.maxSize = Math.max(config.maxSize, threads);
+        try(ConnectionPool pool = new ConnectionPool(config)) {
+            BulkLoader loader = new BulkLoader(pool, schema, batch, commit, threads);
+            File file = new File(input);
+            List<TableStats> stats = file.isDirectory() ? loader.loadCsvDirectory(file) : loader.loadScript(file);
+            report(stats);
+            // Keys loaded here bypass the Id_Allocation blocks
+            List<String> loaded = new ArrayList<>();
+            for(TableStats s : stats) {
+                if(s.rows > 0) {
+                    loaded.add(s.table);
+                }
+            }
+            try(Connection conn = pool.getConnection()) {
+                IdAllocator.reseed(conn, loaded);
+            }
+            // Orders loaded here bypass the revenue rollup
+            for(TableStats s : stats) {
+                if(s.table.equalsIgnoreCase("Order") && s.rows > 0) {
+                    try(Connection conn = pool.getConnection()) {
+                        RevenueRollup.rebuild(conn);
+                    }
+                    OPMSDemo.View.displayMessage("Revenue rollup rebuilt");
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Print rows per second for every table and for the whole load
+     */
+    public static void report(List<TableStats> stats) {
+        for(TableStats s : stats) {
+            OPMSDemo.View.displayMessage(String.format("%-20s %10d rows  %10.0f rows/s", s.table, s.rows, s.rowsPerSecond()));
+        }
+    }
+
+    /**
+     * Stream a SQL script. The script is assumed to be in a valid FK order (as for a SQL client);
+     * a run of rows for one table starts loading as soon as every table it references has finished.
+     */
+    public List<TableStats> loadScript(File script) throws Exception {
+        long start = System.nanoTime();
+        try(Reader reader = new BufferedReader(new FileReader(script), 1 << 16)) {
+            SqlScripts.parse(reader, sql -> {
+                try {
+                    Matcher m = INSERT.matcher(sql);
+                    if(!m.matches()) {
+                        if(!sql.trim().equalsIgnoreCase("COMMIT")) {
+                            // Anything else (DDL, updates) runs on its own once everything before it is in
+                            endSegment();
+                            awaitAll();
+                            try(Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+                                stmt.execute(sql);
+                            }
+                        }
+                        return;
+                    }
+                    String table = normalise(m.group(1));
+                    if(!table.equals(segmentTable)) {
+                        endSegment();
+                        segmentQueue = startSegment(table);
+                        segmentTable = table;
+                    }
+                    segmentQueue.put(parseInsert(m));
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while loading", e);
+                }
+                catch(ExecutionException e) {
+                    throw new SQLException("Loading failed: " + e.getCause().getMessage(), e.getCause());
+                }
+            });
+        }
+        finally {
+            endSegment();
+        }
+        List<TableStats> stats = collect();
+        stats.add(new TableStats("(all)", stats.stream().mapToLong(s -> s.rows).sum(), System.nanoTime() - start));
+        return stats;
+    }
+
+    /**
+     * Load CSV files level by level in FK order; all tables and parts of one level load in parallel
+     */
+    public List<TableStats> loadCsvDirectory(File dir) throws Exception {
+        long start = System.nanoTime();
+        Map<String, List<File>> files = new HashMap<>();
+        File[] listing = dir.listFiles((d, name) -> name.toLowerCase().endsWith(".csv"));
+        if(listing != null) {
+            Arrays.sort(listing);
+            for(File f : listing) {
+                // Everything before the first dot names the table: Order.csv, Order.0003.csv
+                String table = normalise(f.getName().substring(0, f.getName().indexOf('.')));
+                files.computeIfAbsent(table, k -> new ArrayList<>()).add(f);
+            }
+        }
+        for(List<String> level : levels()) {
+            List<Future<TableStats>> futures = new ArrayList<>();
+            for(String table : level) {
+                for(File f : files.getOrDefault(table, Collections.emptyList())) {
+                    futures.add(workers.submit(() -> loadCsv(table, f)));
+                }
+            }
+            for(Future<TableStats> future : futures) {
+                all.add(future);
+                future.get();
+            }
+        }
+        List<TableStats> stats = collect();
+        stats.add(new TableStats("(all)", stats.stream().mapToLong(s -> s.rows).sum(), System.nanoTime() - start));
+        return stats;
+    }
+
+    /**
+     * Tables grouped so that every table only references tables of earlier groups
+     */
+    public List<List<String>> levels() {
+        Map<String, Integer> depth = new HashMap<>();
+        for(String table : declaredNames.keySet()) {
+            depthOf(table, depth, new HashSet<>());
+        }
+        List<List<String>> levels = new ArrayList<>();
+        for(String table : declaredNames.keySet()) {
+            int d = depth.get(table);
+            while(levels.size() <= d) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(d).add(table);
+        }
+        return levels;
+    }
+
+    /**
+     * Table name exactly as declared in the schema (quoted where it was quoted)
+     */
+    public String declaredName(String table) {
+        return declaredNames.getOrDefault(normalise(table), table);
+    }
+
+    private int depthOf(String table, Map<String, Integer> depth, Set<String> visiting) {
+        Integer known = depth.get(table);
+        if(known != null) {
+            return known;
+        }
+        if(!visiting.add(table)) {
+            throw new IllegalStateException("Foreign key cycle through " + table);
+        }
+        int d = 0;
+        for(String parent : parents.getOrDefault(table, Collections.emptySet())) {
+            if(!parent.equals(table) && declaredNames.containsKey(parent)) {
+                d = Math.max(d, depthOf(parent, depth, visiting) + 1);
+            }
+        }
+        depth.put(table, d);
+        return d;
+    }
+
+    private void readSchema(String schemaPath) throws IOException {
+        try(Reader reader = new BufferedReader(new FileReader(schemaPath))) {
+            SqlScripts.parse(reader, sql -> {
+                Matcher m = CREATE_TABLE.matcher(sql);
+                if(m.find()) {
+                    String table = normalise(m.group(1));
+                    declaredNames.put(table, m.group(1));
+                    Set<String> refs = new HashSet<>();
+                    Matcher r = REFERENCES.matcher(sql);
+                    while(r.find()) {
+                        refs.add(normalise(r.group(1)));
+                    }
+                    parents.put(table, refs);
+                }
+            });
+        }
+        catch(SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Wait for the tables this one references, then start a worker draining a fresh queue
+    private BlockingQueue<Object> startSegment(String table) throws InterruptedException, ExecutionException {
+        for(String parent : parents.getOrDefault(table, Collections.emptySet())) {
+            if(!parent.equals(table)) {
+                for(Future<TableStats> future : running.getOrDefault(parent, Collections.emptyList())) {
+                    future.get();
+                }
+            }
+        }
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(Math.max(2 * batchSize, 16));
+        Future<TableStats> future = workers.submit(() -> drain(table, queue));
+        running.computeIfAbsent(table, k -> new ArrayList<>()).add(future);
+        all.add(future);
+        return queue;
+    }
+
+    private void endSegment() throws InterruptedException {
+        if(segmentQueue != null) {
+            segmentQueue.put(END);
+        }
+        segmentQueue = null;
+        segmentTable = null;
+    }
+
+    private void awaitAll() throws InterruptedException, ExecutionException {
+        for(Future<TableStats> future : all) {
+            future.get();
+        }
+    }
+
+    private List<TableStats> collect() throws InterruptedException, ExecutionException {
+        awaitAll();
+        workers.shutdown();
+        // Fold the segments of each table into one line of the report
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        for(Future<TableStats> future : all) {
+            TableStats s = future.get();
+            long[] t = totals.computeIfAbsent(s.table, k -> new long[2]);
+            t[0] += s.rows;
+            t[1] += s.nanos;
+        }
+        List<TableStats> stats = new ArrayList<>();
+        for(Map.Entry<String, long[]> e : totals.entrySet()) {
+            stats.add(new TableStats(e.getKey(), e.getValue()[0], e.getValue()[1]));
+        }
+        return stats;
+    }
+
+    // Bind queued rows into per-template batches until END arrives
+    private TableStats drain(String table, BlockingQueue<Object> queue) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try(Connection conn = pool.getConnection(); Batcher batcher = new Batcher(conn)) {
+            Object item;
+            while((item = queue.take()) != END) {
+                Row row = (Row)item;
+                batcher.add(row.sql, row.params);
+                rows++;
+            }
+            batcher.finish();
+        }
+        catch(SQLException e) {
+            // Keep reading so the producer is never blocked on a queue nobody drains
+            while(queue.take() != END) {
+            }
+            throw e;
+        }
+        return new TableStats(declaredName(table), rows, System.nanoTime() - start);
+    }
+
+    private TableStats loadCsv(String table, File file) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try(BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 16);
+            Connection conn = pool.getConnection();
+            Batcher batcher = new Batcher(conn)) {
+            List<String> header = parseCsvLine(reader.readLine());
+            if(header == null) {
+                return new TableStats(declaredName(table), 0, 0);
+            }
+            String columns = String.join(", ", header);
+            int[] types = columnTypes(conn, declaredName(table), columns, header.size());
+            String sql = "INSERT INTO " + declaredName(table) + " (" + columns + ") VALUES (" + String.join(", ", Collections.nCopies(header.size(), "?")) + ")";
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.isEmpty()) {
+                    continue;
+                }
+                List<String> values = parseCsvLine(line);
+                Object[] params = new Object[header.size()];
+                for(int i = 0; i < params.length && i < values.size(); i++) {
+                    params[i] = convert(values.get(i), types[i]);
+                }
+                batcher.add(sql, params);
+                rows++;
+            }
+            batcher.finish();
+        }
+        return new TableStats(declaredName(table), rows, System.nanoTime() - start);
+    }
+
+    private static int[] columnTypes(Connection conn, String table, String columns, int count) throws SQLException {
+        try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT " + columns + " FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            int[] types = new int[count];
+            for(int i = 0; i < count; i++) {
+                types[i] = meta.getColumnType(i + 1);
+            }
+            return types;
+        }
+    }
+
+    private static Object convert(String value, int type) {
+        if(value == null) {
+            return null;
+        }
+        switch(type) {
+            case Types.DATE:
+                return java.sql.Date.valueOf(value.length() > 10 ? value.substring(0, 10) : value);
+            case Types.TIMESTAMP:
+                return value.length() == 10 ? Timestamp.valueOf(value + " 00:00:00") : Timestamp.valueOf(value);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.SMALLINT:
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return new BigDecimal(value);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Split one CSV line; quoted fields may contain commas and doubled quotes, an empty unquoted field is NULL
+     */
+    static List<String> parseCsvLine(String line) {
+        if(line == null) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for(int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if(quoted) {
+                if(ch == '"') {
+                    if(i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    }
+                    else {
+                        quoted = false;
+                    }
+                }
+                else {
+                    field.append(ch);
+                }
+            }
+            else if(ch == '"') {
+                quoted = true;
+                wasQuoted = true;
+            }
+            else if(ch == ',') {
+                fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            }
+            else {
+                field.append(ch);
+            }
+        }
+        fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+        return fields;
+    }
+
+    // Turn the literal VALUES list into a parameterised template so rows of the same shape share one statement
+    private static Row parseInsert(Matcher m) {
+        String table = m.group(1);
+        String columns = m.group(2).trim();
+        List<String> values = splitValues(m.group(3));
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (").append(columns).append(") VALUES (");
+        List<Object> params = new ArrayList<>();
+        for(int i = 0; i < values.size(); i++) {
+            String value = values.get(i).trim();
+            if(i > 0) {
+                sql.append(", ");
+            }
+            Matcher date = TO_DATE.matcher(value);
+            if(date.matches()) {
+                sql.append("TO_DATE(?, ").append(date.group(2)).append(")");
+                params.add(unquote(date.group(1)));
+            }
+            else if(value.startsWith("'") && value.endsWith("'") && value.length() >= 2) {
+                sql.append("?");
+                params.add(unquote(value));
+            }
+            else if(value.equalsIgnoreCase("NULL")) {
+                sql.append("?");
+                params.add(null);
+            }
+            else if(NUMBER.matcher(value).matches()) {
+                sql.append("?");
+                params.add(new BigDecimal(value));
+            }
+            else {
+                // Any other expression (SYSDATE, arithmetic) stays inline
+                sql.append(value);
+            }
+        }
+        sql.append(")");
+        return new Row(sql.toString(), params.toArray());
+    }
+
+    private static List<String> splitValues(String list) {
+        List<String> values = new ArrayList<>();
+        int depth = 0;
+        boolean inQuote = false;
+        int from = 0;
+        for(int i = 0; i < list.length(); i++) {
+            char ch = list.charAt(i);
+            if(ch == '\'') {
+                inQuote = !inQuote; // A doubled quote toggles twice and leaves the state unchanged
+            }
+            else if(!inQuote) {
+                if(ch == '(') {
+                    depth++;
+                }
+                else if(ch == ')') {
+                    depth--;
+                }
+                else if(ch == ',' && depth == 0) {
+                    values.add(list.substring(from, i));
+                    from = i + 1;
+                }
+            }
+        }
+        values.add(list.substring(from));
+        return values;
+    }
+
+    private static String unquote(String literal) {
+        return literal.substring(1, literal.length() - 1).replace("''", "'");
+    }
+
+    static String normalise(String name) {
+        String n = name.trim();
+        if(n.startsWith("\"") && n.endsWith("\"")) {
+            n = n.substring(1, n.length() - 1);
+        }
+        return n.toUpperCase();
+    }
+
+    // Prepared statements per template with batched execution and a commit every commitEvery rows
+    private class Batcher implements AutoCloseable {
+        private final Connection conn;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private final Map<String, Integer> pending = new HashMap<>();
+        private long uncommitted;
+
+        Batcher(Connection conn) throws SQLException {
+            this.conn = conn;
+            conn.setAutoCommit(false);
+        }
+
+        void add(String sql, Object[] params) throws SQLException {
+            PreparedStatement pstmt = statements.get(sql);
+            if(pstmt == null) {
+                pstmt = conn.prepareStatement(sql);
+                statements.put(sql, pstmt);
+            }
+            for(int i = 0; i < params.length; i++) {
+                if(params[i] == null) {
+                    pstmt.setNull(i + 1, Types.VARCHAR);
+                }
+                else {
+                    pstmt.setObject(i + 1, params[i]);
+                }
+            }
+            pstmt.addBatch();
+            int count = pending.merge(sql, 1, Integer::sum);
+            if(count >= batchSize) {
+                pstmt.executeBatch();
+                pending.put(sql, 0);
+            }
+            if(++uncommitted >= commitEvery) {
+                flush();
+                conn.commit();
+                uncommitted = 0;
+            }
+        }
+
+        void finish() throws SQLException {
+            flush();
+            conn.commit();
+        }
+
+        private void flush() throws SQLException {
+            for(Map.Entry<String, Integer> e : pending.entrySet()) {
+                if(e.getValue() > 0) {
+                    statements.get(e.getKey()).executeBatch();
+                    e.setValue(0);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                conn.rollback(); // Only rows after the last commit, and only when something failed
+            }
+            finally {
+                for(PreparedStatement pstmt : statements.values()) {
+                    pstmt.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ConnectionPool implements AutoCloseable {
+    public static final String DEFAULT_URL = "jdbc:oracle:thin:@studora.comp.polyu.edu.hk:1521:dbms";
+
+    private final Config config;
+    private final Semaphore permits; // One permit per connection that may be handed out
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger total = new AtomicInteger(); // Physical connections currently open
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    // Metrics
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAdder totalCheckoutNanos = new LongAdder();
+    private final LongAdder returns = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong maxCheckoutNanos = new AtomicLong();
+
+    /**
+     * Pool settings. Every value can be given as a system property (see fromSystemProperties)
+     */
+    public static class Config {
+        public String url = DEFAULT_URL;
+        public String user;
+        public String password;
+        public String driverClass; // Only needed for drivers without JDBC 4 auto-registration
+        public int minSize = 1;
+        public int maxSize = 10;
+        public long borrowTimeoutMillis = 30000;
+        public int validationTimeoutSeconds = 2;
+        public boolean validateOnBorrow = true;
+        public long idleTimeoutMillis = 300000;
+        public long evictionIntervalMillis = 60000;
+        public int statementCacheSize = 64; // Prepared statements kept open per connection, 0 to disable (see StatementCache)
+        public List<String> initScripts = new ArrayList<>(); // Run once at start-up, e.g. for an embedded database
+
+        /**
+         * Read settings from opms.* system properties, falling back to the defaults above.
+         * For a local embedded stand-in use e.g.
+         * -Dopms.jdbc.url=jdbc:h2:mem:opms;MODE=Oracle;DB_CLOSE_DELAY=-1 -Dopms.jdbc.init=create_schema.sql,testing_data.sql
+         */
+        public static Config fromSystemProperties(String user, String password) {
+            Config config = new Config();
+            config.url = System.getProperty("opms.jdbc.url", DEFAULT_URL);
+            config.user = System.getProperty("opms.jdbc.user", user);
+            config.password = System.getProperty("opms.jdbc.password", password);
+            config.driverClass = System.getProperty("opms.jdbc.driver");
+            config.minSize = Integer.getInteger("opms.pool.min", config.minSize);
+            config.maxSize = Integer.getInteger("opms.pool.max", config.maxSize);
+            config.borrowTimeoutMillis = Long.getLong("opms.pool.borrowTimeoutMillis", config.borrowTimeoutMillis);
+            config.validationTimeoutSeconds = Integer.getInteger("opms.pool.validationTimeoutSeconds", config.validationTimeoutSeconds);
+            config.validateOnBorrow = Boolean.parseBoolean(System.getProperty("opms.pool.validateOnBorrow", "true"));
+            config.idleTimeoutMillis = Long.getLong("opms.pool.idleTimeoutMillis", config.idleTimeoutMillis);
+            config.evictionIntervalMillis = Long.getLong("opms.pool.evictionIntervalMillis", config.evictionIntervalMillis);
+            config.statementCacheSize = Integer.getInteger("opms.pool.statementCacheSize", config.statementCacheSize);
+            String init = System.getProperty("opms.jdbc.init");
+            if(init != null && !init.trim().isEmpty()) {
+                for(String path : init.split(",")) {
+                    config.initScripts.add(path.trim());
+                }
+            }
+            return config;
+        }
+    }
+
+    /**
+     * Snapshot of the pool metrics
+     */
+    public static class Stats {
+        public final int active;
+        public final int idle;
+        public final long borrows;
+        public final long timeouts;
+        public final long created;
+        public final long destroyed;
+        public final long validationFailures;
+        public final double avgWaitMillis;
+        public final double maxWaitMillis;
+        public final double avgCheckoutMillis;
+        public final double maxCheckoutMillis;
+
+        Stats(ConnectionPool pool) {
+            int open = pool.total.get();
+            this.idle = pool.idle.size();
+            this.active = Math.max(0, open - idle);
+            this.borrows = pool.borrows.sum();
+            this.timeouts = pool.timeouts.sum();
+            this.created = pool.created.sum();
+            this.destroyed = pool.destroyed.sum();
+            this.validationFailures = pool.validationFailures.sum();
+            long returned = pool.returns.sum();
+            this.avgWaitMillis = borrows == 0 ? 0 : pool.totalWaitNanos.sum() / 1e6 / borrows;
+            this.maxWaitMillis = pool.maxWaitNanos.get() / 1e6;
+            this.avgCheckoutMillis = returned == 0 ? 0 : pool.totalCheckoutNanos.sum() / 1e6 / returned;
+            this.maxCheckoutMillis = pool.maxCheckoutNanos.get() / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("active=%d idle=%d borrows=%d timeouts=%d created=%d destroyed=%d validationFailures=%d " +
+                            "wait(avg=%.3fms max=%.3fms) checkout(avg=%.3fms max=%.3fms)",
+                    active, idle, borrows, timeouts, created, destroyed, validationFailures,
+                    avgWaitMillis, maxWaitMillis, avgCheckoutMillis, maxCheckoutMillis);
+        }
+    }
+
+    public ConnectionPool(Config config) throws SQLException {
+        if(config.minSize < 0 || config.maxSize < 1 || config.minSize > config.maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + config.minSize + ", max=" + config.maxSize);
+        }
+        this.config = config;
+        this.permits = new Semaphore(config.maxSize, true);
+        if(config.driverClass != null) {
+            try {
+                Class.forName(config.driverClass);
+            }
+            catch(ClassNotFoundException e) {
+                throw new SQLException("JDBC driver not found: " + config.driverClass, e);
+            }
+        }
+
+        // Open the minimum number of connections up front so the first borrowers do not pay for it
+        for(int i = 0; i < config.minSize; i++) {
+            idle.addLast(open());
+        }
+        if(!config.initScripts.isEmpty()) {
+            runInitScripts();
+        }
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "opms-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, config.evictionIntervalMillis, config.evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Borrow a connection. Closing the returned connection gives it back to the pool.
+     * With opms.metrics on, its calls are counted towards the thread's current operation (see Metrics).
+     */
+    public Connection getConnection() throws SQLException {
+        if(closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if(!permits.tryAcquire(config.borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTimeoutException("Timed out after " + config.borrowTimeoutMillis + "ms waiting for a connection");
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        PooledConnection pooled;
+        try {
+            pooled = takeValidIdle();
+            if(pooled == null) {
+                pooled = open();
+            }
+        }
+        catch(SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        long now = System.nanoTime();
+        long waited = now - start;
+        borrows.increment();
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        return Metrics.instrument(pooled.checkout(now));
+    }
+
+    /**
+     * Current pool metrics
+     */
+    public Stats getStats() {
+        return new Stats(this);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if(evictor != null) {
+            evictor.shutdownNow();
+        }
+        PooledConnection pooled;
+        while((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        while((pooled = idle.pollFirst()) != null) {
+            if(!config.validateOnBorrow || isValid(pooled)) {
+                return pooled;
+            }
+            validationFailures.increment();
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(config.validationTimeoutSeconds);
+        }
+        catch(SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(config.url, config.user, config.password);
+        total.incrementAndGet();
+        created.increment();
+        return new PooledConnection(physical, (config.statementCacheSize > 0) ? new StatementCache(physical, config.statementCacheSize) : null);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        total.decrementAndGet();
+        destroyed.increment();
+        if(pooled.statements != null) {
+            pooled.statements.close();
+        }
+        try {
+            pooled.physical.close();
+        }
+        catch(SQLException e) {
+            // Connection is being discarded anyway
+        }
+    }
+
+    private void release(PooledConnection pooled, long checkedOutAt) {
+        long held = System.nanoTime() - checkedOutAt;
+        returns.increment();
+        totalCheckoutNanos.add(held);
+        maxCheckoutNanos.accumulateAndGet(held, Math::max);
+
+        boolean reusable = !closed;
+        try {
+            // Never hand the next borrower an open transaction or a changed commit mode
+            if(reusable && !pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            reusable = reusable && !pooled.physical.isClosed();
+        }
+        catch(SQLException e) {
+            reusable = false;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        if(reusable) {
+            idle.addFirst(pooled);
+        }
+        else {
+            destroy(pooled);
+        }
+        permits.release();
+    }
+
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - config.idleTimeoutMillis;
+        // The least recently used connections sit at the tail of the deque
+        while(total.get() > config.minSize) {
+            PooledConnection oldest = idle.peekLast();
+            if(oldest == null || oldest.lastUsed > cutoff || !idle.removeLastOccurrence(oldest)) {
+                break;
+            }
+            destroy(oldest);
+        }
+    }
+
+    private void runInitScripts() throws SQLException {
+        try(Connection conn = DriverManager.getConnection(config.url, config.user, config.password)) {
+            for(String path : config.initScripts) {
+                SqlScripts.execute(conn, path);
+            }
+        }
+        catch(java.io.IOException e) {
+            throw new SQLException("Unable to read init script: " + e.getMessage(), e);
+        }
+    }
+
+    // A physical connection plus the bookkeeping needed to hand it out through a proxy
+    private class PooledConnection {
+        final Connection physical;
+        final StatementCache statements; // null when caching is disabled
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical, StatementCache statements) {
+            this.physical = physical;
+            this.statements = statements;
+        }
+
+        Connection checkout(long checkedOutAt) {
+            AtomicBoolean released = new AtomicBoolean();
+            InvocationHandler handler = (proxy, method, args) -> {
+                String name = method.getName();
+                if("close".equals(name)) {
+                    if(released.compareAndSet(false, true)) {
+                        release(this, checkedOutAt);
+                    }
+                    return null;
+                }
+                if("isClosed".equals(name)) {
+                    return released.get() || physical.isClosed();
+                }
+                if(released.get()) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+                if(statements != null && "prepareStatement".equals(name) && args.length == 1) {
+                    return statements.prepare((String)args[0]);
+                }
+                try {
+                    return method.invoke(physical, args);
+                }
+                catch(InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            };
+            return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+        }
+    }
+}
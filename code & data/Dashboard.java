@@ -0,0 +1,186 @@
+import java.lang.reflect.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * All admin reports at once: every panel runs on its own pooled connection in parallel, so the dashboard
+ * takes about as long as its slowest report. Panels are handed to the listener in the order they finish.
+ * Every statement gets the query timeout, and a panel still running at the deadline is reported as timed out
+ * and cancelled, so the other panels still show.
+ */
+public class Dashboard {
+    public static final String[] REVENUE_COLUMNS = {"Period", "Revenue"};
+
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "opms-dashboard");
+        t.setDaemon(true);
+        return t;
+    });
+
+    interface Query {
+        ArrayList<String[]> run(Connection conn) throws SQLException;
+    }
+
+    private static class Panel {
+        final String title;
+        final String[] columns;
+        final Query query;
+
+        Panel(String title, String[] columns, Query query) {
+            this.title = title;
+            this.columns = columns;
+            this.query = query;
+        }
+    }
+
+    /**
+     * Outcome of one panel: its rows, or the error (including a timeout) that stopped it
+     */
+    public static class Result {
+        public final String title;
+        public final String[] columns;
+        public final ArrayList<String[]> rows;
+        public final String error;
+        public final long millis;
+
+        Result(String title, String[] columns, ArrayList<String[]> rows, String error, long millis) {
+            this.title = title;
+            this.columns = columns;
+            this.rows = rows;
+            this.error = error;
+            this.millis = millis;
+        }
+    }
+
+    /**
+     * Receives each panel as it completes, on the thread that called run
+     */
+    public interface Listener {
+        void arrived(Result result);
+    }
+
+    private final ConnectionPool pool;
+    private final List<Panel> panels = new ArrayList<>();
+
+    /**
+     * lowStock and expiry may be null; when set, the low-stock and expired-stock panels read them instead of Medicine
+     */
+    public Dashboard(ConnectionPool pool, LowStockMonitor lowStock, ExpiryIndex expiry) {
+        this.pool = pool;
+        panels.add(new Panel("Revenue this month", REVENUE_COLUMNS, conn -> {
+            String month = YearMonth.now().toString();
+            return single(month, Operations.monthlyRevenue(conn, month));
+        }));
+        panels.add(new Panel("Revenue this year", REVENUE_COLUMNS, conn -> {
+            String year = Year.now().toString();
+            return single(year, Operations.annualRevenue(conn, year));
+        }));
+        panels.add(new Panel("Expired Stock", Operations.EXPIRED_STOCK_COLUMNS, conn -> {
+            if(expiry == null) {
+                return Operations.expiredStock(conn);
+            }
+            ArrayList<String[]> rows = new ArrayList<>();
+            expiry.expired(rows::add);
+            return rows;
+        }));
+        panels.add(new Panel("Top 5 Most Sold Drugs", Operations.TOP_DRUG_COLUMNS, Operations::topSoldDrugs));
+        panels.add(new Panel("Top 5 Customers by Spending", Operations.TOP_CUSTOMER_COLUMNS, Operations::topCustomers));
+        panels.add(new Panel("Top 5 Doctors by Prescriptions", Operations.TOP_DOCTOR_COLUMNS, Operations::topDoctors));
+        panels.add(new Panel("Low Stock Medicines", Operations.LOW_STOCK_COLUMNS, conn -> {
+            if(lowStock == null) {
+                return Operations.lowStock(conn, Integer.getInteger("opms.lowStock.threshold", 10));
+            }
+            ArrayList<String[]> rows = new ArrayList<>();
+            lowStock.lowStock(rows::add);
+            return rows;
+        }));
+    }
+
+    /**
+     * Run every panel and return the results in completion order, timed-out panels last
+     */
+    public List<Result> run(long timeoutMillis, Listener listener) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int timeoutSeconds = (int)Math.max(1, (timeoutMillis + 999) / 1000);
+        CompletionService<Result> completion = new ExecutorCompletionService<>(WORKERS);
+        Map<Future<Result>, Panel> running = new LinkedHashMap<>();
+        for(Panel panel : panels) {
+            running.put(completion.submit(() -> execute(panel, timeoutSeconds, start)), panel);
+        }
+
+        List<Result> results = new ArrayList<>();
+        try {
+            while(!running.isEmpty()) {
+                Future<Result> done = completion.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if(done == null) {
+                    break;
+                }
+                Panel panel = running.remove(done);
+                Result result;
+                try {
+                    result = done.get();
+                }
+                catch(ExecutionException e) {
+                    // execute() reports its own failures; this is only reached for errors such as OutOfMemoryError
+                    result = new Result(panel.title, panel.columns, null, String.valueOf(e.getCause()), elapsed(start));
+                }
+                results.add(result);
+                listener.arrived(result);
+            }
+        }
+        finally {
+            for(Map.Entry<Future<Result>, Panel> e : running.entrySet()) {
+                e.getKey().cancel(true);
+                Panel panel = e.getValue();
+                Result result = new Result(panel.title, panel.columns, null, "Timed out after " + timeoutMillis + "ms", elapsed(start));
+                results.add(result);
+                listener.arrived(result);
+            }
+        }
+        return results;
+    }
+
+    private Result execute(Panel panel, int timeoutSeconds, long start) {
+        Metrics.Scope scope = Metrics.operation("dashboard." + panel.title);
+        try(Connection conn = pool.getConnection()) {
+            ArrayList<String[]> rows = panel.query.run(withQueryTimeout(conn, timeoutSeconds));
+            return new Result(panel.title, panel.columns, rows, null, elapsed(start));
+        }
+        catch(SQLException | RuntimeException e) {
+            return new Result(panel.title, panel.columns, null, e.getMessage(), elapsed(start));
+        }
+        finally {
+            scope.close();
+        }
+    }
+
+    // Same connection, but every statement it creates stops on the server after timeoutSeconds
+    private static Connection withQueryTimeout(Connection conn, int timeoutSeconds) {
+        return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            Object result;
+            try {
+                result = method.invoke(conn, args);
+            }
+            catch(InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if(result instanceof Statement) {
+                ((Statement)result).setQueryTimeout(timeoutSeconds);
+            }
+            return result;
+        });
+    }
+
+    private static ArrayList<String[]> single(String period, double revenue) {
+        ArrayList<String[]> rows = new ArrayList<>();
+        rows.add(new String[]{period, String.format("%.2f", revenue)});
+        return rows;
+    }
+
+    private static long elapsed(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
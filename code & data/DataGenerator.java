@@ -0,0 +1,589 @@
+import java.io.*;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Deterministic synthetic data for all eleven tables of create_schema.sql.
+ *
+ * Every row is derived from (seed, table, key) alone, so a child row can recompute whatever it needs
+ * from its parent (an order knows its prescription's customer, an Ordered_Drugs line knows its order's
+ * pharmacy) without keeping anything in memory. Tables are split into chunks that run in parallel;
+ * the output is identical for any thread count. Drug, customer and doctor popularity follow Zipf
+ * distributions and order dates lean towards the end of the date range.
+ *
+ * Usage: java DataGenerator [--seed 42] [--scale 1] [--customers n] [--doctors n] [--drugs n] [--pharmacies n]
+ *        [--employees n] [--prescriptions n] [--orders n] [--lines n] [--batches n] [--end-date YYYY-MM-DD]
+ *        [--years n] [--threads n] [--chunk n] (--out csv-dir | --db)
+ * CSV output is written as <Table>.<chunk>.csv parts that BulkLoader can load; --db inserts directly
+ * using the opms.* connection properties.
+ */
+public class DataGenerator {
+    private static final String[] GENDERS = {"male", "female"};
+    private static final String[] SPECIALTIES = {"General", "Cardiology", "Dermatology", "Pediatrics", "Neurology", "Oncology", "Psychiatry"};
+    private static final String[] MEDICINE_TYPES = {"Antibiotic", "Antiviral", "Antifungal", "Vitamin", "Analgesic", "Antihistamine"};
+
+    // Tables in FK levels: a level only references tables of earlier levels
+    private static final String[][] LEVELS = {
+            {"Customer", "Doctor", "Drug", "Pharmacy"},
+            {"Employee", "Insurance", "Prescription", "Medicine"},
+            {"Order", "Prescribed_Drugs"},
+            {"Ordered_Drugs"}
+    };
+    private static final Map<String, String[]> COLUMNS = new HashMap<>();
+
+    static {
+        COLUMNS.put("Customer", new String[]{"SSN", "First_Name", "Last_Name", "Gender", "Date_of_Birth", "Phone", "Password", "Address"});
+        COLUMNS.put("Doctor", new String[]{"Doctor_ID", "First_Name", "Last_Name", "Specialty", "Phone"});
+        COLUMNS.put("Drug", new String[]{"Drug_Name", "Price", "Medicine_Type"});
+        COLUMNS.put("Pharmacy", new String[]{"Pharmacy_ID", "Name", "Address", "Phone"});
+        COLUMNS.put("Employee", new String[]{"Employee_ID", "First_Name", "Last_Name", "Gender", "Date_of_Birth", "Salary", "Phone", "Pharmacy_ID"});
+        COLUMNS.put("Insurance", new String[]{"Insurance_ID", "Company_Name", "Start_Date", "End_Date", "SSN"});
+        COLUMNS.put("Prescription", new String[]{"Prescription_ID", "Prescribed_Date", "Note", "Customer_SSN", "Doctor_ID"});
+        COLUMNS.put("Medicine", new String[]{"Drug_Name", "Pharmacy_ID", "Batch_Number", "Stock_Quantity", "Expiry_Date"});
+        COLUMNS.put("Order", new String[]{"Order_ID", "Order_Date", "Total_Amount", "Type", "Status", "Customer_SSN", "Employee_ID", "Prescription_ID"});
+        COLUMNS.put("Prescribed_Drugs", new String[]{"Prescription_ID", "Drug_Name", "Prescribed_Quantity", "Refill_Limit"});
+        COLUMNS.put("Ordered_Drugs", new String[]{"Order_ID", "Drug_Name", "Pharmacy_ID", "Batch_Number", "Ordered_Quantity", "Price"});
+    }
+
+    /**
+     * Sizes and shape of the generated data set
+     */
+    public static class Settings {
+        public long seed = 42;
+        public int customers = 1000;
+        public int doctors = 100;
+        public int drugs = 200;
+        public int pharmacies = 20;
+        public int employees = 200;
+        public int prescriptions = 5000;
+        public int orders = 10000;
+        public long lines = 25000; // Total Ordered_Drugs rows (approximate)
+        public int batchesPerPharmacy = 3; // Medicine batches of each drug at each pharmacy
+        public LocalDate endDate = LocalDate.of(2025, 12, 31);
+        public int years = 3;
+        public int chunk = 50000;
+        public int threads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Multiply every table size by factor
+         */
+        public Settings scale(double factor) {
+            customers = (int)Math.max(1, customers * factor);
+            doctors = (int)Math.max(1, doctors * factor);
+            drugs = (int)Math.max(1, drugs * factor);
+            pharmacies = (int)Math.max(1, pharmacies * factor);
+            employees = (int)Math.max(pharmacies, employees * factor);
+            prescriptions = (int)Math.max(1, prescriptions * factor);
+            orders = (int)Math.max(1, orders * factor);
+            lines = (long)Math.max(orders, lines * factor);
+            return this;
+        }
+    }
+
+    /**
+     * Where generated rows go; one sink per table chunk, used by one thread
+     */
+    public interface RowSink extends AutoCloseable {
+        void row(Object... values) throws IOException, SQLException;
+
+        @Override
+        void close() throws IOException, SQLException;
+    }
+
+    /**
+     * Opens sinks for table chunks
+     */
+    public interface SinkFactory {
+        RowSink open(String table, String[] columns, int chunk) throws IOException, SQLException;
+    }
+
+    private final Settings settings;
+    private final Zipf drugPopularity;
+    private final Zipf customerActivity;
+    private final Zipf doctorActivity;
+    private final long firstDay;
+    private final int dayRange;
+
+    public DataGenerator(Settings settings) {
+        if(settings.employees < settings.pharmacies) {
+            throw new IllegalArgumentException("Every pharmacy needs at least one employee");
+        }
+        this.settings = settings;
+        this.drugPopularity = new Zipf(settings.drugs, 1.0);
+        this.customerActivity = new Zipf(settings.customers, 0.6);
+        this.doctorActivity = new Zipf(settings.doctors, 0.8);
+        this.dayRange = settings.years * 365;
+        this.firstDay = settings.endDate.toEpochDay() - dayRange;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings();
+        double scale = 1;
+        String out = null;
+        boolean db = false;
+        Map<String, String> explicit = new HashMap<>();
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--seed": settings.seed = Long.parseLong(args[++i]); break;
+                case "--scale": scale = Double.parseDouble(args[++i]); break;
+                case "--end-date": settings.endDate = LocalDate.parse(args[++i]); break;
+                case "--years": settings.years = Integer.parseInt(args[++i]); break;
+                case "--threads": settings.threads = Integer.parseInt(args[++i]); break;
+                case "--chunk": settings.chunk = Integer.parseInt(args[++i]); break;
+                case "--out": out = args[++i]; break;
+                case "--db": db = true; break;
+                default:
+                    if(args[i].startsWith("--") && i + 1 < args.length) {
+                        explicit.put(args[i].substring(2), args[++i]);
+                    }
+                    else {
+                        System.err.println("Unknown argument: " + args[i]);
+                        System.exit(2);
+                    }
+            }
+        }
+        settings.scale(scale);
+        // Explicit sizes win over the scaled defaults
+        for(Map.Entry<String, String> e : explicit.entrySet()) {
+            switch(e.getKey()) {
+                case "customers": settings.customers = Integer.parseInt(e.getValue()); break;
+                case "doctors": settings.doctors = Integer.parseInt(e.getValue()); break;
+                case "drugs": settings.drugs = Integer.parseInt(e.getValue()); break;
+                case "pharmacies": settings.pharmacies = Integer.parseInt(e.getValue()); break;
+                case "employees": settings.employees = Integer.parseInt(e.getValue()); break;
+                case "prescriptions": settings.prescriptions = Integer.parseInt(e.getValue()); break;
+                case "orders": settings.orders = Integer.parseInt(e.getValue()); break;
+                case "lines": settings.lines = Long.parseLong(e.getValue()); break;
+                case "batches": settings.batchesPerPharmacy = Integer.parseInt(e.getValue()); break;
+                default:
+                    System.err.println("Unknown argument: --" + e.getKey());
+                    System.exit(2);
+            }
+        }
+        if((out == null) == !db) {
+            System.err.println("Specify exactly one of --out <dir> or --db");
+            System.exit(2);
+        }
+
+        DataGenerator generator = new DataGenerator(settings);
+        long start = System.nanoTime();
+        Map<String, Long> counts;
+        if(db) {
+            ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user"), System.getProperty("opms.jdbc.password"));
+            config.maxSize = Math.max(config.maxSize, settings.threads);
+            try(ConnectionPool pool = new ConnectionPool(config)) {
+                counts = generator.generate(jdbcSinks(pool, 1000));
+                try(Connection conn = pool.getConnection()) {
+                    // Generated keys bypass the Id_Allocation blocks, and orders the revenue rollup
+                    IdAllocator.reseed(conn, counts.keySet());
+                    RevenueRollup.rebuild(conn);
+                }
+            }
+        }
+        else {
+            File dir = new File(out);
+            if(!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            counts = generator.generate(csvSinks(dir));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long total = 0;
+        for(Map.Entry<String, Long> e : counts.entrySet()) {
+            OPMSDemo.View.displayMessage(String.format("%-20s %12d rows", e.getKey(), e.getValue()));
+            total += e.getValue();
+        }
+        OPMSDemo.View.displayMessage(String.format("Generated %d rows in %.1fs (%.0f rows/s)", total, seconds, total / seconds));
+    }
+
+    /**
+     * Generate every table level by level; tables and chunks within a level run in parallel.
+     * Returns the row count per table.
+     */
+    public Map<String, Long> generate(SinkFactory sinks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(settings.threads);
+        Map<String, Long> counts = new LinkedHashMap<>();
+        try {
+            for(String[] level : LEVELS) {
+                Map<String, List<Future<Long>>> futures = new LinkedHashMap<>();
+                for(String table : level) {
+                    long rows = driverRows(table);
+                    List<Future<Long>> chunks = new ArrayList<>();
+                    for(long from = 1, chunk = 0; from <= rows; from += settings.chunk, chunk++) {
+                        long first = from;
+                        long last = Math.min(rows, from + settings.chunk - 1);
+                        int index = (int)chunk;
+                        chunks.add(pool.submit(() -> {
+                            try(RowSink sink = sinks.open(table, COLUMNS.get(table), index)) {
+                                return generate(table, first, last, sink);
+                            }
+                        }));
+                    }
+                    futures.put(table, chunks);
+                }
+                for(Map.Entry<String, List<Future<Long>>> e : futures.entrySet()) {
+                    long sum = 0;
+                    for(Future<Long> f : e.getValue()) {
+                        sum += f.get();
+                    }
+                    counts.put(e.getKey(), sum);
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        return counts;
+    }
+
+    // Number of keys that drive a table's chunks (child tables iterate over their parent's keys)
+    private long driverRows(String table) {
+        switch(table) {
+            case "Customer":
+            case "Insurance": return settings.customers;
+            case "Doctor": return settings.doctors;
+            case "Drug": return settings.drugs;
+            case "Pharmacy": return settings.pharmacies;
+            case "Employee": return settings.employees;
+            case "Prescription":
+            case "Prescribed_Drugs": return settings.prescriptions;
+            case "Medicine": return (long)settings.drugs * settings.pharmacies * settings.batchesPerPharmacy;
+            case "Order":
+            case "Ordered_Drugs": return settings.orders;
+            default: throw new IllegalArgumentException(table);
+        }
+    }
+
+    // Write the rows for keys first..last of a table and return how many rows were written
+    private long generate(String table, long first, long last, RowSink sink) throws IOException, SQLException {
+        long rows = 0;
+        for(long key = first; key <= last; key++) {
+            int id = (int)key;
+            SplittableRandom r = random(table, key);
+            switch(table) {
+                case "Customer":
+                    sink.row(ssn(id), "FirstC" + id, "LastC" + id, GENDERS[r.nextInt(2)], date(LocalDate.of(1940, 1, 1).toEpochDay() + r.nextInt(65 * 365)),
+                            phone(r), "pass" + id, "Address " + id);
+                    rows++;
+                    break;
+                case "Doctor":
+                    sink.row(id, "FirstD" + id, "LastD" + id, SPECIALTIES[r.nextInt(SPECIALTIES.length)], phone(r));
+                    rows++;
+                    break;
+                case "Drug":
+                    sink.row(drugName(id), drugPrice(id), MEDICINE_TYPES[r.nextInt(MEDICINE_TYPES.length)]);
+                    rows++;
+                    break;
+                case "Pharmacy":
+                    sink.row(id, "Pharmacy" + id, "Pharmacy Address " + id, phone(r));
+                    rows++;
+                    break;
+                case "Employee":
+                    sink.row(id, "FirstE" + id, "LastE" + id, GENDERS[r.nextInt(2)], date(LocalDate.of(1960, 1, 1).toEpochDay() + r.nextInt(40 * 365)),
+                            money(3000 + r.nextDouble() * 6000), phone(r), employeePharmacy(id));
+                    rows++;
+                    break;
+                case "Insurance":
+                    // Roughly 60% of customers are insured, one policy each (SSN is unique in Insurance)
+                    if(r.nextInt(100) < 60) {
+                        long start = settings.endDate.toEpochDay() - 365 * 5 + r.nextInt(365 * 4);
+                        sink.row(id, "Company" + (1 + r.nextInt(20)), date(start), date(start + 365 + r.nextInt(365 * 5)), ssn(id));
+                        rows++;
+                    }
+                    break;
+                case "Prescription": {
+                    Prescription p = prescription(id);
+                    sink.row(id, date(p.day), r.nextInt(4) == 0 ? "Note " + id : null, ssn(p.customer), p.doctor);
+                    rows++;
+                    break;
+                }
+                case "Prescribed_Drugs":
+                    for(int drug : prescribedDrugs(id)) {
+                        sink.row(id, drugName(drug), 1 + r.nextInt(60), r.nextInt(6));
+                        rows++;
+                    }
+                    break;
+                case "Medicine": {
+                    long index = key - 1;
+                    int batch = (int)(index % settings.batchesPerPharmacy);
+                    int pharmacy = (int)(index / settings.batchesPerPharmacy % settings.pharmacies) + 1;
+                    int drug = (int)(index / settings.batchesPerPharmacy / settings.pharmacies) + 1;
+                    // About 5% of batches run low; expiry dates range from a year before to three years after the end date
+                    int stock = r.nextInt(20) == 0 ? r.nextInt(10) : 10 + r.nextInt(990);
+                    sink.row(drugName(drug), pharmacy, batchNumber(drug, pharmacy, batch), stock, date(settings.endDate.toEpochDay() - 365 + r.nextInt(4 * 365)));
+                    rows++;
+                    break;
+                }
+                case "Order": {
+                    Order o = order(id);
+                    sink.row(id, date(o.day), money(o.total), o.urgent ? "urgent" : "normal", o.complete ? "complete" : "incomplete",
+                            ssn(o.customer), o.employee, o.prescription);
+                    rows++;
+                    break;
+                }
+                case "Ordered_Drugs": {
+                    Order o = order(id);
+                    for(int i = 0; i < o.drugs.length; i++) {
+                        sink.row(id, drugName(o.drugs[i]), o.pharmacy, batchNumber(o.drugs[i], o.pharmacy, o.batches[i]), o.quantities[i], drugPrice(o.drugs[i]));
+                        rows++;
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException(table);
+            }
+        }
+        return rows;
+    }
+
+    // Prescription attributes, recomputed wherever they are needed
+    private static class Prescription {
+        int customer;
+        int doctor;
+        long day;
+    }
+
+    private Prescription prescription(int id) {
+        SplittableRandom r = random("Prescription#", id);
+        Prescription p = new Prescription();
+        p.customer = customerActivity.sample(r);
+        p.doctor = doctorActivity.sample(r);
+        p.day = skewedDay(r);
+        return p;
+    }
+
+    private int[] prescribedDrugs(int id) {
+        SplittableRandom r = random("Prescribed_Drugs#", id);
+        return distinctDrugs(r, 1 + r.nextInt(Math.min(3, settings.drugs)));
+    }
+
+    // Order attributes shared by the Order row and its Ordered_Drugs lines
+    private static class Order {
+        long day;
+        int customer;
+        int prescription;
+        int pharmacy;
+        int employee;
+        boolean urgent;
+        boolean complete;
+        int[] drugs;
+        int[] batches;
+        int[] quantities;
+        double total;
+    }
+
+    private Order order(int id) {
+        SplittableRandom r = random("Order#", id);
+        Order o = new Order();
+        o.prescription = 1 + r.nextInt(settings.prescriptions);
+        Prescription p = prescription(o.prescription);
+        o.customer = p.customer;
+        o.day = Math.min(settings.endDate.toEpochDay(), p.day + r.nextInt(60));
+        o.pharmacy = 1 + r.nextInt(settings.pharmacies);
+        o.employee = employeeAt(o.pharmacy, r);
+        o.urgent = r.nextInt(5) == 0;
+        // Recent orders are more likely to still be open
+        long age = settings.endDate.toEpochDay() - o.day;
+        o.complete = age > 14 ? r.nextInt(20) != 0 : r.nextInt(3) == 0;
+
+        double meanExtra = Math.max(0, (double)settings.lines / settings.orders - 1);
+        int count = 1 + (int)Math.min(Math.min(19, settings.drugs - 1), Math.round(-Math.log(1 - r.nextDouble()) * meanExtra));
+        o.drugs = distinctDrugs(r, count);
+        o.batches = new int[count];
+        o.quantities = new int[count];
+        for(int i = 0; i < count; i++) {
+            o.batches[i] = r.nextInt(settings.batchesPerPharmacy);
+            o.quantities[i] = 1 + r.nextInt(5);
+            o.total += drugPrice(o.drugs[i]) * o.quantities[i];
+        }
+        return o;
+    }
+
+    private int[] distinctDrugs(SplittableRandom r, int count) {
+        int[] drugs = new int[count];
+        for(int i = 0; i < count; i++) {
+            int drug;
+            boolean repeat;
+            do {
+                drug = drugPopularity.sample(r);
+                repeat = false;
+                for(int j = 0; j < i; j++) {
+                    repeat |= drugs[j] == drug;
+                }
+            } while(repeat);
+            drugs[i] = drug;
+        }
+        return drugs;
+    }
+
+    // Employees are spread round-robin over pharmacies, so pharmacy p has ids p, p + P, p + 2P, ...
+    private int employeePharmacy(int employee) {
+        return (employee - 1) % settings.pharmacies + 1;
+    }
+
+    private int employeeAt(int pharmacy, SplittableRandom r) {
+        int staff = (settings.employees - pharmacy) / settings.pharmacies + 1;
+        return pharmacy + settings.pharmacies * r.nextInt(staff);
+    }
+
+    // Day in the date range, weighted towards the end (u^0.5 puts three quarters of the mass in the later half)
+    private long skewedDay(SplittableRandom r) {
+        return firstDay + (long)(Math.sqrt(r.nextDouble()) * dayRange);
+    }
+
+    private double drugPrice(int drug) {
+        return money(1 + random("Drug$", drug).nextDouble() * 149);
+    }
+
+    private SplittableRandom random(String table, long key) {
+        return new SplittableRandom(mix(settings.seed * 0x9E3779B97F4A7C15L + table.hashCode() * 0xC2B2AE3D27D4EB4FL + key));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    static String ssn(int customer) {
+        return String.format("%03d-%02d-%04d", customer / 1000000 % 1000, customer / 10000 % 100, customer % 10000);
+    }
+
+    static String drugName(int drug) {
+        return "Drug" + drug;
+    }
+
+    static String batchNumber(int drug, int pharmacy, int batch) {
+        return "B" + drug + "-" + pharmacy + "-" + (batch + 1);
+    }
+
+    private static String phone(SplittableRandom r) {
+        return String.format("%010d", r.nextLong(10000000000L));
+    }
+
+    private static java.sql.Date date(long epochDay) {
+        return java.sql.Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    private static double money(double amount) {
+        return Math.round(amount * 100) / 100.0;
+    }
+
+    /**
+     * Zipf-distributed ranks 1..n, sampled by binary search over the cumulative weights
+     */
+    static class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double exponent) {
+            cdf = new double[n];
+            double sum = 0;
+            for(int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, exponent);
+                cdf[i] = sum;
+            }
+            for(int i = 0; i < n; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        int sample(SplittableRandom r) {
+            int i = Arrays.binarySearch(cdf, r.nextDouble());
+            return (i >= 0 ? i : -i - 1) + 1;
+        }
+    }
+
+    /**
+     * CSV parts <Table>.<chunk>.csv with a header row, as read by BulkLoader
+     */
+    public static SinkFactory csvSinks(File dir) {
+        return (table, columns, chunk) -> {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dir, String.format("%s.%04d.csv", table, chunk))), 1 << 16);
+            writer.write(String.join(",", columns));
+            writer.newLine();
+            return new RowSink() {
+                @Override
+                public void row(Object... values) throws IOException {
+                    for(int i = 0; i < values.length; i++) {
+                        if(i > 0) {
+                            writer.write(',');
+                        }
+                        if(values[i] != null) {
+                            String v = values[i].toString();
+                            if(v.indexOf(',') >= 0 || v.indexOf('"') >= 0 || v.isEmpty()) {
+                                v = "\"" + v.replace("\"", "\"\"") + "\"";
+                            }
+                            writer.write(v);
+                        }
+                    }
+                    writer.newLine();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    writer.close();
+                }
+            };
+        };
+    }
+
+    /**
+     * Batched inserts straight into the database, one connection and one commit per chunk
+     */
+    public static SinkFactory jdbcSinks(ConnectionPool pool, int batchSize) {
+        return (table, columns, chunk) -> {
+            String name = table.equals("Order") ? "\"Order\"" : table;
+            String sql = "INSERT INTO " + name + " (" + String.join(", ", columns) + ") VALUES (" + String.join(", ", Collections.nCopies(columns.length, "?")) + ")";
+            Connection conn = pool.getConnection();
+            conn.setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepareStatement(sql);
+            return new RowSink() {
+                private int pending;
+                private boolean failed;
+
+                @Override
+                public void row(Object... values) throws SQLException {
+                    try {
+                        for(int i = 0; i < values.length; i++) {
+                            if(values[i] == null) {
+                                pstmt.setNull(i + 1, Types.VARCHAR);
+                            }
+                            else {
+                                pstmt.setObject(i + 1, values[i]);
+                            }
+                        }
+                        pstmt.addBatch();
+                        if(++pending == batchSize) {
+                            pstmt.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                    catch(SQLException e) {
+                        failed = true;
+                        throw e;
+                    }
+                }
+
+                @Override
+                public void close() throws SQLException {
+                    try {
+                        if(failed) {
+                            conn.rollback();
+                            return;
+                        }
+                        if(pending > 0) {
+                            pstmt.executeBatch();
+                        }
+                        conn.commit();
+                    }
+                    finally {
+                        pstmt.close();
+                        conn.close();
+                    }
+                }
+            };
+        };
+    }
+}
@@ -0,0 +1,166 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Medicine batches by expiry day, kept alongside the InventoryCache so the expired and near-expiry listings are
+ * a range of a sorted map rather than a scan of the table.
+ *
+ * A background sweeper follows the calendar: when a day's batches expire they are marked unsellable in the cache
+ * (decrements of them fail from then on), and when a batch with stock left comes within noticeDays of its expiry
+ * an "expiring within N days" notice is queued once. Consumers take the queued notices with drainNotices.
+ */
+public class ExpiryIndex implements InventoryCache.StockListener, AutoCloseable {
+    public static final String[] EXPIRING_COLUMNS = {"Drug Name", "Pharmacy ID", "Batch Number", "Expiry Date", "Stock Quantity"};
+    private static final int MAX_NOTICES = 1000;
+
+    private static final Comparator<InventoryCache.Batch> BATCH_ORDER = Comparator
+            .comparing((InventoryCache.Batch b) -> b.drugName)
+            .thenComparingInt(b -> b.pharmacyId)
+            .thenComparing(b -> b.batchNumber);
+
+    private final InventoryCache inventory;
+    private final int noticeDays;
+    private final ConcurrentSkipListMap<LocalDate, ConcurrentSkipListSet<InventoryCache.Batch>> byDay = new ConcurrentSkipListMap<>();
+    private final ConcurrentLinkedQueue<String> notices = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService sweeper;
+
+    // Days already handled by the sweeper; guarded by this
+    private LocalDate expiredThrough;
+    private LocalDate noticedThrough;
+
+    /**
+     * Index every cached batch and check for newly expired or expiring batches every sweepMillis (0: only on sweep())
+     */
+    public ExpiryIndex(InventoryCache inventory, int noticeDays, long sweepMillis) {
+        this.inventory = inventory;
+        this.noticeDays = noticeDays;
+        inventory.addListener(this);
+        inventory.forEach((batch, quantity) -> index(batch));
+        sweep();
+        if(sweepMillis > 0) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "opms-expiry-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            sweeper.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        }
+        else {
+            sweeper = null;
+        }
+    }
+
+    @Override
+    public void batchAdded(InventoryCache.Batch batch) {
+        index(batch);
+        synchronized(this) {
+            // A batch loaded after its day was swept is handled here instead
+            if(expiredThrough != null && !batch.expiryDate.isAfter(expiredThrough)) {
+                inventory.markExpired(batch);
+            }
+        }
+    }
+
+    @Override
+    public void stockChanged(InventoryCache.Batch batch, int oldQuantity, int newQuantity) {
+        // Membership does not depend on stock
+    }
+
+    /**
+     * Expire the days that have passed and queue notices for the days that came within reach; a no-op within a day
+     */
+    public synchronized void sweep() {
+        LocalDate today = LocalDate.now();
+        if(expiredThrough == null || today.isAfter(expiredThrough)) {
+            LocalDate from = (expiredThrough == null) ? LocalDate.MIN : expiredThrough;
+            for(Set<InventoryCache.Batch> batches : byDay.subMap(from, expiredThrough == null, today, true).values()) {
+                for(InventoryCache.Batch batch : batches) {
+                    // Batches that were already expired at startup are listed, not announced
+                    if(expiredThrough != null && !batch.isExpired() && inventory.quantity(batch) > 0) {
+                        notice(batch + " expired on " + batch.expiryDate + " with " + inventory.quantity(batch) + " unit(s) left");
+                    }
+                    inventory.markExpired(batch);
+                }
+            }
+            expiredThrough = today;
+        }
+        LocalDate horizon = today.plusDays(noticeDays);
+        if(noticedThrough == null || horizon.isAfter(noticedThrough)) {
+            LocalDate from = (noticedThrough == null) ? today : noticedThrough;
+            for(Set<InventoryCache.Batch> batches : byDay.subMap(from, false, horizon, true).values()) {
+                for(InventoryCache.Batch batch : batches) {
+                    int quantity = inventory.quantity(batch);
+                    if(quantity > 0) {
+                        notice(batch + " expires on " + batch.expiryDate + " (within " + noticeDays + " days) with " + quantity + " unit(s) left");
+                    }
+                }
+            }
+            noticedThrough = horizon;
+        }
+    }
+
+    /**
+     * Batches past their expiry date, as Operations.expiredStock lists them; no table access
+     */
+    public void expired(Operations.RowSink sink) {
+        for(Set<InventoryCache.Batch> batches : byDay.headMap(LocalDate.now(), true).values()) {
+            for(InventoryCache.Batch batch : batches) {
+                if(!sink.row(new String[]{batch.drugName, String.valueOf(batch.pharmacyId), batch.batchNumber, batch.expiryDate.toString()})) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Unexpired batches with stock that expire within days, soonest first, see EXPIRING_COLUMNS
+     */
+    public void expiringWithin(int days, Operations.RowSink sink) {
+        LocalDate today = LocalDate.now();
+        for(Set<InventoryCache.Batch> batches : byDay.subMap(today, false, today.plusDays(days), true).values()) {
+            for(InventoryCache.Batch batch : batches) {
+                int quantity = inventory.quantity(batch);
+                if(quantity > 0 && !sink.row(new String[]{batch.drugName, String.valueOf(batch.pharmacyId), batch.batchNumber,
+                        batch.expiryDate.toString(), String.valueOf(quantity)})) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public int noticeDays() {
+        return noticeDays;
+    }
+
+    /**
+     * Take the notices queued since the last call, oldest first
+     */
+    public List<String> drainNotices() {
+        List<String> drained = new ArrayList<>();
+        String notice;
+        while((notice = notices.poll()) != null) {
+            drained.add(notice);
+        }
+        return drained;
+    }
+
+    @Override
+    public void close() {
+        if(sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    private void index(InventoryCache.Batch batch) {
+        byDay.computeIfAbsent(batch.expiryDate, k -> new ConcurrentSkipListSet<>(BATCH_ORDER)).add(batch);
+    }
+
+    private void notice(String text) {
+        // Nobody reading them: keep the newest
+        while(notices.size() >= MAX_NOTICES) {
+            notices.poll();
+        }
+        notices.add(text);
+    }
+}
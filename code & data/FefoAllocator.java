@@ -0,0 +1,134 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * First-expiry-first-out batch allocation.
+ * Keeps, per drug, the in-stock batches ordered by Expiry_Date (then pharmacy and batch number).
+ * The index listens to the InventoryCache, so a batch enters when it gets stock and leaves when it
+ * runs out; an allocation only walks the front of one drug's index and never re-sorts or re-queries.
+ */
+public class FefoAllocator implements InventoryCache.StockListener {
+    private static final Comparator<InventoryCache.Batch> EXPIRY_ORDER = Comparator
+            .comparing((InventoryCache.Batch b) -> b.expiryDate)
+            .thenComparingInt(b -> b.pharmacyId)
+            .thenComparing(b -> b.batchNumber);
+
+    private final InventoryCache inventory;
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<InventoryCache.Batch>> byDrug = new ConcurrentHashMap<>();
+
+    /**
+     * Thrown when the sellable stock of a drug does not cover the requested quantity
+     */
+    public static class InsufficientStockException extends SQLException {
+        private static final long serialVersionUID = 1L;
+        public final String drugName;
+        public final int requested;
+        public final int available;
+
+        InsufficientStockException(String drugName, int requested, int available) {
+            super("Only " + available + " unexpired unit(s) of " + drugName + " available, " + requested + " requested");
+            this.drugName = drugName;
+            this.requested = requested;
+            this.available = available;
+        }
+    }
+
+    public FefoAllocator(InventoryCache inventory) {
+        this.inventory = inventory;
+        inventory.addListener(this);
+        inventory.forEach((batch, quantity) -> {
+            if(quantity > 0) {
+                index(batch).add(batch);
+            }
+        });
+    }
+
+    @Override
+    public void stockChanged(InventoryCache.Batch batch, int oldQuantity, int newQuantity) {
+        // Only running out or getting stock back changes membership
+        if((oldQuantity > 0) == (newQuantity > 0)) {
+            return;
+        }
+        // Notifications for one batch can arrive out of order, so follow the live counter rather than the event
+        ConcurrentSkipListSet<InventoryCache.Batch> batches = index(batch);
+        boolean inStock;
+        do {
+            inStock = inventory.quantity(batch) > 0;
+            if(inStock) {
+                batches.add(batch);
+            }
+            else {
+                batches.remove(batch);
+            }
+        } while((inventory.quantity(batch) > 0) != inStock);
+    }
+
+    /**
+     * Split quantity of a drug over unexpired batches, earliest expiry first.
+     * pharmacyId restricts the search to one pharmacy; null searches all of them.
+     */
+    public List<OrderPlacement.OrderLine> allocate(String drugName, int quantity, Integer pharmacyId, double price) throws SQLException {
+        LocalDate today = LocalDate.now();
+        List<OrderPlacement.OrderLine> lines = new ArrayList<>();
+        int remaining = quantity;
+        ConcurrentSkipListSet<InventoryCache.Batch> batches = byDrug.get(drugName);
+        if(batches != null) {
+            for(InventoryCache.Batch batch : batches) {
+                if(remaining == 0) {
+                    break;
+                }
+                // Expired batches sit at the front of the order; drop them so later allocations skip them for free
+                if(!batch.expiryDate.isAfter(today)) {
+                    batches.remove(batch);
+                    continue;
+                }
+                if(pharmacyId != null && batch.pharmacyId != pharmacyId) {
+                    continue;
+                }
+                int take = Math.min(remaining, inventory.quantity(batch));
+                if(take > 0) {
+                    lines.add(new OrderPlacement.OrderLine(drugName, batch.pharmacyId, batch.batchNumber, take, price));
+                    remaining -= take;
+                }
+            }
+        }
+        if(remaining > 0) {
+            throw new InsufficientStockException(drugName, quantity, quantity - remaining);
+        }
+        return lines;
+    }
+
+    /**
+     * Same allocation without a cache: one ordered query over the drug's batches
+     */
+    public static List<OrderPlacement.OrderLine> allocate(Connection conn, String drugName, int quantity, Integer pharmacyId, double price) throws SQLException {
+        String sql = "SELECT Pharmacy_ID, Batch_Number, Stock_Quantity FROM Medicine " +
+                "WHERE Drug_Name = ? AND Stock_Quantity > 0 AND Expiry_Date > TRUNC(SYSDATE)" +
+                ((pharmacyId != null) ? " AND Pharmacy_ID = ?" : "") +
+                " ORDER BY Expiry_Date, Pharmacy_ID, Batch_Number";
+        List<OrderPlacement.OrderLine> lines = new ArrayList<>();
+        int remaining = quantity;
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, drugName);
+            if(pharmacyId != null) {
+                pstmt.setInt(2, pharmacyId);
+            }
+            ResultSet rs = pstmt.executeQuery();
+            while(remaining > 0 && rs.next()) {
+                int take = Math.min(remaining, rs.getInt(3));
+                lines.add(new OrderPlacement.OrderLine(drugName, rs.getInt(1), rs.getString(2), take, price));
+                remaining -= take;
+            }
+        }
+        if(remaining > 0) {
+            throw new InsufficientStockException(drugName, quantity, quantity - remaining);
+        }
+        return lines;
+    }
+
+    private ConcurrentSkipListSet<InventoryCache.Batch> index(InventoryCache.Batch batch) {
+        return byDrug.computeIfAbsent(batch.drugName, k -> new ConcurrentSkipListSet<>(EXPIRY_ORDER));
+    }
+}
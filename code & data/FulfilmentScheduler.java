@@ -0,0 +1,286 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands incomplete orders to the employees who fulfil them: urgent orders first, then the oldest.
+ *
+ * Every employee has their own queue of the orders they manage (a skip list, so the owner taking from the front
+ * and others adding never block each other); together the queues of a pharmacy's employees form its queue.
+ * An employee whose queue is empty steals the most urgent, oldest order from a colleague at the same pharmacy,
+ * and the order's Employee_ID moves with it. New orders can be assigned to the employee with the shortest queue.
+ *
+ * The queues are built from the incomplete orders at startup and then follow the orders placed and completed
+ * in this process. Per pharmacy the scheduler counts dispatches and steals and records how long orders waited
+ * between entering the queue and being handed out (time before startup is not counted).
+ */
+public class FulfilmentScheduler {
+    public static final String[] STATS_COLUMNS = {"Pharmacy ID", "Employees", "Queued", "Urgent", "Dispatched", "Stolen", "Wait p50 ms", "Wait p99 ms", "Wait max ms"};
+
+    private static final Comparator<Job> PRIORITY = Comparator
+            .comparing((Job j) -> !j.urgent)
+            .thenComparing(j -> j.orderDate)
+            .thenComparingLong(j -> j.orderId);
+
+    /**
+     * An incomplete order waiting to be fulfilled
+     */
+    public static class Job {
+        public final long orderId;
+        public final boolean urgent;
+        public final LocalDate orderDate;
+        final long queuedAt;
+        boolean stolen; // Set by next() when it came from a colleague's queue
+        volatile int holder = -1; // Employee it was dispatched to
+
+        Job(long orderId, boolean urgent, LocalDate orderDate) {
+            this.orderId = orderId;
+            this.urgent = urgent;
+            this.orderDate = orderDate;
+            this.queuedAt = System.nanoTime();
+        }
+
+        public boolean wasStolen() {
+            return stolen;
+        }
+
+        @Override
+        public String toString() {
+            return "order " + orderId + " (" + (urgent ? "urgent" : "normal") + ", " + orderDate + ")";
+        }
+    }
+
+    private static class Worker {
+        final int employeeId;
+        final Pharmacy pharmacy;
+        final ConcurrentSkipListSet<Job> queue = new ConcurrentSkipListSet<>(PRIORITY);
+
+        Worker(int employeeId, Pharmacy pharmacy) {
+            this.employeeId = employeeId;
+            this.pharmacy = pharmacy;
+        }
+    }
+
+    private static class Pharmacy {
+        final int pharmacyId;
+        final List<Worker> workers = new CopyOnWriteArrayList<>();
+        final LongAdder dispatched = new LongAdder();
+        final LongAdder stolen = new LongAdder();
+        final LatencyHistogram waits = new LatencyHistogram();
+
+        Pharmacy(int pharmacyId) {
+            this.pharmacyId = pharmacyId;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Worker> workers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Pharmacy> pharmacies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Job> queued = new ConcurrentHashMap<>(); // Order_ID -> job, while queued
+    private final ConcurrentHashMap<Long, Job> dispatched = new ConcurrentHashMap<>(); // Handed out, not yet completed
+
+    /**
+     * Load the employees and queue every incomplete order
+     */
+    public FulfilmentScheduler(ConnectionPool pool) throws SQLException {
+        try(Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.setFetchSize(Operations.FETCH_SIZE);
+            ResultSet rs = stmt.executeQuery("SELECT Employee_ID, Pharmacy_ID FROM Employee");
+            while(rs.next()) {
+                Pharmacy pharmacy = pharmacies.computeIfAbsent(rs.getInt(2), Pharmacy::new);
+                Worker worker = new Worker(rs.getInt(1), pharmacy);
+                workers.put(worker.employeeId, worker);
+                pharmacy.workers.add(worker);
+            }
+            rs = stmt.executeQuery("SELECT Order_ID, Type, Order_Date, Employee_ID FROM \"Order\" WHERE Status = 'incomplete'");
+            while(rs.next()) {
+                submit(rs.getLong(1), rs.getInt(4), rs.getString(2), rs.getDate(3).toLocalDate());
+            }
+        }
+    }
+
+    /**
+     * Queue a newly placed order with the employee managing it; orders of unknown employees are not scheduled
+     */
+    public void submit(long orderId, int employeeId, String type, LocalDate orderDate) {
+        Worker worker = workers.get(employeeId);
+        if(worker == null) {
+            return;
+        }
+        Job job = new Job(orderId, "urgent".equals(type), orderDate);
+        if(queued.putIfAbsent(orderId, job) == null) {
+            worker.queue.add(job);
+        }
+    }
+
+    /**
+     * The employee of a pharmacy with the fewest queued orders, or -1 if it has no employees
+     */
+    public int leastLoaded(int pharmacyId) {
+        Pharmacy pharmacy = pharmacies.get(pharmacyId);
+        Worker best = null;
+        if(pharmacy != null) {
+            for(Worker worker : pharmacy.workers) {
+                if(best == null || worker.queue.size() < best.queue.size()) {
+                    best = worker;
+                }
+            }
+        }
+        return (best != null) ? best.employeeId : -1;
+    }
+
+    /**
+     * The next order for an employee: the head of their own queue, or else the most urgent, oldest order stolen
+     * from a colleague at the same pharmacy (reassigned to this employee). Null when the pharmacy has nothing queued.
+     */
+    public Job next(Connection conn, int employeeId) throws SQLException {
+        Worker self = workers.get(employeeId);
+        if(self == null) {
+            return null;
+        }
+        Job job;
+        while((job = self.queue.pollFirst()) != null) {
+            if(queued.remove(job.orderId, job)) {
+                return dispatch(self, job);
+            }
+        }
+        while(true) {
+            Worker victim = null;
+            Job best = null;
+            for(Worker worker : self.pharmacy.workers) {
+                Job head = (worker == self) ? null : first(worker.queue);
+                if(head != null && (best == null || PRIORITY.compare(head, best) < 0)) {
+                    victim = worker;
+                    best = head;
+                }
+            }
+            if(best == null) {
+                return null;
+            }
+            // Lost the race for this one (its owner or another thief took it): look again
+            if(!victim.queue.remove(best) || !queued.remove(best.orderId, best)) {
+                continue;
+            }
+            if(reassign(conn, best.orderId, victim.employeeId, employeeId)) {
+                best.stolen = true;
+                self.pharmacy.stolen.increment();
+                return dispatch(self, best);
+            }
+            // Completed or reassigned elsewhere in the meantime; it has left the queue for good
+        }
+    }
+
+    /**
+     * Put a dispatched order back, e.g. when the employee did not complete it
+     */
+    public void requeue(int employeeId, Job job) {
+        dispatched.remove(job.orderId, job);
+        Worker worker = workers.get(employeeId);
+        if(worker != null && queued.putIfAbsent(job.orderId, job) == null) {
+            worker.queue.add(job);
+        }
+    }
+
+    /**
+     * Put an order dispatched to this employee back by its id; false if it was not
+     */
+    public boolean release(int employeeId, long orderId) {
+        Job job = dispatched.get(orderId);
+        if(job == null || job.holder != employeeId) {
+            return false;
+        }
+        requeue(employeeId, job);
+        return true;
+    }
+
+    /**
+     * Forget a completed order, whether it was dispatched or completed directly, so no one is dispatched it later
+     */
+    public void completed(long orderId) {
+        dispatched.remove(orderId);
+        Job job = queued.remove(orderId);
+        if(job != null) {
+            for(Worker worker : workers.values()) {
+                if(worker.queue.remove(job)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Queued orders of an employee in dispatch order, as {Order ID, Type, Order Date} rows
+     */
+    public ArrayList<String[]> queue(int employeeId) {
+        ArrayList<String[]> rows = new ArrayList<>();
+        Worker worker = workers.get(employeeId);
+        if(worker != null) {
+            for(Job job : worker.queue) {
+                rows.add(new String[]{String.valueOf(job.orderId), job.urgent ? "urgent" : "normal", job.orderDate.toString()});
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Queue depth, dispatches, steals and wait times per pharmacy, see STATS_COLUMNS
+     */
+    public ArrayList<String[]> stats() {
+        List<Pharmacy> sorted = new ArrayList<>(pharmacies.values());
+        sorted.sort(Comparator.comparingInt(p -> p.pharmacyId));
+        ArrayList<String[]> rows = new ArrayList<>();
+        for(Pharmacy pharmacy : sorted) {
+            int depth = 0;
+            int urgent = 0;
+            for(Worker worker : pharmacy.workers) {
+                for(Job job : worker.queue) {
+                    depth++;
+                    if(job.urgent) {
+                        urgent++;
+                    }
+                }
+            }
+            rows.add(new String[]{
+                    String.valueOf(pharmacy.pharmacyId),
+                    String.valueOf(pharmacy.workers.size()),
+                    String.valueOf(depth),
+                    String.valueOf(urgent),
+                    String.valueOf(pharmacy.dispatched.sum()),
+                    String.valueOf(pharmacy.stolen.sum()),
+                    String.format("%.1f", pharmacy.waits.percentile(50) / 1e6),
+                    String.format("%.1f", pharmacy.waits.percentile(99) / 1e6),
+                    String.format("%.1f", pharmacy.waits.max() / 1e6)
+            });
+        }
+        return rows;
+    }
+
+    private Job dispatch(Worker worker, Job job) {
+        job.holder = worker.employeeId;
+        dispatched.put(job.orderId, job);
+        worker.pharmacy.dispatched.increment();
+        worker.pharmacy.waits.record(System.nanoTime() - job.queuedAt);
+        return job;
+    }
+
+    private static Job first(ConcurrentSkipListSet<Job> queue) {
+        try {
+            return queue.first();
+        }
+        catch(NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    // Move an incomplete order to another employee; false if it is no longer the from-employee's incomplete order
+    private static boolean reassign(Connection conn, long orderId, int fromEmployeeId, int toEmployeeId) throws SQLException {
+        String sql = StatementCache.register("reassignOrder", "UPDATE \"Order\" SET Employee_ID = ? WHERE Order_ID = ? AND Employee_ID = ? AND Status = 'incomplete'");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, toEmployeeId);
+            pstmt.setLong(2, orderId);
+            pstmt.setInt(3, fromEmployeeId);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Hi/lo key generator backed by the Id_Allocation table.
+ * Each database round trip reserves a whole block of keys, which are then handed out from memory.
+ * Blocks are reserved with a single row-locking UPDATE, so several threads and several app
+ * instances never receive the same key. Unused keys of a block are lost on shutdown (gaps are fine).
+ */
+public class IdAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
+    // Key name -> {table, key column}, used to seed a missing Id_Allocation row from existing data
+    private static final Map<String, String[]> SOURCES = new HashMap<>();
+
+    static {
+        SOURCES.put("Order", new String[]{"\"Order\"", "Order_ID"});
+        SOURCES.put("Prescription", new String[]{"Prescription", "Prescription_ID"});
+        SOURCES.put("Stock_Hold", new String[]{"Stock_Hold", "Hold_ID"});
+    }
+
+    private final ConnectionPool pool;
+    private final int blockSize;
+    private final ConcurrentHashMap<String, Block> blocks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    // A reserved key range [next, end)
+    private static class Block {
+        final AtomicLong next;
+        final long end;
+
+        Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    public IdAllocator(ConnectionPool pool) {
+        this(pool, Integer.getInteger("opms.id.blockSize", DEFAULT_BLOCK_SIZE));
+    }
+
+    public IdAllocator(ConnectionPool pool, int blockSize) {
+        if(blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.pool = pool;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Register another key so it can be seeded from MAX(column) of its table
+     */
+    public static void registerSource(String name, String table, String column) {
+        synchronized(SOURCES) {
+            SOURCES.put(name, new String[]{table, column});
+        }
+    }
+
+    /**
+     * Next key for the given name; only blocks on the database when the current block is used up
+     */
+    public long next(String name) throws SQLException {
+        while(true) {
+            Block block = blocks.get(name);
+            if(block != null) {
+                long id = block.next.getAndIncrement();
+                if(id < block.end) {
+                    return id;
+                }
+            }
+            synchronized(locks.computeIfAbsent(name, k -> new Object())) {
+                // Another thread may have refilled while we waited for the lock
+                Block current = blocks.get(name);
+                if(current == block) {
+                    blocks.put(name, reserveBlock(name));
+                }
+            }
+        }
+    }
+
+    private Block reserveBlock(String name) throws SQLException {
+        try(Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                long end = increment(conn, name);
+                if(end < 0) {
+                    seed(conn, name);
+                    end = increment(conn, name);
+                }
+                conn.commit();
+                return new Block(end - blockSize, end);
+            }
+            catch(SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Moves Next_Value forward by one block and returns the new value, or -1 if the row does not exist
+    private long increment(Connection conn, String name) throws SQLException {
+        try(PreparedStatement pstmt = conn.prepareStatement("UPDATE Id_Allocation SET Next_Value = Next_Value + ? WHERE Name = ?")) {
+            pstmt.setInt(1, blockSize);
+            pstmt.setString(2, name);
+            if(pstmt.executeUpdate() == 0) {
+                return -1;
+            }
+        }
+        // The row stays locked by the UPDATE until commit, so this reads our own increment
+        try(PreparedStatement pstmt = conn.prepareStatement("SELECT Next_Value FROM Id_Allocation WHERE Name = ?")) {
+            pstmt.setString(1, name);
+            ResultSet rs = pstmt.executeQuery();
+            if(rs.next()) {
+                return rs.getLong(1);
+            }
+            throw new SQLException("Unable to read allocation row for " + name);
+        }
+    }
+
+    /**
+     * Move the keys of the given tables past rows written without the allocator, e.g. by a bulk load.
+     * A missing row is seeded the way next() seeds it; an existing row only ever moves forward.
+     */
+    public static void reseed(Connection conn, Collection<String> tables) throws SQLException {
+        Set<String> written = new HashSet<>();
+        for(String table : tables) {
+            written.add(BulkLoader.normalise(table));
+        }
+        Map<String, String[]> sources;
+        synchronized(SOURCES) {
+            sources = new HashMap<>(SOURCES);
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for(Map.Entry<String, String[]> e : sources.entrySet()) {
+                String[] source = e.getValue();
+                if(!written.contains(BulkLoader.normalise(source[0]))) {
+                    continue;
+                }
+                try(PreparedStatement pstmt = conn.prepareStatement("UPDATE Id_Allocation SET Next_Value = GREATEST(Next_Value, " +
+                        "(SELECT NVL(MAX(" + source[1] + "), 0) + 1 FROM " + source[0] + ")) WHERE Name = ?")) {
+                    pstmt.setString(1, e.getKey());
+                    if(pstmt.executeUpdate() == 0) {
+                        seed(conn, e.getKey());
+                    }
+                }
+            }
+            if(autoCommit) {
+                conn.commit();
+            }
+        }
+        catch(SQLException | RuntimeException e) {
+            if(autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    // One-off initialisation of a key row, starting after the largest key already in use
+    private static void seed(Connection conn, String name) throws SQLException {
+        String[] source;
+        synchronized(SOURCES) {
+            source = SOURCES.get(name);
+        }
+        String sql = (source != null)
+                ? "INSERT INTO Id_Allocation (Name, Next_Value) SELECT ?, NVL(MAX(" + source[1] + "), 0) + 1 FROM " + source[0]
+                : "INSERT INTO Id_Allocation (Name, Next_Value) VALUES (?, 1)";
+        Savepoint savepoint = conn.setSavepoint();
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, name);
+            pstmt.executeUpdate();
+        }
+        catch(SQLIntegrityConstraintViolationException e) {
+            // Another instance seeded the row first; its value is just as good
+            conn.rollback(savepoint);
+        }
+    }
+}
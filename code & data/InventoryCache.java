@@ -0,0 +1,509 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Resident copy of the Medicine table.
+ * Every batch gets a slot in fixed-size pages of int counters, so stock checks and decrements are
+ * a compare-and-set on an AtomicIntegerArray instead of a round trip. Decrements are recorded as
+ * pending deltas and written back to Medicine in batches by a background flusher (write-behind).
+ *
+ * While write-behind is on, this cache must be the only writer of Stock_Quantity in the process.
+ * A delta the guarded flush cannot apply (the table has less stock than was sold, or the batch was deleted)
+ * is dropped, logged once and counted as rejected in getStats, and the batch is reloaded from the table. On shutdown (close) pending deltas are flushed, and a restart rebuilds the cache from the table.
+ * Deltas still pending when the process dies without close are lost: the sales of the last flush interval
+ * stay committed but are missing from Stock_Quantity.
+ */
+public class InventoryCache implements AutoCloseable {
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int STRIPES = 16;
+
+    private static final String SELECT_ALL = "SELECT Drug_Name, Pharmacy_ID, Batch_Number, Stock_Quantity, Expiry_Date FROM Medicine";
+    private static final String SELECT_ONE = SELECT_ALL + " WHERE Drug_Name = ? AND Pharmacy_ID = ? AND Batch_Number = ?";
+
+    private final ConnectionPool pool;
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    private volatile Page[] pages = new Page[0];
+    private int size; // Guarded by this
+    private final ConcurrentLinkedQueue<Integer> dirty = new ConcurrentLinkedQueue<>();
+    private final List<StockListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Decrements hold a stripe's read lock; rebuild takes every write lock so it sees no half-applied delta
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    private final LongAdder flushedDeltas = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    /**
+     * One Medicine batch; identity and expiry are immutable, the quantity lives in the page counters
+     */
+    public static class Batch {
+        public final String drugName;
+        public final int pharmacyId;
+        public final String batchNumber;
+        public final java.time.LocalDate expiryDate;
+        final int slot;
+        private volatile boolean expired; // Set by the ExpiryIndex; an expired batch can no longer be sold
+
+        Batch(String drugName, int pharmacyId, String batchNumber, java.time.LocalDate expiryDate, int slot) {
+            this.drugName = drugName;
+            this.pharmacyId = pharmacyId;
+            this.batchNumber = batchNumber;
+            this.expiryDate = expiryDate;
+            this.slot = slot;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+
+        @Override
+        public String toString() {
+            return drugName + " (pharmacy " + pharmacyId + ", batch " + batchNumber + ")";
+        }
+    }
+
+    /**
+     * Notified after every change of a batch's quantity in the cache
+     */
+    public interface StockListener {
+        void stockChanged(Batch batch, int oldQuantity, int newQuantity);
+
+        /**
+         * A batch first seen after the cache was built (loaded on demand or by rebuild)
+         */
+        default void batchAdded(Batch batch) {
+        }
+    }
+
+    private static class Page {
+        final AtomicIntegerArray stock = new AtomicIntegerArray(PAGE_SIZE);
+        final AtomicIntegerArray pending = new AtomicIntegerArray(PAGE_SIZE); // Decrements not yet written to Medicine
+        final AtomicIntegerArray dirty = new AtomicIntegerArray(PAGE_SIZE); // 1 while the slot sits in the dirty queue
+        final Batch[] batches = new Batch[PAGE_SIZE];
+    }
+
+    /**
+     * Load the whole Medicine table and start flushing every flushMillis (0 disables write-behind flushing)
+     */
+    public InventoryCache(ConnectionPool pool, long flushMillis) throws SQLException {
+        this.pool = pool;
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        try(Connection conn = pool.getConnection()) {
+            loadAll(conn);
+        }
+        if(flushMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "opms-inventory-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    flush();
+                }
+                catch(SQLException e) {
+                    System.err.println("Inventory write-behind failed: " + e.getMessage());
+                }
+            }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+        else {
+            flusher = null;
+        }
+    }
+
+    public void addListener(StockListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Number of batches in the cache
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Current quantity of a batch, or -1 if it is not in the cache
+     */
+    public int available(String drugName, int pharmacyId, String batchNumber) {
+        Integer slot = slots.get(key(drugName, pharmacyId, batchNumber));
+        return (slot == null) ? -1 : page(slot).stock.get(slot & (PAGE_SIZE - 1));
+    }
+
+    /**
+     * The batch record for a key, or null if it is not in the cache
+     */
+    public Batch batch(String drugName, int pharmacyId, String batchNumber) {
+        Integer slot = slots.get(key(drugName, pharmacyId, batchNumber));
+        return (slot == null) ? null : page(slot).batches[slot & (PAGE_SIZE - 1)];
+    }
+
+    /**
+     * Current quantity of a cached batch
+     */
+    public int quantity(Batch batch) {
+        return page(batch.slot).stock.get(batch.slot & (PAGE_SIZE - 1));
+    }
+
+    /**
+     * Visit every cached batch with its current quantity
+     */
+    public void forEach(java.util.function.ObjIntConsumer<Batch> consumer) {
+        Page[] snapshot = pages;
+        int count = size();
+        for(int slot = 0; slot < count; slot++) {
+            Page page = snapshot[slot >>> PAGE_BITS];
+            int offset = slot & (PAGE_SIZE - 1);
+            consumer.accept(page.batches[offset], page.stock.get(offset));
+        }
+    }
+
+    /**
+     * Take the batch out of sellable stock: its quantity stays (and is still listed) but decrements fail
+     */
+    public void markExpired(Batch batch) {
+        batch.expired = true;
+    }
+
+    /**
+     * Take quantity from a batch if enough is left and it has not been marked expired; never lets a counter go negative
+     */
+    public boolean tryDecrement(String drugName, int pharmacyId, String batchNumber, int quantity) throws SQLException {
+        int slot = slotFor(drugName, pharmacyId, batchNumber);
+        return slot >= 0 && apply(slot, -quantity);
+    }
+
+    /**
+     * Put quantity back into a batch (cancelled or failed orders, released holds)
+     */
+    public void increment(String drugName, int pharmacyId, String batchNumber, int quantity) throws SQLException {
+        int slot = slotFor(drugName, pharmacyId, batchNumber);
+        if(slot >= 0) {
+            apply(slot, quantity);
+        }
+    }
+
+    /**
+     * Reserve each line independently and report per-line results, like StockReservations.reserve.
+     * Successful lines stay reserved until given back with restore.
+     */
+    public StockReservations.ReservationResult reserve(List<OrderPlacement.OrderLine> lines) throws SQLException {
+        boolean[] reserved = new boolean[lines.size()];
+        for(int i = 0; i < lines.size(); i++) {
+            OrderPlacement.OrderLine line = lines.get(i);
+            reserved[i] = tryDecrement(line.drugName, line.pharmacyId, line.batchNumber, line.quantity);
+        }
+        return new StockReservations.ReservationResult(lines, reserved);
+    }
+
+    /**
+     * Give back the stock of lines reserved earlier
+     */
+    public void restore(List<OrderPlacement.OrderLine> lines) throws SQLException {
+        for(OrderPlacement.OrderLine line : lines) {
+            increment(line.drugName, line.pharmacyId, line.batchNumber, line.quantity);
+        }
+    }
+
+    /**
+     * Batches with fewer than threshold units, lowest first, as {drug, pharmacy, batch, quantity} rows
+     */
+    public ArrayList<String[]> lowStock(int threshold) {
+        List<Object[]> found = new ArrayList<>();
+        forEach((batch, quantity) -> {
+            if(quantity < threshold) {
+                found.add(new Object[]{batch, quantity});
+            }
+        });
+        found.sort(Comparator.comparingInt(row -> (Integer)row[1]));
+        ArrayList<String[]> rows = new ArrayList<>();
+        for(Object[] row : found) {
+            Batch batch = (Batch)row[0];
+            rows.add(new String[]{batch.drugName, String.valueOf(batch.pharmacyId), batch.batchNumber, String.valueOf(row[1])});
+        }
+        return rows;
+    }
+
+    /**
+     * Write all pending deltas to Medicine in one batch and commit
+     */
+    public void flush() throws SQLException {
+        List<Integer> unmatched = new ArrayList<>();
+        synchronized(flushLock) {
+            List<Integer> drained = new ArrayList<>();
+            List<Integer> deltas = new ArrayList<>();
+            Integer slot;
+            while((slot = dirty.poll()) != null) {
+                Page page = page(slot);
+                int offset = slot & (PAGE_SIZE - 1);
+                // Clear the flag before taking the delta so a concurrent change re-queues the slot
+                page.dirty.set(offset, 0);
+                int delta = page.pending.getAndSet(offset, 0);
+                if(delta != 0) {
+                    drained.add(slot);
+                    deltas.add(delta);
+                }
+            }
+            if(drained.isEmpty()) {
+                return;
+            }
+
+            String update = "UPDATE Medicine SET Stock_Quantity = Stock_Quantity + ? " +
+                    "WHERE Drug_Name = ? AND Pharmacy_ID = ? AND Batch_Number = ? AND Stock_Quantity + ? >= 0";
+            try(Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                int[] counts;
+                try(PreparedStatement pstmt = conn.prepareStatement(update)) {
+                    for(int i = 0; i < drained.size(); i++) {
+                        Batch batch = page(drained.get(i)).batches[drained.get(i) & (PAGE_SIZE - 1)];
+                        pstmt.setInt(1, deltas.get(i));
+                        pstmt.setString(2, batch.drugName);
+                        pstmt.setInt(3, batch.pharmacyId);
+                        pstmt.setString(4, batch.batchNumber);
+                        pstmt.setInt(5, deltas.get(i));
+                        pstmt.addBatch();
+                    }
+                    counts = pstmt.executeBatch();
+                    conn.commit();
+                }
+                catch(SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+                for(int i = 0; i < counts.length; i++) {
+                    if(counts[i] == 0) {
+                        // The sale is committed but the table cannot take it (row deleted or changed elsewhere).
+                        // Retrying would fail the same way on every flush, so the table's quantity wins.
+                        Batch batch = page(drained.get(i)).batches[drained.get(i) & (PAGE_SIZE - 1)];
+                        System.err.println("Inventory write-behind: Medicine rejected " + deltas.get(i) + " unit(s) for " + batch + ", dropped and reloaded");
+                        flushFailures.increment();
+                        unmatched.add(drained.get(i));
+                    }
+                }
+                flushedDeltas.add(drained.size() - unmatched.size());
+            }
+            catch(SQLException e) {
+                // Keep the deltas so the next flush retries them
+                for(int i = 0; i < drained.size(); i++) {
+                    addPending(drained.get(i), deltas.get(i));
+                }
+                throw e;
+            }
+        }
+        // Outside flushLock: reloading takes a stripe's write lock, which rebuild holds while it waits to flush
+        if(!unmatched.isEmpty()) {
+            try(Connection conn = pool.getConnection()) {
+                for(int slot : unmatched) {
+                    reload(conn, slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush, then reload every batch from Medicine while no decrement can run
+     */
+    public void rebuild() throws SQLException {
+        for(ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+        try {
+            flush();
+            try(Connection conn = pool.getConnection()) {
+                loadAll(conn);
+            }
+        }
+        finally {
+            for(ReentrantReadWriteLock stripe : stripes) {
+                stripe.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Flushed delta and rejected (dropped) delta counts
+     */
+    public String getStats() {
+        return "batches=" + size() + " queued=" + dirty.size() + " flushed=" + flushedDeltas.sum() + " rejected=" + flushFailures.sum();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if(flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    private boolean apply(int slot, int delta) {
+        ReentrantReadWriteLock.ReadLock lock = stripes[slot & (STRIPES - 1)].readLock();
+        lock.lock();
+        try {
+            Page page = page(slot);
+            int offset = slot & (PAGE_SIZE - 1);
+            if(delta < 0 && page.batches[offset].expired) {
+                return false;
+            }
+            int current;
+            int updated;
+            do {
+                current = page.stock.get(offset);
+                updated = current + delta;
+                if(updated < 0) {
+                    return false;
+                }
+            } while(!page.stock.compareAndSet(offset, current, updated));
+            addPending(slot, delta);
+            for(StockListener listener : listeners) {
+                listener.stockChanged(page.batches[offset], current, updated);
+            }
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void addPending(int slot, int delta) {
+        Page page = page(slot);
+        int offset = slot & (PAGE_SIZE - 1);
+        page.pending.addAndGet(offset, delta);
+        if(page.dirty.compareAndSet(offset, 0, 1)) {
+            dirty.add(slot);
+        }
+    }
+
+    // Slot of a batch, loading it from the table if it was added after the cache was built; -1 if it does not exist
+    private int slotFor(String drugName, int pharmacyId, String batchNumber) throws SQLException {
+        Integer slot = slots.get(key(drugName, pharmacyId, batchNumber));
+        if(slot != null) {
+            return slot;
+        }
+        try(Connection conn = pool.getConnection(); PreparedStatement pstmt = conn.prepareStatement(SELECT_ONE)) {
+            pstmt.setString(1, drugName);
+            pstmt.setInt(2, pharmacyId);
+            pstmt.setString(3, batchNumber);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? put(rs) : -1;
+        }
+    }
+
+    // Load or refresh every batch; batches that disappeared from the table drop to zero
+    private void loadAll(Connection conn) throws SQLException {
+        BitSet seen = new BitSet();
+        try(Statement stmt = conn.createStatement()) {
+            stmt.setFetchSize(1000);
+            ResultSet rs = stmt.executeQuery(SELECT_ALL);
+            while(rs.next()) {
+                seen.set(put(rs));
+            }
+        }
+        int count = size();
+        for(int slot = seen.nextClearBit(0); slot < count; slot = seen.nextClearBit(slot + 1)) {
+            set(slot, 0, false);
+        }
+    }
+
+    private void reload(Connection conn, int slot) throws SQLException {
+        Batch batch = page(slot).batches[slot & (PAGE_SIZE - 1)];
+        try(PreparedStatement pstmt = conn.prepareStatement(SELECT_ONE)) {
+            pstmt.setString(1, batch.drugName);
+            pstmt.setInt(2, batch.pharmacyId);
+            pstmt.setString(3, batch.batchNumber);
+            ResultSet rs = pstmt.executeQuery();
+            if(rs.next()) {
+                put(rs);
+            }
+            else {
+                // Deleted from the table: nothing left to sell, and nowhere to write what was sold
+                set(slot, 0, false);
+            }
+        }
+    }
+
+    // Insert or overwrite a batch from a Medicine row of SELECT_ALL shape
+    private int put(ResultSet rs) throws SQLException {
+        String drugName = rs.getString(1);
+        int pharmacyId = rs.getInt(2);
+        String batchNumber = rs.getString(3);
+        int quantity = rs.getInt(4);
+        java.time.LocalDate expiry = rs.getDate(5).toLocalDate();
+        String key = key(drugName, pharmacyId, batchNumber);
+        int slot;
+        Batch added = null;
+        synchronized(this) {
+            Integer existing = slots.get(key);
+            if(existing != null) {
+                slot = existing;
+            }
+            else {
+                slot = size;
+                if((slot >>> PAGE_BITS) >= pages.length) {
+                    Page[] grown = Arrays.copyOf(pages, pages.length + 1);
+                    grown[pages.length] = new Page();
+                    pages = grown;
+                }
+                added = new Batch(drugName, pharmacyId, batchNumber, expiry, slot);
+                page(slot).batches[slot & (PAGE_SIZE - 1)] = added;
+                size++;
+                slots.put(key, slot);
+            }
+        }
+        set(slot, quantity, true);
+        if(added != null) {
+            for(StockListener listener : listeners) {
+                listener.batchAdded(added);
+            }
+        }
+        return slot;
+    }
+
+    // Overwrite a slot with the table's quantity. With exists, the deltas not yet in the table go on top;
+    // without, the batch is gone and its pending deltas are dropped. The stripe's write lock keeps decrements
+    // (which hold its read lock) from landing between reading the pending deltas and the write.
+    private void set(int slot, int tableQuantity, boolean exists) {
+        Page page = page(slot);
+        int offset = slot & (PAGE_SIZE - 1);
+        ReentrantReadWriteLock.WriteLock lock = stripes[slot & (STRIPES - 1)].writeLock();
+        int old;
+        int quantity;
+        lock.lock();
+        try {
+            if(exists) {
+                quantity = Math.max(0, tableQuantity + page.pending.get(offset));
+            }
+            else {
+                quantity = 0;
+                int lost = page.pending.getAndSet(offset, 0);
+                if(lost != 0) {
+                    System.err.println("Inventory write-behind: " + page.batches[offset] + " is no longer in Medicine, dropped " + lost + " unit(s)");
+                }
+            }
+            old = page.stock.getAndSet(offset, quantity);
+        }
+        finally {
+            lock.unlock();
+        }
+        if(old != quantity) {
+            for(StockListener listener : listeners) {
+                listener.stockChanged(page.batches[offset], old, quantity);
+            }
+        }
+    }
+
+    private Page page(int slot) {
+        return pages[slot >>> PAGE_BITS];
+    }
+
+    static String key(String drugName, int pharmacyId, String batchNumber) {
+        return drugName + "|" + pharmacyId + "|" + batchNumber;
+    }
+}
@@ -0,0 +1,268 @@
+import java.util.*;
+
+/**
+ * Just enough JSON for command input and result output.
+ * Objects parse to LinkedHashMap, arrays to ArrayList, numbers to Long or Double, plus String, Boolean and null.
+ */
+public class Json {
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parse one JSON value; throws IllegalArgumentException on malformed input
+     */
+    public static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipSpace();
+        if(json.pos != text.length()) {
+            throw json.error("Unexpected trailing input");
+        }
+        return value;
+    }
+
+    /**
+     * Serialise maps, collections, arrays, strings, numbers, booleans and null; anything else is written as its string
+     */
+    public static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(out, value);
+        return out.toString();
+    }
+
+    public static String quote(String s) {
+        StringBuilder out = new StringBuilder();
+        quote(out, s);
+        return out.toString();
+    }
+
+    private static void write(StringBuilder out, Object value) {
+        if(value == null) {
+            out.append("null");
+        }
+        else if(value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for(Map.Entry<?, ?> e : ((Map<?, ?>)value).entrySet()) {
+                if(!first) {
+                    out.append(',');
+                }
+                first = false;
+                quote(out, String.valueOf(e.getKey()));
+                out.append(':');
+                write(out, e.getValue());
+            }
+            out.append('}');
+        }
+        else if(value instanceof Collection) {
+            writeArray(out, ((Collection<?>)value).toArray());
+        }
+        else if(value instanceof Object[]) {
+            writeArray(out, (Object[])value);
+        }
+        else if(value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        }
+        else {
+            quote(out, value.toString());
+        }
+    }
+
+    private static void writeArray(StringBuilder out, Object[] values) {
+        out.append('[');
+        for(int i = 0; i < values.length; i++) {
+            if(i > 0) {
+                out.append(',');
+            }
+            write(out, values[i]);
+        }
+        out.append(']');
+    }
+
+    private static void quote(StringBuilder out, String s) {
+        out.append('"');
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch(c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if(c < 0x20) {
+                        out.append(String.format("\\u%04x", (int)c));
+                    }
+                    else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private Object value() {
+        skipSpace();
+        if(pos >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = text.charAt(pos);
+        switch(c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if(c == '-' || (c >= '0' && c <= '9')) {
+                    return number();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipSpace();
+        if(peek() == '}') {
+            pos++;
+            return map;
+        }
+        while(true) {
+            skipSpace();
+            if(peek() != '"') {
+                throw error("Expected a member name");
+            }
+            String key = string();
+            skipSpace();
+            expect(':');
+            map.put(key, value());
+            skipSpace();
+            if(peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect('}');
+            return map;
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        pos++;
+        skipSpace();
+        if(peek() == ']') {
+            pos++;
+            return list;
+        }
+        while(true) {
+            list.add(value());
+            skipSpace();
+            if(peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect(']');
+            return list;
+        }
+    }
+
+    private String string() {
+        StringBuilder s = new StringBuilder();
+        pos++;
+        while(true) {
+            if(pos >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if(c == '"') {
+                return s.toString();
+            }
+            if(c != '\\') {
+                s.append(c);
+                continue;
+            }
+            if(pos >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char e = text.charAt(pos++);
+            switch(e) {
+                case 'b': s.append('\b'); break;
+                case 'f': s.append('\f'); break;
+                case 'n': s.append('\n'); break;
+                case 'r': s.append('\r'); break;
+                case 't': s.append('\t'); break;
+                case 'u':
+                    if(pos + 4 > text.length()) {
+                        throw error("Bad unicode escape");
+                    }
+                    try {
+                        s.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    }
+                    catch(NumberFormatException ex) {
+                        throw error("Bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default: s.append(e);
+            }
+        }
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean integral = true;
+        while(pos < text.length()) {
+            char c = text.charAt(pos);
+            if(c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            }
+            else if(!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+        }
+        String n = text.substring(start, pos);
+        try {
+            return integral ? (Object)Long.valueOf(n) : (Object)Double.valueOf(n);
+        }
+        catch(NumberFormatException e) {
+            throw error("Bad number " + n);
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if(!text.startsWith(word, pos)) {
+            throw error("Unexpected token");
+        }
+        pos += word.length();
+        return value;
+    }
+
+    private void expect(char c) {
+        if(peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private char peek() {
+        return (pos < text.length()) ? text.charAt(pos) : '\0';
+    }
+
+    private void skipSpace() {
+        while(pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + pos);
+    }
+}
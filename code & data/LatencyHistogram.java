@@ -0,0 +1,114 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Fixed-size log-linear histogram of durations in nanoseconds.
+ * Each power-of-two range is split into 64 linear buckets, so any recorded value is reported
+ * within 1/64 (about 1.6%) of its true size, from nanoseconds up to the full long range, in 3776 counters.
+ * Recording is a single atomic increment and safe from any number of threads.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 128
+    private static final int HALF = SUB_BUCKETS / 2; // 64
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF + HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Add every value recorded by other into this histogram
+     */
+    public void add(LatencyHistogram other) {
+        for(int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if(c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return (n == 0) ? 0.0 : (double)sum.sum() / n;
+    }
+
+    /**
+     * Smallest recorded bucket such that at least percentile % of the values fall at or below it,
+     * reported as that bucket's upper bound; 0 when nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long n = count.sum();
+        if(n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * One-line summary in milliseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+                count(), mean() / 1e6, percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                percentile(99.9) / 1e6, max() / 1e6);
+    }
+
+    // Values below 128 get a bucket each; above that the top seven bits select the bucket
+    static int index(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF + (int)(value >>> shift);
+    }
+
+    static long upperBound(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long mantissa = index % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,168 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Live set of the batches below their reorder point, kept up to date from the InventoryCache's stock events.
+ *
+ * Reorder points come from Reorder_Point: a row for a drug at one pharmacy wins over a row for the drug
+ * everywhere (Pharmacy_ID null), which wins over a row for everything at a pharmacy (Drug_Name null); batches
+ * with none of these use the default threshold. A decrement that takes a batch below its point, or an increment
+ * that lifts it back, is seen in the same call and published to the listeners, so the report is a sort of the
+ * current alerts instead of a scan of all stock.
+ *
+ * Reorder points are read when the monitor is built. Once it is installed with Operations.useLowStockMonitor,
+ * changes made through Operations.setReorderPoint apply at once; changes made by other processes apply after
+ * the next restart.
+ */
+public class LowStockMonitor implements InventoryCache.StockListener {
+    private static final String SELECT_POINTS = "SELECT Drug_Name, Pharmacy_ID, Threshold FROM Reorder_Point";
+
+    /**
+     * A batch crossing its reorder point: low when it fell below, otherwise restocked
+     */
+    public static class Alert {
+        public final InventoryCache.Batch batch;
+        public final int quantity;
+        public final int threshold;
+        public final boolean low;
+
+        Alert(InventoryCache.Batch batch, int quantity, int threshold, boolean low) {
+            this.batch = batch;
+            this.quantity = quantity;
+            this.threshold = threshold;
+            this.low = low;
+        }
+
+        @Override
+        public String toString() {
+            return batch + (low ? " is low: " : " restocked: ") + quantity + " unit(s), reorder point " + threshold;
+        }
+    }
+
+    /**
+     * Notified on the thread that changed the stock; keep it short
+     */
+    public interface Listener {
+        void crossed(Alert alert);
+    }
+
+    private final InventoryCache inventory;
+    private final int defaultThreshold;
+    private final ConcurrentHashMap<String, Integer> points = new ConcurrentHashMap<>(); // key(drug, pharmacy), pharmacy or drug may be null
+    private final Set<InventoryCache.Batch> low = ConcurrentHashMap.newKeySet();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public LowStockMonitor(ConnectionPool pool, InventoryCache inventory, int defaultThreshold) throws SQLException {
+        this.inventory = inventory;
+        this.defaultThreshold = defaultThreshold;
+        try(Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery(SELECT_POINTS);
+            while(rs.next()) {
+                int pharmacyId = rs.getInt(2);
+                points.put(key(rs.getString(1), rs.wasNull() ? null : pharmacyId), rs.getInt(3));
+            }
+        }
+        inventory.addListener(this);
+        inventory.forEach((batch, quantity) -> recheck(batch));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void stockChanged(InventoryCache.Batch batch, int oldQuantity, int newQuantity) {
+        int threshold = threshold(batch);
+        // Only crossing the reorder point changes membership
+        if((oldQuantity < threshold) == (newQuantity < threshold)) {
+            return;
+        }
+        recheck(batch);
+    }
+
+    @Override
+    public void batchAdded(InventoryCache.Batch batch) {
+        recheck(batch);
+    }
+
+    /**
+     * Reorder point of a batch
+     */
+    public int threshold(InventoryCache.Batch batch) {
+        Integer point = points.get(key(batch.drugName, batch.pharmacyId));
+        if(point == null) {
+            point = points.get(key(batch.drugName, null));
+        }
+        if(point == null) {
+            point = points.get(key(null, batch.pharmacyId));
+        }
+        return (point != null) ? point : defaultThreshold;
+    }
+
+    /**
+     * Number of batches currently below their reorder point
+     */
+    public int size() {
+        return low.size();
+    }
+
+    /**
+     * The batches below their reorder point, lowest first, as Operations.lowStock lists them
+     */
+    public void lowStock(Operations.RowSink sink) {
+        List<Object[]> found = new ArrayList<>(low.size());
+        for(InventoryCache.Batch batch : low) {
+            found.add(new Object[]{batch, inventory.quantity(batch)});
+        }
+        found.sort(Comparator.comparingInt(row -> (Integer)row[1]));
+        for(Object[] row : found) {
+            InventoryCache.Batch batch = (InventoryCache.Batch)row[0];
+            if(!sink.row(new String[]{batch.drugName, String.valueOf(batch.pharmacyId), batch.batchNumber, String.valueOf(row[1])})) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take a reorder point stored by Operations.setReorderPoint (a null threshold removed it) and re-evaluate the
+     * batches it covers
+     */
+    void reorderPointChanged(String drugName, Integer pharmacyId, Integer threshold) {
+        if(threshold != null) {
+            points.put(key(drugName, pharmacyId), threshold);
+        }
+        else {
+            points.remove(key(drugName, pharmacyId));
+        }
+        inventory.forEach((batch, quantity) -> {
+            if((drugName == null || drugName.equals(batch.drugName)) && (pharmacyId == null || pharmacyId == batch.pharmacyId)) {
+                recheck(batch);
+            }
+        });
+    }
+
+    // Bring the batch's membership in line with its live quantity and announce a change
+    private void recheck(InventoryCache.Batch batch) {
+        int threshold = threshold(batch);
+        int quantity;
+        boolean changed;
+        boolean isLow;
+        // Notifications for one batch can arrive out of order, so follow the live counter rather than the event
+        do {
+            quantity = inventory.quantity(batch);
+            isLow = quantity < threshold;
+            changed = isLow ? low.add(batch) : low.remove(batch);
+        } while((inventory.quantity(batch) < threshold) != isLow);
+        if(changed) {
+            Alert alert = new Alert(batch, quantity, threshold, isLow);
+            for(Listener listener : listeners) {
+                listener.crossed(alert);
+            }
+        }
+    }
+
+    private static String key(String drugName, Integer pharmacyId) {
+        return drugName + "|" + pharmacyId;
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Where the time goes: per-operation latency histograms, JDBC round trips, rows fetched and SQL errors by code.
+ *
+ * An operation is whatever runs between Metrics.operation(name) and closing the returned scope on the same
+ * thread (a menu entry, a batch command, an HTTP route, a dashboard panel). With -Dopms.metrics=true the pool
+ * hands out instrumented connections: every execute, commit and rollback counts as a round trip of the
+ * thread's current operation, as does every further fetch of a result set, and a failing call counts its
+ * vendor code (or SQLState). The figures are published as the JMX bean opms:type=Metrics and, with
+ * opms.metrics.dumpMillis, written as a text table every so often (to opms.metrics.dumpFile, default stderr).
+ *
+ * When metrics are off, operation() returns a shared no-op scope and connections are not wrapped.
+ */
+public class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("opms.metrics");
+    public static final String[] REPORT_COLUMNS = {"Operation", "Count", "p50 ms", "p99 ms", "Max ms", "Round Trips/op", "Rows/op", "Errors"};
+    private static final String NONE = "(no operation)";
+
+    private static final ConcurrentHashMap<String, Operation> OPERATIONS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<>();
+    private static final Scope NO_SCOPE = () -> { };
+    private static boolean started;
+
+    // Counters of one operation name
+    private static class Operation {
+        final String name;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder roundTrips = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final ConcurrentHashMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        Operation(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Marks the end of an operation; closing records its latency
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Snapshot of one operation as published over JMX
+     */
+    public static class OperationStats {
+        private final String name;
+        private final long count;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+        private final long roundTrips;
+        private final long rows;
+        private final Map<String, Long> errors;
+
+        OperationStats(Operation op) {
+            this.name = op.name;
+            this.count = op.latency.count();
+            this.p50Millis = op.latency.percentile(50) / 1e6;
+            this.p99Millis = op.latency.percentile(99) / 1e6;
+            this.maxMillis = op.latency.max() / 1e6;
+            this.roundTrips = op.roundTrips.sum();
+            this.rows = op.rows.sum();
+            this.errors = new TreeMap<>();
+            op.errors.forEach((code, n) -> errors.put(code, n.sum()));
+        }
+
+        public String getName() { return name; }
+        public long getCount() { return count; }
+        public double getP50Millis() { return p50Millis; }
+        public double getP99Millis() { return p99Millis; }
+        public double getMaxMillis() { return maxMillis; }
+        public long getRoundTrips() { return roundTrips; }
+        public long getRows() { return rows; }
+        public Map<String, Long> getErrors() { return errors; }
+    }
+
+    public interface MetricsMXBean {
+        List<OperationStats> getOperations();
+
+        String getReport();
+
+        void reset();
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Start timing an operation on this thread; JDBC calls until the scope is closed are counted towards it.
+     * Scopes nest: an inner operation's calls count only towards the inner one.
+     */
+    public static Scope operation(String name) {
+        if(!ENABLED) {
+            return NO_SCOPE;
+        }
+        Operation op = OPERATIONS.computeIfAbsent(name, Operation::new);
+        Operation outer = CURRENT.get();
+        CURRENT.set(op);
+        long start = System.nanoTime();
+        return () -> {
+            op.latency.record(System.nanoTime() - start);
+            CURRENT.set(outer);
+        };
+    }
+
+    /**
+     * Publish the metrics over JMX and start the periodic dump if configured; does nothing when metrics are off
+     */
+    public static synchronized void start() {
+        if(!ENABLED || started) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("opms:type=Metrics");
+            if(!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(new MetricsMXBean() {
+                    @Override
+                    public List<OperationStats> getOperations() {
+                        return snapshot();
+                    }
+
+                    @Override
+                    public String getReport() {
+                        return report();
+                    }
+
+                    @Override
+                    public void reset() {
+                        OPERATIONS.clear();
+                    }
+                }, MetricsMXBean.class, true), name);
+            }
+        }
+        catch(JMException e) {
+            System.err.println("Metrics not published over JMX: " + e.getMessage());
+        }
+        started = true;
+        long interval = Long.getLong("opms.metrics.dumpMillis", 0);
+        if(interval > 0) {
+            String file = System.getProperty("opms.metrics.dumpFile");
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "opms-metrics-dump");
+                t.setDaemon(true);
+                return t;
+            });
+            dumper.scheduleAtFixedRate(() -> dump(file), interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static List<OperationStats> snapshot() {
+        List<OperationStats> stats = new ArrayList<>();
+        for(Operation op : OPERATIONS.values()) {
+            stats.add(new OperationStats(op));
+        }
+        stats.sort(Comparator.comparing(OperationStats::getName));
+        return stats;
+    }
+
+    /**
+     * One row per operation, see REPORT_COLUMNS
+     */
+    public static ArrayList<String[]> rows() {
+        ArrayList<String[]> rows = new ArrayList<>();
+        for(OperationStats s : snapshot()) {
+            long per = Math.max(1, s.count);
+            rows.add(new String[]{
+                    s.name,
+                    String.valueOf(s.count),
+                    String.format("%.3f", s.p50Millis),
+                    String.format("%.3f", s.p99Millis),
+                    String.format("%.3f", s.maxMillis),
+                    String.format("%.1f", (double)s.roundTrips / per),
+                    String.format("%.1f", (double)s.rows / per),
+                    s.errors.isEmpty() ? "" : s.errors.toString()
+            });
+        }
+        return rows;
+    }
+
+    /**
+     * The rows as an aligned text table
+     */
+    public static String report() {
+        ArrayList<String[]> rows = rows();
+        int[] widths = new int[REPORT_COLUMNS.length];
+        for(int i = 0; i < widths.length; i++) {
+            widths[i] = REPORT_COLUMNS[i].length();
+        }
+        for(String[] row : rows) {
+            for(int i = 0; i < row.length; i++) {
+                widths[i] = Math.max(widths[i], row[i].length());
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        appendRow(out, REPORT_COLUMNS, widths);
+        for(String[] row : rows) {
+            appendRow(out, row, widths);
+        }
+        return out.toString();
+    }
+
+    private static void appendRow(StringBuilder out, String[] cells, int[] widths) {
+        for(int i = 0; i < cells.length; i++) {
+            out.append(cells[i]);
+            for(int p = cells[i].length(); p < widths[i] + 2; p++) {
+                out.append(' ');
+            }
+        }
+        out.append('\n');
+    }
+
+    private static void dump(String file) {
+        String text = "--- OPMS metrics " + new java.util.Date() + " ---\n" + report();
+        if(file == null) {
+            System.err.print(text);
+            return;
+        }
+        try(Writer writer = new BufferedWriter(new FileWriter(file, true))) {
+            writer.write(text);
+        }
+        catch(IOException e) {
+            System.err.println("Metrics dump failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The connection with its statements and result sets counted; returned unchanged when metrics are off
+     */
+    static Connection instrument(Connection conn) {
+        if(!ENABLED) {
+            return conn;
+        }
+        return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if("commit".equals(name) || "rollback".equals(name)) {
+                current().roundTrips.increment();
+            }
+            Object result = call(conn, method, args);
+            if(result instanceof Statement) {
+                return statement((Statement)result, method.getReturnType());
+            }
+            return result;
+        });
+    }
+
+    private static Object statement(Statement statement, Class<?> type) {
+        return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if(method.getName().startsWith("execute")) {
+                current().roundTrips.increment();
+            }
+            Object result = call(statement, method, args);
+            if(result instanceof ResultSet) {
+                return resultSet((ResultSet)result);
+            }
+            return result;
+        });
+    }
+
+    private static ResultSet resultSet(ResultSet rs) throws SQLException {
+        int fetchSize = Math.max(1, (rs.getFetchSize() > 0) ? rs.getFetchSize() : 10);
+        long[] fetched = new long[1];
+        return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+            Object result = call(rs, method, args);
+            if("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                Operation op = current();
+                op.rows.increment();
+                // The first batch came back with the execute; every later one is another trip
+                if(++fetched[0] > fetchSize && (fetched[0] - 1) % fetchSize == 0) {
+                    op.roundTrips.increment();
+                }
+            }
+            return result;
+        });
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch(InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof SQLException) {
+                SQLException sql = (SQLException)cause;
+                String code = (sql.getErrorCode() != 0) ? String.valueOf(sql.getErrorCode()) : String.valueOf(sql.getSQLState());
+                current().errors.computeIfAbsent(code, k -> new LongAdder()).increment();
+            }
+            throw cause;
+        }
+    }
+
+    private static Operation current() {
+        Operation op = CURRENT.get();
+        return (op != null) ? op : OPERATIONS.computeIfAbsent(NONE, Operation::new);
+    }
+}
@@ -0,0 +1,371 @@
+import java.io.*;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Throughput and latency of the OPMSDemo hot paths against an embedded database.
+ *
+ * For every data scale a fresh database is created from create_schema.sql and the schema migrations
+ * and filled by DataGenerator, then every operation runs at every thread count: a warm-up period whose
+ * results are discarded, followed by a measured period. Each operation borrows a pooled connection
+ * exactly like one console menu action does, and the reported figures are operations per second plus
+ * latency percentiles.
+ *
+ * Usage: java -cp .:h2.jar OPMSBenchmark [--scales 0.1,1] [--threads 1,4,16] [--warmup 5] [--measure 10]
+ *        [--only op,...] [--schema create_schema.sql] [--migrations dir] [--url jdbc-url] [--seed 42] [--out results.csv]
+ * The default URL is an in-memory H2 database in Oracle mode; a URL containing %s gets the scale
+ * substituted so each scale starts from an empty database. Credentials come from opms.jdbc.user/password.
+ */
+public class OPMSBenchmark {
+    public static final String DEFAULT_URL = "jdbc:h2:mem:opms_%s;MODE=Oracle;DB_CLOSE_DELAY=-1";
+    private static final String[] RESULT_COLUMNS = {"Scale", "Threads", "Operation", "Ops/s", "Mean ms", "p50 ms", "p90 ms", "p99 ms", "Max ms", "Errors"};
+
+    /**
+     * One benchmarked operation; a thrown SQLException counts as an error, not as a completed operation
+     */
+    interface Operation {
+        void run(Connection conn, Keys keys, ThreadLocalRandom random) throws SQLException;
+    }
+
+    // Name -> operation, in report order
+    static final Map<String, Operation> OPERATIONS = new LinkedHashMap<>();
+
+    static {
+        OPERATIONS.put("customerLogin", (conn, keys, r) -> {
+            String[] customer = keys.pick(keys.customers, r);
+            require(Operations.customerLogin(conn, customer[0], customer[1]), "customer login rejected");
+        });
+        OPERATIONS.put("doctorLogin", (conn, keys, r) -> {
+            String[] doctor = keys.pick(keys.doctors, r);
+            require(Operations.doctorLogin(conn, Integer.parseInt(doctor[0]), doctor[1]), "doctor login rejected");
+        });
+        OPERATIONS.put("employeeLogin", (conn, keys, r) -> {
+            String[] employee = keys.pick(keys.employees, r);
+            require(Operations.employeeLogin(conn, Integer.parseInt(employee[0]), employee[1]), "employee login rejected");
+        });
+        OPERATIONS.put("viewPrescriptions", (conn, keys, r) -> Operations.prescriptions(conn, keys.pick(keys.customers, r)[0], 20, null));
+        OPERATIONS.put("placeOrder", (conn, keys, r) -> {
+            String[] prescription = keys.pick(keys.prescriptions, r);
+            String[] employee = keys.pick(keys.employees, r);
+            OrderPlacement.OrderRequest request = new OrderPlacement.OrderRequest(prescription[1], Integer.parseInt(prescription[0]),
+                    Integer.parseInt(employee[0]), keys.lastOrderDate.toString(), r.nextInt(5) == 0 ? "urgent" : "normal");
+            int lines = 1 + r.nextInt(3);
+            for(int i = 0; i < lines; i++) {
+                String[] batch = keys.pick(keys.batches, r);
+                request.addLine(new OrderPlacement.OrderLine(batch[0], Integer.parseInt(batch[1]), batch[2], 1, Double.parseDouble(batch[3])));
+            }
+            OrderPlacement.place(conn, keys.ids, request);
+        });
+        OPERATIONS.put("issuePrescription", (conn, keys, r) -> {
+            String[] batch = keys.pick(keys.batches, r);
+            Operations.issuePrescription(conn, keys.ids, Integer.parseInt(keys.pick(keys.doctors, r)[0]), keys.pick(keys.customers, r)[0],
+                    keys.lastOrderDate.toString(), null, batch[0], 1 + r.nextInt(5), r.nextInt(3));
+        });
+        OPERATIONS.put("processOrder", (conn, keys, r) -> {
+            int employeeId = Integer.parseInt(keys.pick(keys.employees, r)[0]);
+            ArrayList<String[]> orders = Operations.incompleteOrders(conn, employeeId, 20, null).rows;
+            if(!orders.isEmpty()) {
+                Operations.completeOrder(conn, employeeId, Long.parseLong(orders.get(r.nextInt(orders.size()))[0]));
+            }
+        });
+        OPERATIONS.put("monthlyRevenue", (conn, keys, r) -> Operations.monthlyRevenue(conn, keys.randomMonth(r)));
+        OPERATIONS.put("annualRevenue", (conn, keys, r) -> Operations.annualRevenue(conn, keys.randomMonth(r).substring(0, 4)));
+        OPERATIONS.put("expiredStock", (conn, keys, r) -> Operations.expiredStock(conn));
+        OPERATIONS.put("topSoldDrugs", (conn, keys, r) -> Operations.topSoldDrugs(conn));
+        OPERATIONS.put("topCustomers", (conn, keys, r) -> Operations.topCustomers(conn));
+        OPERATIONS.put("topDoctors", (conn, keys, r) -> Operations.topDoctors(conn));
+        OPERATIONS.put("lowStock", (conn, keys, r) -> Operations.lowStock(conn, 10));
+    }
+
+    /**
+     * Existing keys sampled from the loaded database, so the operations hit real rows whatever loaded it
+     */
+    static class Keys {
+        final IdAllocator ids;
+        final List<String[]> customers; // SSN, Password
+        final List<String[]> doctors; // Doctor_ID, Phone
+        final List<String[]> employees; // Employee_ID, Phone
+        final List<String[]> prescriptions; // Prescription_ID, Customer_SSN
+        final List<String[]> batches; // Drug_Name, Pharmacy_ID, Batch_Number, Price
+        final LocalDate firstOrderDate;
+        final LocalDate lastOrderDate;
+
+        Keys(Connection conn, IdAllocator ids) throws SQLException {
+            this.ids = ids;
+            customers = rows(conn, "SELECT SSN, Password FROM Customer");
+            doctors = rows(conn, "SELECT Doctor_ID, Phone FROM Doctor");
+            employees = rows(conn, "SELECT Employee_ID, Phone FROM Employee");
+            prescriptions = rows(conn, "SELECT Prescription_ID, Customer_SSN FROM Prescription");
+            batches = rows(conn, "SELECT m.Drug_Name, m.Pharmacy_ID, m.Batch_Number, d.Price FROM Medicine m JOIN Drug d ON m.Drug_Name = d.Drug_Name " +
+                    "WHERE m.Stock_Quantity > 0");
+            try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT MIN(Order_Date), MAX(Order_Date) FROM \"Order\"")) {
+                rs.next();
+                firstOrderDate = (rs.getDate(1) != null) ? rs.getDate(1).toLocalDate() : LocalDate.now();
+                lastOrderDate = (rs.getDate(2) != null) ? rs.getDate(2).toLocalDate() : LocalDate.now();
+            }
+            if(customers.isEmpty() || doctors.isEmpty() || employees.isEmpty() || prescriptions.isEmpty() || batches.isEmpty()) {
+                throw new SQLException("The database needs customers, doctors, employees, prescriptions and stocked medicine to benchmark");
+            }
+        }
+
+        String[] pick(List<String[]> keys, ThreadLocalRandom random) {
+            return keys.get(random.nextInt(keys.size()));
+        }
+
+        String randomMonth(ThreadLocalRandom random) {
+            long months = firstOrderDate.withDayOfMonth(1).until(lastOrderDate.withDayOfMonth(1), java.time.temporal.ChronoUnit.MONTHS);
+            LocalDate month = firstOrderDate.plusMonths(random.nextLong(months + 1));
+            return month.toString().substring(0, 7);
+        }
+
+        private static List<String[]> rows(Connection conn, String sql) throws SQLException {
+            List<String[]> rows = new ArrayList<>();
+            try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int columns = meta.getColumnCount();
+                boolean[] numeric = new boolean[columns];
+                for(int i = 0; i < columns; i++) {
+                    int type = meta.getColumnType(i + 1);
+                    numeric[i] = type == Types.NUMERIC || type == Types.DECIMAL || type == Types.INTEGER || type == Types.BIGINT;
+                }
+                while(rs.next()) {
+                    String[] row = new String[columns];
+                    for(int i = 0; i < columns; i++) {
+                        if(numeric[i]) {
+                            // getString of a NUMBER may come back as "1E+1" (H2 2.2), which parseInt rejects
+                            java.math.BigDecimal value = rs.getBigDecimal(i + 1);
+                            row[i] = (value == null) ? null : value.stripTrailingZeros().toPlainString();
+                        }
+                        else {
+                            row[i] = rs.getString(i + 1);
+                        }
+                    }
+                    rows.add(row);
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Measured figures of one operation at one scale and thread count
+     */
+    public static class Result {
+        public final String scale;
+        public final int threads;
+        public final String operation;
+        public final double opsPerSecond;
+        public final long errors;
+        public final LatencyHistogram latency;
+
+        Result(String scale, int threads, String operation, double opsPerSecond, long errors, LatencyHistogram latency) {
+            this.scale = scale;
+            this.threads = threads;
+            this.operation = operation;
+            this.opsPerSecond = opsPerSecond;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        String[] row() {
+            return new String[]{
+                    scale,
+                    String.valueOf(threads),
+                    operation,
+                    String.format("%.1f", opsPerSecond),
+                    millis(Math.round(latency.mean())),
+                    millis(latency.percentile(50)),
+                    millis(latency.percentile(90)),
+                    millis(latency.percentile(99)),
+                    millis(latency.max()),
+                    String.valueOf(errors)
+            };
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.3f", nanos / 1e6);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Double> scales = Arrays.asList(0.1, 1.0);
+        List<Integer> threadCounts = Arrays.asList(1, 4, 16);
+        long warmupMillis = 5000;
+        long measureMillis = 10000;
+        Set<String> only = null;
+        String schema = "create_schema.sql";
+        String migrations = SchemaMigrations.DEFAULT_DIRECTORY;
+        String url = System.getProperty("opms.jdbc.url", DEFAULT_URL);
+        long seed = 42;
+        String out = null;
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--scales":
+                    scales = new ArrayList<>();
+                    for(String s : args[++i].split(",")) {
+                        scales.add(Double.parseDouble(s.trim()));
+                    }
+                    break;
+                case "--threads":
+                    threadCounts = new ArrayList<>();
+                    for(String s : args[++i].split(",")) {
+                        threadCounts.add(Integer.parseInt(s.trim()));
+                    }
+                    break;
+                case "--warmup": warmupMillis = (long)(Double.parseDouble(args[++i]) * 1000); break;
+                case "--measure": measureMillis = (long)(Double.parseDouble(args[++i]) * 1000); break;
+                case "--only": only = new HashSet<>(Arrays.asList(args[++i].split(","))); break;
+                case "--schema": schema = args[++i]; break;
+                case "--migrations": migrations = args[++i]; break;
+                case "--url": url = args[++i]; break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--out": out = args[++i]; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if(only != null && !OPERATIONS.keySet().containsAll(only)) {
+            System.err.println("Unknown operation in --only; available: " + OPERATIONS.keySet());
+            System.exit(2);
+        }
+        if(scales.size() > 1 && !url.contains("%s")) {
+            System.err.println("Several scales need a --url containing %s so each scale gets its own database");
+            System.exit(2);
+        }
+
+        List<Result> results = new ArrayList<>();
+        int maxThreads = Collections.max(threadCounts);
+        for(double scale : scales) {
+            String label = (scale == Math.rint(scale)) ? String.valueOf((long)scale) : String.valueOf(scale);
+            ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user", "sa"), System.getProperty("opms.jdbc.password", ""));
+            config.url = url.contains("%s") ? String.format(url, label.replace('.', '_')) : url;
+            config.maxSize = Math.max(config.maxSize, maxThreads + 1);
+            config.initScripts.add(schema);
+            try(ConnectionPool pool = new ConnectionPool(config)) {
+                try(Connection conn = pool.getConnection()) {
+                    SchemaMigrations.migrate(conn, new File(migrations));
+                }
+                DataGenerator.Settings settings = new DataGenerator.Settings();
+                settings.seed = seed;
+                settings.scale(scale);
+                long start = System.nanoTime();
+                Map<String, Long> counts = new DataGenerator(settings).generate(DataGenerator.jdbcSinks(pool, 1000));
+                try(Connection conn = pool.getConnection()) {
+                    RevenueRollup.rebuild(conn);
+                }
+                long rows = 0;
+                for(long c : counts.values()) {
+                    rows += c;
+                }
+                OPMSDemo.View.displayMessage(String.format("Scale %s: loaded %d rows in %.1fs", label, rows, (System.nanoTime() - start) / 1e9));
+
+                Keys keys;
+                try(Connection conn = pool.getConnection()) {
+                    keys = new Keys(conn, new IdAllocator(pool));
+                }
+                for(int threads : threadCounts) {
+                    for(Map.Entry<String, Operation> op : OPERATIONS.entrySet()) {
+                        if(only != null && !only.contains(op.getKey())) {
+                            continue;
+                        }
+                        Result result = run(pool, keys, label, threads, op.getKey(), op.getValue(), warmupMillis, measureMillis);
+                        OPMSDemo.View.displayMessage(String.format("%-18s scale %-5s threads %-3d %10.1f ops/s  %s",
+                                op.getKey(), label, threads, result.opsPerSecond, result.latency));
+                        results.add(result);
+                    }
+                }
+                OPMSDemo.View.displayMessage("Connection pool: " + pool.getStats());
+            }
+        }
+        OPMSDemo.View.displayMessage("Statement cache:");
+        OPMSDemo.View.displayTable(StatementCache.STATS_COLUMNS, StatementCache.stats());
+
+        ArrayList<String[]> rows = new ArrayList<>();
+        for(Result result : results) {
+            rows.add(result.row());
+        }
+        OPMSDemo.View.displayTable(RESULT_COLUMNS, rows);
+        if(out != null) {
+            try(PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(out)))) {
+                writer.println(String.join(",", RESULT_COLUMNS));
+                for(String[] row : rows) {
+                    writer.println(String.join(",", row));
+                }
+            }
+            OPMSDemo.View.displayMessage("Results written to " + out);
+        }
+    }
+
+    /**
+     * Run one operation on the given number of threads: warm up, then measure.
+     * Every thread records into its own histogram; they are merged once the run is over.
+     */
+    static Result run(ConnectionPool pool, Keys keys, String scale, int threads, String name, Operation operation,
+                      long warmupMillis, long measureMillis) throws Exception {
+        long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long measureEnd = warmupEnd + TimeUnit.MILLISECONDS.toNanos(measureMillis);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            List<LatencyHistogram> histograms = new ArrayList<>();
+            for(int t = 0; t < threads; t++) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histograms.add(histogram);
+                futures.add(workers.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long ops = 0;
+                    long errors = 0;
+                    while(true) {
+                        long begin = System.nanoTime();
+                        if(begin >= measureEnd) {
+                            break;
+                        }
+                        boolean failed = false;
+                        try(Connection conn = pool.getConnection()) {
+                            operation.run(conn, keys, random);
+                        }
+                        catch(SQLException e) {
+                            failed = true;
+                        }
+                        long end = System.nanoTime();
+                        // Only operations that started after the warm-up count
+                        if(begin >= warmupEnd) {
+                            if(failed) {
+                                errors++;
+                            }
+                            else {
+                                ops++;
+                                histogram.record(end - begin);
+                            }
+                        }
+                    }
+                    return new long[]{ops, errors};
+                }));
+            }
+            long ops = 0;
+            long errors = 0;
+            for(Future<long[]> future : futures) {
+                long[] counts = future.get();
+                ops += counts[0];
+                errors += counts[1];
+            }
+            LatencyHistogram latency = new LatencyHistogram();
+            for(LatencyHistogram histogram : histograms) {
+                latency.add(histogram);
+            }
+            return new Result(scale, threads, name, ops / (measureMillis / 1000.0), errors, latency);
+        }
+        finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static void require(boolean condition, String message) throws SQLException {
+        if(!condition) {
+            throw new SQLException(message);
+        }
+    }
+}
@@ -1,16 +1,24 @@
 import java.io.*;
 import java.sql.*;
-import oracle.jdbc.driver.*;
-import oracle.sql.*;
+import java.time.*;
 import java.util.*;
 
 public class OPMSDemo {
     private static Scanner scanner = new Scanner(System.in);
-    private static String currentRole; // Stores the current logged-in user's role
     private static String currentUsername; // Stores the current logged-in username for reference
-    private static String currentSSN; // For customer role
-    private static int currentDoctorId = -1; // For doctor role
-    private static int currentEmployeeId = -1; // For employee role
+    private static SessionStore sessions; // Signed-in role and identity, by token
+    private static String sessionToken; // Token of the operator at this console
+    private static IdAllocator ids; // Block-allocated keys for new orders and prescriptions
+    private static InventoryCache inventory; // Resident Medicine stock, only with -Dopms.inventory.cache=true
+    private static FefoAllocator fefo; // Earliest-expiry batch index over the inventory cache
+    private static ExpiryIndex expiry; // Batches by expiry day over the inventory cache, with near-expiry notices
+    private static LowStockMonitor lowStock; // Batches below their reorder point, tracked from the inventory cache
+    private static FulfilmentScheduler scheduler; // Urgent-first order queues per employee, only with -Dopms.dispatch=true
+    private static final Queue<String> stockAlerts = new java.util.concurrent.ConcurrentLinkedQueue<>(); // Low-stock crossings not shown yet
+    private static Dashboard dashboard; // All admin reports in parallel
+    // Metrics name of each menu entry, by choice
+    private static final String[] OPERATIONS = {"exit", "registerCustomer", "viewPrescriptions", "placeOrder", "issuePrescription", "processOrder",
+            "monthlyRevenue", "expiredStock", "annualRevenue", "topSoldDrugs", "topCustomers", "topDoctors", "lowStock", "dashboard", "dispatchStats"};
 
     // Role-function permissions map: key is role, value is list of allowed function numbers
     private static final Map<String, List<Integer>> ROLE_PERMISSIONS = new HashMap<>();
@@ -20,7 +28,15 @@ public class OPMSDemo {
         ROLE_PERMISSIONS.put("customer", Arrays.asList(2, 3, 0)); // Customer: view prescriptions, place order, exit (removed register after login/registration)
         ROLE_PERMISSIONS.put("doctor", Arrays.asList(4, 0)); // Doctor: issue prescription, exit
         ROLE_PERMISSIONS.put("employee", Arrays.asList(5, 0)); // Employee: process order, exit
-        ROLE_PERMISSIONS.put("admin", Arrays.asList(6, 7, 8, 9, 10, 11, 12, 0)); // Admin: monthly revenue, view expired stock, annual revenue, top sold drugs, top customers, top doctors, low stock, exit
+        ROLE_PERMISSIONS.put("admin", Arrays.asList(6, 7, 8, 9, 10, 11, 12, 13, 14, 0)); // Admin: monthly revenue, view expired stock, annual revenue, top sold drugs, top customers, top doctors, low stock, dashboard, fulfilment queues, exit
+    }
+
+    /**
+     * Whether a role may use a menu function; also enforced per request by OPMSServer
+     */
+    static boolean permitted(String role, int function) {
+        List<Integer> allowed = ROLE_PERMISSIONS.get(role);
+        return allowed != null && allowed.contains(function);
     }
 
     public static void main(String[] args) throws SQLException, IOException, InterruptedException {
@@ -33,11 +49,44 @@ public class OPMSDemo {
         char[] password = console.readPassword();
         String pwd = String.valueOf(password);
 
-        // Register Oracle driver and connect to database
-        DriverManager.registerDriver(new oracle.jdbc.driver.OracleDriver());
-        OracleConnection conn =
-                (OracleConnection)DriverManager.getConnection(
-                        "jdbc:oracle:thin:@studora.comp.polyu.edu.hk:1521:dbms", currentUsername, pwd);
+        // Connect through the pool; the URL defaults to studora and can be overridden with -Dopms.jdbc.url
+        ConnectionPool pool = new ConnectionPool(ConnectionPool.Config.fromSystemProperties(currentUsername, pwd));
+        if(Boolean.getBoolean("opms.migrate")) {
+            try(Connection conn = pool.getConnection()) {
+                List<SchemaMigrations.Migration> applied = SchemaMigrations.migrate(conn, new File(System.getProperty("opms.migrations", SchemaMigrations.DEFAULT_DIRECTORY)));
+                if(!applied.isEmpty()) {
+                    View.displayMessage("Applied schema migrations " + applied);
+                }
+            }
+        }
+        ids = new IdAllocator(pool);
+        StockReservations.startSweeper(pool, Long.getLong("opms.hold.sweepMillis", 60000));
+        if(Boolean.getBoolean("opms.inventory.cache")) {
+            inventory = new InventoryCache(pool, Long.getLong("opms.inventory.flushMillis", 500));
+            StockReservations.useInventoryCache(inventory);
+            fefo = new FefoAllocator(inventory);
+            expiry = new ExpiryIndex(inventory, Integer.getInteger("opms.expiry.noticeDays", 30), Long.getLong("opms.expiry.sweepMillis", 60000));
+            lowStock = new LowStockMonitor(pool, inventory, Integer.getInteger("opms.lowStock.threshold", 10));
+            Operations.useLowStockMonitor(lowStock);
+            lowStock.addListener(alert -> {
+                if(alert.low && stockAlerts.size() < 1000) {
+                    stockAlerts.add(alert.toString());
+                }
+            });
+        }
+        if(Boolean.getBoolean("opms.rankings")) {
+            Operations.useRankings(new TopRankings(pool));
+        }
+        if(Boolean.getBoolean("opms.entitlements")) {
+            OrderPlacement.useEntitlements(PrescriptionEntitlements.fromSystemProperties());
+        }
+        dashboard = new Dashboard(pool, lowStock, expiry);
+        if(Boolean.getBoolean("opms.dispatch")) {
+            scheduler = new FulfilmentScheduler(pool);
+        }
+        sessions = SessionStore.fromSystemProperties();
+        sessions.startSweeper(pool, Long.getLong("opms.session.sweepMillis", 60000));
+        Metrics.start();
         clearScreen();
 
         boolean running = true;
@@ -61,7 +110,7 @@ public class OPMSDemo {
                     continue;
                 }
 
-                try {
+                try(Connection conn = pool.getConnection()) {
                     switch(roleNum) {
                         case 1: // Customer
                             View.displayMessage("Are you a new customer or existing?");
@@ -80,8 +129,7 @@ public class OPMSDemo {
                                 // Register new customer
                                 String registeredSSN = registerCustomer(conn);
                                 if(registeredSSN != null) {
-                                    currentSSN = registeredSSN;
-                                    currentRole = "customer";
+                                    sessionToken = sessions.open(new SessionStore.Session("customer", registeredSSN, -1, -1));
                                     validated = true;
                                     View.displayMessage("Registration and login successful.");
                                 }
@@ -90,20 +138,13 @@ public class OPMSDemo {
                                 // Login existing
                                 String ssn = readEntry("Enter SSN: ");
                                 String custPwd = readEntry("Enter Password: ");
-                                String custSql = "SELECT 1 FROM Customer WHERE SSN = ? AND Password = ?";
-                                try(PreparedStatement pstmt = conn.prepareStatement(custSql)) {
-                                    pstmt.setString(1, ssn);
-                                    pstmt.setString(2, custPwd);
-                                    ResultSet rs = pstmt.executeQuery();
-                                    if(rs.next()) {
-                                        currentRole = "customer";
-                                        currentSSN = ssn;
-                                        validated = true;
-                                        View.displayMessage("Customer role validated successfully.");
-                                    }
-                                    else {
-                                        View.displayError("Invalid SSN or Password.");
-                                    }
+                                if(Operations.customerLogin(conn, ssn, custPwd)) {
+                                    sessionToken = sessions.open(new SessionStore.Session("customer", ssn, -1, -1));
+                                    validated = true;
+                                    View.displayMessage("Customer role validated successfully.");
+                                }
+                                else {
+                                    View.displayError("Invalid SSN or Password.");
                                 }
                             }
                             else {
@@ -113,43 +154,29 @@ public class OPMSDemo {
                         case 2: // Doctor
                             int docId = Integer.parseInt(readEntry("Enter Doctor ID: "));
                             String docPhone = readEntry("Enter Phone: ");
-                            String docSql = "SELECT 1 FROM Doctor WHERE Doctor_ID = ? AND Phone = ?";
-                            try(PreparedStatement pstmt = conn.prepareStatement(docSql)) {
-                                pstmt.setInt(1, docId);
-                                pstmt.setString(2, docPhone);
-                                ResultSet rs = pstmt.executeQuery();
-                                if(rs.next()) {
-                                    currentRole = "doctor";
-                                    currentDoctorId = docId;
-                                    validated = true;
-                                    View.displayMessage("Doctor role validated successfully.");
-                                }
-                                else {
-                                    View.displayError("Invalid Doctor ID or Phone.");
-                                }
+                            if(Operations.doctorLogin(conn, docId, docPhone)) {
+                                sessionToken = sessions.open(new SessionStore.Session("doctor", null, docId, -1));
+                                validated = true;
+                                View.displayMessage("Doctor role validated successfully.");
+                            }
+                            else {
+                                View.displayError("Invalid Doctor ID or Phone.");
                             }
                             break;
                         case 3: // Employee
                             int empId = Integer.parseInt(readEntry("Enter Employee ID: "));
                             String empPhone = readEntry("Enter Phone: ");
-                            String empSql = "SELECT 1 FROM Employee WHERE Employee_ID = ? AND Phone = ?";
-                            try(PreparedStatement pstmt = conn.prepareStatement(empSql)) {
-                                pstmt.setInt(1, empId);
-                                pstmt.setString(2, empPhone);
-                                ResultSet rs = pstmt.executeQuery();
-                                if(rs.next()) {
-                                    currentRole = "employee";
-                                    currentEmployeeId = empId;
-                                    validated = true;
-                                    View.displayMessage("Employee role validated successfully.");
-                                }
-                                else {
-                                    View.displayError("Invalid Employee ID or Phone.");
-                                }
+                            if(Operations.employeeLogin(conn, empId, empPhone)) {
+                                sessionToken = sessions.open(new SessionStore.Session("employee", null, -1, empId));
+                                validated = true;
+                                View.displayMessage("Employee role validated successfully.");
+                            }
+                            else {
+                                View.displayError("Invalid Employee ID or Phone.");
                             }
                             break;
                         case 4: // Admin (no validation, for demo purposes)
-                            currentRole = "admin";
+                            sessionToken = sessions.open(new SessionStore.Session("admin", null, -1, -1));
                             validated = true;
                             View.displayMessage("Admin role selected (no validation).");
                             break;
@@ -180,7 +207,21 @@ public class OPMSDemo {
             // Main loop
             int choice = 0;
             while(choice != -1) {
-                displayMenu();
+                SessionStore.Session session = sessions.get(sessionToken);
+                if(session == null) {
+                    View.displayError("Your session has expired. Please log in again.");
+                    break;
+                }
+                if(expiry != null && ("admin".equals(session.role) || "employee".equals(session.role))) {
+                    for(String notice : expiry.drainNotices()) {
+                        View.displayMessage("[Stock notice] " + notice);
+                    }
+                    String alert;
+                    while((alert = stockAlerts.poll()) != null) {
+                        View.displayMessage("[Stock notice] " + alert);
+                    }
+                }
+                displayMenu(session.role);
                 String input = readEntry("Enter your choice: ");
                 try {
                     choice = Integer.parseInt(input);
@@ -191,57 +232,70 @@ public class OPMSDemo {
                 }
 
                 // Permission check
-                List<Integer> allowed = ROLE_PERMISSIONS.get(currentRole);
-                if(allowed == null || !allowed.contains(choice)) {
-                    View.displayError("Insufficient permissions! This function is only open to " + getRoleDesc(currentRole) + ".");
+                if(!permitted(session.role, choice)) {
+                    View.displayError("Insufficient permissions! This function is only open to " + getRoleDesc(session.role) + ".");
                     View.displayMessage("\nPress Enter to continue...");
                     System.in.read();
                     clearScreen();
                     continue;
                 }
 
-                switch(choice) {
-                    case 1:
-                        registerCustomer(conn);
-                        break;
-                    case 2:
-                        viewPrescriptions(conn);
-                        break;
-                    case 3:
-                        placeOrder(conn);
-                        break;
-                    case 4:
-                        issuePrescription(conn);
-                        break;
-                    case 5:
-                        processOrder(conn);
-                        break;
-                    case 6:
-                        monthlyRevenueReport(conn);
-                        break;
-                    case 7:
-                        viewExpiredStock(conn);
-                        break;
-                    case 8:
-                        annualRevenueReport(conn);
-                        break;
-                    case 9:
-                        topSoldDrugsReport(conn);
-                        break;
-                    case 10:
-                        topCustomersReport(conn);
-                        break;
-                    case 11:
-                        topDoctorsReport(conn);
-                        break;
-                    case 12:
-                        lowStockReport(conn);
-                        break;
-                    case 0:
-                        choice = -1;
-                        break;
-                    default:
-                        View.displayError("Invalid choice. Please try again.");
+                String operation = (choice >= 0 && choice < OPERATIONS.length) ? OPERATIONS[choice] : "invalid";
+                Metrics.Scope scope = Metrics.operation("menu." + operation);
+                try(Connection conn = pool.getConnection()) {
+                    switch(choice) {
+                        case 1:
+                            registerCustomer(conn);
+                            break;
+                        case 2:
+                            viewPrescriptions(conn, session);
+                            break;
+                        case 3:
+                            placeOrder(conn, session);
+                            break;
+                        case 4:
+                            issuePrescription(conn, session);
+                            break;
+                        case 5:
+                            processOrder(conn, session);
+                            break;
+                        case 6:
+                            monthlyRevenueReport(conn);
+                            break;
+                        case 7:
+                            viewExpiredStock(conn);
+                            break;
+                        case 8:
+                            annualRevenueReport(conn);
+                            break;
+                        case 9:
+                            topSoldDrugsReport(conn);
+                            break;
+                        case 10:
+                            topCustomersReport(conn);
+                            break;
+                        case 11:
+                            topDoctorsReport(conn);
+                            break;
+                        case 12:
+                            lowStockReport(conn);
+                            break;
+                        case 13:
+                            dashboardReport();
+                            break;
+                        case 14:
+                            dispatchStatsReport();
+                            break;
+                        case 0:
+                            sessions.logout(sessionToken);
+                            choice = -1;
+                            break;
+                        default:
+                            View.displayError("Invalid choice. Please try again.");
+                    }
+                }
+                finally {
+                    scope.close();
                 }
                 if(choice != -1) {
                     View.displayMessage("\nPress Enter to continue...");
@@ -252,15 +306,29 @@ public class OPMSDemo {
         }
 
         // Exit
-        conn.close();
+        sessions.close();
+        if(expiry != null) {
+            expiry.close();
+        }
+        if(inventory != null) {
+            inventory.close();
+        }
+        View.displayMessage("Connection pool: " + pool.getStats());
+        View.displayMessage("Statement cache:");
+        View.displayTable(StatementCache.STATS_COLUMNS, StatementCache.stats());
+        if(Metrics.ENABLED) {
+            View.displayMessage("Operations:");
+            View.displayTable(Metrics.REPORT_COLUMNS, Metrics.rows());
+        }
+        pool.close();
         View.displayExit();
         System.in.read();
         clearScreen();
     }
 
-    private static void displayMenu() {
+    private static void displayMenu(String role) {
         View.displayMessage("--- Online Pharmacy Management System (OPMS) Demo ---");
-        List<Integer> allowedFunctions = ROLE_PERMISSIONS.get(currentRole);
+        List<Integer> allowedFunctions = ROLE_PERMISSIONS.get(role);
 
         if(allowedFunctions.contains(1)) {
             View.displayMessage("1. Register Customer");
@@ -298,6 +366,12 @@ public class OPMSDemo {
         if(allowedFunctions.contains(12)) {
             View.displayMessage("12. Low Stock Medicines Report");
         }
+        if(allowedFunctions.contains(13)) {
+            View.displayMessage("13. Dashboard (all reports at once)");
+        }
+        if(allowedFunctions.contains(14)) {
+            View.displayMessage("14. Fulfilment Queue Statistics");
+        }
         if(allowedFunctions.contains(0)) {
             View.displayMessage("0. Exit");
         }
@@ -314,17 +388,8 @@ public class OPMSDemo {
         String password = readEntry("Password: ");
         String address = readEntry("Address: ");
 
-        String sql = "INSERT INTO Customer (SSN, First_Name, Last_Name, Gender, Date_of_Birth, Phone, Password, Address) VALUES (?, ?, ?, ?, TO_DATE(?, 'YYYY-MM-DD'), ?, ?, ?)";
-        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, ssn);
-            pstmt.setString(2, firstName);
-            pstmt.setString(3, lastName);
-            pstmt.setString(4, gender);
-            pstmt.setString(5, dob);
-            pstmt.setString(6, phone);
-            pstmt.setString(7, password);
-            pstmt.setString(8, address);
-            pstmt.executeUpdate();
+        try {
+            Operations.registerCustomer(conn, ssn, firstName, lastName, gender, dob, phone, password, address);
             View.displayMessage("Customer registered successfully.");
             return ssn;
         }
@@ -334,137 +399,156 @@ public class OPMSDemo {
         }
     }
 
-    private static void viewPrescriptions(Connection conn) throws SQLException {
-        // For customer, use currentSSN; otherwise prompt
+    private static void viewPrescriptions(Connection conn, SessionStore.Session session) throws SQLException {
+        // For customer, use the session's SSN; otherwise prompt
         String ssn;
-        if("customer".equals(currentRole)) {
-            ssn = currentSSN;
+        if("customer".equals(session.role)) {
+            ssn = session.ssn;
             View.displayMessage("Viewing prescriptions for SSN: " + ssn);
         }
         else {
             ssn = readEntry("Enter Customer SSN: ");
         }
-        String sql = "SELECT p.Prescription_ID, p.Prescribed_Date, p.Note, d.First_Name || ' ' || d.Last_Name AS Doctor_Name " +
-                "FROM Prescription p JOIN Doctor d ON p.Doctor_ID = d.Doctor_ID WHERE p.Customer_SSN = ?";
-        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, ssn);
-            ResultSet rs = pstmt.executeQuery();
-            View.displayMessage("\nPrescriptions:");
-            ArrayList<String[]> rows = new ArrayList<>();
-            while(rs.next()) {
-                String dateStr = (rs.getDate(2) != null) ? rs.getDate(2).toString() : "N/A";
-                String noteStr = rs.getString(3) != null ? rs.getString(3) : "N/A";
-                String doctorName = rs.getString(4) != null ? rs.getString(4) : "N/A";
-                rows.add(new String[]{
-                        String.valueOf(rs.getInt(1)),
-                        dateStr,
-                        noteStr,
-                        doctorName
-                });
-            }
-            if(!rows.isEmpty()) {
-                View.displayTable(new String[]{"ID", "Date", "Note", "Doctor"}, rows);
-            }
-            else {
-                View.displayMessage("No prescriptions found.");
-            }
+        View.displayMessage("\nPrescriptions:");
+        Page page = Operations.prescriptions(conn, ssn, View.TableStream.PAGE_ROWS, null);
+        if(page.rows.isEmpty()) {
+            View.displayMessage("No prescriptions found.");
+            return;
+        }
+        View.displayTable(Operations.PRESCRIPTION_COLUMNS, page.rows);
+        while(page.nextCursor != null && View.askForMore()) {
+            page = Operations.prescriptions(conn, ssn, View.TableStream.PAGE_ROWS, page.nextCursor);
+            View.displayTable(Operations.PRESCRIPTION_COLUMNS, page.rows);
         }
     }
 
-    private static void placeOrder(Connection conn) throws SQLException {
+    private static void placeOrder(Connection conn, SessionStore.Session session) throws SQLException {
         View.displayMessage("\n--- Place Order ---");
         String ssn;
-        if("customer".equals(currentRole)) {
-            ssn = currentSSN;
+        if("customer".equals(session.role)) {
+            ssn = session.ssn;
         }
         else {
             ssn = readEntry("Customer SSN: ");
         }
         int prescriptionId = Integer.parseInt(readEntry("Prescription ID: "));
-        int employeeId = Integer.parseInt(readEntry("Employee ID: "));
+        String employeeInput = readEntry((scheduler != null) ? "Employee ID (blank to assign automatically): " : "Employee ID: ");
+        int employeeId = (scheduler != null && employeeInput.isEmpty()) ? -1 : Integer.parseInt(employeeInput);
+        if(!employeeInput.isEmpty() && employeeId < 0) {
+            // -1 is only the internal marker for automatic assignment, which needs dispatch
+            View.displayError("Invalid employee ID " + employeeId + ".");
+            return;
+        }
         String orderDate = readEntry("Order Date (YYYY-MM-DD): ");
         String type = readEntry("Type (urgent/normal): ");
-        String status = "incomplete";
-        double totalAmount = 0.0;
+        OrderPlacement.OrderRequest request = new OrderPlacement.OrderRequest(ssn, prescriptionId, employeeId, orderDate, type);
 
-        int orderId;
-        try(Statement stmt = conn.createStatement()) {
-            ResultSet rs = stmt.executeQuery("SELECT NVL(MAX(ORDER_ID), 0) + 1 FROM \"Order\"");
-            if(rs.next()) {
-                orderId = rs.getInt(1);
-            }
-            else {
-                throw new SQLException("Unable to generate order ID");
-            }
-        }
-
-        String insertOrder = "INSERT INTO \"Order\" (ORDER_ID, Order_Date, Total_Amount, Type, Status, Customer_SSN, Employee_ID, Prescription_ID) " +
-                "VALUES (?, TO_DATE(?, 'YYYY-MM-DD'), ?, ?, ?, ?, ?, ?)";
-        try(PreparedStatement pstmt = conn.prepareStatement(insertOrder)) {
-            pstmt.setInt(1, orderId);
-            pstmt.setString(2, orderDate);
-            pstmt.setDouble(3, totalAmount);
-            pstmt.setString(4, type);
-            pstmt.setString(5, status);
-            pstmt.setString(6, ssn);
-            pstmt.setInt(7, employeeId);
-            pstmt.setInt(8, prescriptionId);
-            pstmt.executeUpdate();
-
-            // Add drugs loop (simplified, add at least one for demo)
-            String drugName = readEntry("Drug Name: ");
-            int pharmacyId = Integer.parseInt(readEntry("Pharmacy ID: "));
-            String batchNumber = readEntry("Batch Number: ");
-            int quantity = Integer.parseInt(readEntry("Quantity: "));
-            double price = Double.parseDouble(readEntry("Price: "));
-
-            // Check stock (simplified)
-            String checkStock = "SELECT Stock_Quantity FROM Medicine WHERE Drug_Name = ? AND Pharmacy_ID = ? AND Batch_Number = ?";
-            try(PreparedStatement checkPstmt = conn.prepareStatement(checkStock)) {
-                checkPstmt.setString(1, drugName);
-                checkPstmt.setInt(2, pharmacyId);
-                checkPstmt.setString(3, batchNumber);
-                ResultSet rs = checkPstmt.executeQuery();
-                if(rs.next() && rs.getInt(1) >= quantity) {
-                    // Insert ordered drug
-                    String insertOrdered = "INSERT INTO Ordered_Drugs (Order_ID, Drug_Name, Pharmacy_ID, Batch_Number, Ordered_Quantity, Price) VALUES (?, ?, ?, ?, ?, ?)";
-                    try(PreparedStatement orderedPstmt = conn.prepareStatement(insertOrdered)) {
-                        orderedPstmt.setInt(1, orderId);
-                        orderedPstmt.setString(2, drugName);
-                        orderedPstmt.setInt(3, pharmacyId);
-                        orderedPstmt.setString(4, batchNumber);
-                        orderedPstmt.setInt(5, quantity);
-                        orderedPstmt.setDouble(6, price);
-                        orderedPstmt.executeUpdate();
+        // Collect drug lines until a blank drug name is entered, holding their stock so it is still there when
+        // the order is placed; holds left behind by an abandoned order are released here or when they expire
+        List<Long> holdIds = new ArrayList<>();
+        boolean placed = false;
+        try {
+            while(true) {
+                String drugName = readEntry(request.lines.isEmpty() ? "Drug Name: " : "Drug Name (blank to finish): ");
+                if(drugName.isEmpty()) {
+                    if(request.lines.isEmpty()) {
+                        View.displayError("An order needs at least one drug.");
+                        continue;
+                    }
+                    break;
+                }
+                String pharmacyInput = readEntry("Pharmacy ID (blank to pick earliest-expiry batches automatically): ");
+                String batchNumber = pharmacyInput.isEmpty() ? "" : readEntry("Batch Number (blank to pick automatically): ");
+                int quantity = Integer.parseInt(readEntry("Quantity: "));
+                double price = Double.parseDouble(readEntry("Price: "));
+                List<OrderPlacement.OrderLine> lines;
+                try {
+                    if(batchNumber.isEmpty()) {
+                        Integer pharmacyId = pharmacyInput.isEmpty() ? null : Integer.valueOf(pharmacyInput);
+                        lines = (fefo != null)
+                                ? fefo.allocate(drugName, quantity, pharmacyId, price)
+                                : FefoAllocator.allocate(conn, drugName, quantity, pharmacyId, price);
                     }
-                    // Update stock
-                    String updateStock = "UPDATE Medicine SET Stock_Quantity = Stock_Quantity - ? WHERE Drug_Name = ? AND Pharmacy_ID = ? AND Batch_Number = ?";
-                    try(PreparedStatement updatePstmt = conn.prepareStatement(updateStock)) {
-                        updatePstmt.setInt(1, quantity);
-                        updatePstmt.setString(2, drugName);
-                        updatePstmt.setInt(3, pharmacyId);
-                        updatePstmt.setString(4, batchNumber);
-                        updatePstmt.executeUpdate();
+                    else {
+                        lines = Collections.singletonList(new OrderPlacement.OrderLine(drugName, Integer.parseInt(pharmacyInput), batchNumber, quantity, price));
                     }
-                    totalAmount += price * quantity;
                 }
-                else {
-                    View.displayError("Insufficient stock.");
+                catch(FefoAllocator.InsufficientStockException | IllegalArgumentException e) {
+                    View.displayError(e.getMessage());
+                    continue;
+                }
+                if(holdLines(conn, lines, holdIds)) {
+                    for(OrderPlacement.OrderLine line : lines) {
+                        View.displayMessage("Holding " + line);
+                        request.addLine(line);
+                    }
+                }
+            }
+
+            if(scheduler != null && employeeId == -1) {
+                // The least busy employee of the pharmacy supplying the first line
+                employeeId = scheduler.leastLoaded(request.lines.get(0).pharmacyId);
+                if(employeeId == -1) {
+                    View.displayError("No employee at pharmacy " + request.lines.get(0).pharmacyId + " to manage the order.");
+                    return;
+                }
+                OrderPlacement.OrderRequest assigned = new OrderPlacement.OrderRequest(ssn, prescriptionId, employeeId, orderDate, type);
+                for(OrderPlacement.OrderLine line : request.lines) {
+                    assigned.addLine(line);
+                }
+                request = assigned;
+                View.displayMessage("Assigned to employee " + employeeId + ".");
+            }
+
+            try {
+                long orderId = OrderPlacement.placeHeld(conn, ids, request, holdIds);
+                placed = true;
+                if(scheduler != null) {
+                    scheduler.submit(orderId, employeeId, type, LocalDate.parse(orderDate));
                 }
+                View.displayMessage("Order " + orderId + " placed successfully. Total: " + request.total());
+            }
+            catch(OrderPlacement.HoldsExpiredException e) {
+                View.displayError("The stock holds expired before the order was placed, order not placed: " + e.missingHoldIds);
+            }
+            catch(PrescriptionEntitlements.EntitlementException e) {
+                View.displayError("Order not placed. " + e.getMessage());
+            }
+            catch(IllegalArgumentException e) {
+                View.displayError(e.getMessage());
             }
-            // Update total
-            String updateTotal = "UPDATE \"Order\" SET Total_Amount = ? WHERE Order_ID = ?";
-            try(PreparedStatement totalPstmt = conn.prepareStatement(updateTotal)) {
-                totalPstmt.setDouble(1, totalAmount);
-                totalPstmt.setInt(2, orderId);
-                totalPstmt.executeUpdate();
+        }
+        finally {
+            if(!placed && !holdIds.isEmpty()) {
+                StockReservations.release(conn, holdIds);
             }
-            View.displayMessage("Order placed successfully.");
         }
     }
 
-    private static void issuePrescription(Connection conn) throws SQLException {
-        if(currentDoctorId == -1) {
+    // Hold stock for the lines of one drug entry; all or nothing, so a partly held entry is released again
+    private static boolean holdLines(Connection conn, List<OrderPlacement.OrderLine> lines, List<Long> holdIds) throws SQLException {
+        StockReservations.HoldResult held = StockReservations.hold(conn, ids, lines, Long.getLong("opms.hold.ttlMillis", 15 * 60 * 1000L));
+        List<Long> taken = new ArrayList<>();
+        List<OrderPlacement.OrderLine> failed = new ArrayList<>();
+        for(int i = 0; i < held.holdIds.length; i++) {
+            if(held.isHeld(i)) {
+                taken.add(held.holdIds[i]);
+            }
+            else {
+                failed.add(held.lines.get(i));
+            }
+        }
+        if(!failed.isEmpty()) {
+            StockReservations.release(conn, taken);
+            View.displayError("Insufficient stock, drug not added: " + failed);
+            return false;
+        }
+        holdIds.addAll(taken);
+        return true;
+    }
+
+    private static void issuePrescription(Connection conn, SessionStore.Session session) throws SQLException {
+        if(session.doctorId == -1) {
             View.displayError("Doctor ID not set.");
             return;
         }
@@ -473,266 +557,292 @@ public class OPMSDemo {
         String prescribedDate = readEntry("Prescribed Date (YYYY-MM-DD): ");
         String note = readEntry("Note: ");
 
-        int prescriptionId;
-        try(Statement stmt = conn.createStatement()) {
-            ResultSet rs = stmt.executeQuery("SELECT NVL(MAX(PRESCRIPTION_ID), 0) + 1 FROM Prescription");
-            if(rs.next()) {
-                prescriptionId = rs.getInt(1);
-            }
-            else {
-                throw new SQLException("Unable to generate prescription ID");
-            }
-        }
-
-        String insertPres = "INSERT INTO Prescription (PRESCRIPTION_ID, Prescribed_Date, Note, Customer_SSN, Doctor_ID) VALUES (?, TO_DATE(?, 'YYYY-MM-DD'), ?, ?, ?)";
-        try(PreparedStatement pstmt = conn.prepareStatement(insertPres)) {
-            pstmt.setInt(1, prescriptionId);
-            pstmt.setString(2, prescribedDate);
-            pstmt.setString(3, note);
-            pstmt.setString(4, ssn);
-            pstmt.setInt(5, currentDoctorId);
-            pstmt.executeUpdate();
+        // Add drugs (simplified, add at least one)
+        String drugName = readEntry("Drug Name: ");
+        int quantity = Integer.parseInt(readEntry("Quantity: "));
+        int refillLimit = Integer.parseInt(readEntry("Refill Limit: "));
 
-            // Add drugs (simplified, add at least one)
-            String drugName = readEntry("Drug Name: ");
-            int quantity = Integer.parseInt(readEntry("Quantity: "));
-            int refillLimit = Integer.parseInt(readEntry("Refill Limit: "));
-
-            String insertDrug = "INSERT INTO Prescribed_Drugs (Prescription_ID, Drug_Name, Prescribed_Quantity, Refill_Limit) VALUES (?, ?, ?, ?)";
-            try(PreparedStatement drugPstmt = conn.prepareStatement(insertDrug)) {
-                drugPstmt.setInt(1, prescriptionId);
-                drugPstmt.setString(2, drugName);
-                drugPstmt.setInt(3, quantity);
-                drugPstmt.setInt(4, refillLimit);
-                drugPstmt.executeUpdate();
-            }
-            View.displayMessage("Prescription issued successfully.");
-        }
+        Operations.issuePrescription(conn, ids, session.doctorId, ssn, prescribedDate, note, drugName, quantity, refillLimit);
+        View.displayMessage("Prescription issued successfully.");
     }
 
-    private static void processOrder(Connection conn) throws SQLException {
-        if(currentEmployeeId == -1) {
+    private static void processOrder(Connection conn, SessionStore.Session session) throws SQLException {
+        if(session.employeeId == -1) {
             View.displayError("Employee ID not set.");
             return;
         }
         View.displayMessage("\n--- Process Order ---");
+        if(scheduler != null) {
+            processNextOrder(conn, session.employeeId);
+            return;
+        }
         View.displayMessage("Your managed incomplete orders:");
 
-        String sql = "SELECT Order_ID, Order_Date, Total_Amount, Type, Customer_SSN, Prescription_ID " +
-                "FROM \"Order\" WHERE Employee_ID = ? AND Status = 'incomplete'";
-        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, currentEmployeeId);
-            ResultSet rs = pstmt.executeQuery();
-            ArrayList<String[]> rows = new ArrayList<>();
-            while(rs.next()) {
-                String dateStr = (rs.getDate(2) != null) ? rs.getDate(2).toString() : "N/A";
-                rows.add(new String[]{
-                        String.valueOf(rs.getInt(1)),
-                        dateStr,
-                        String.valueOf(rs.getDouble(3)),
-                        rs.getString(4),
-                        rs.getString(5),
-                        String.valueOf(rs.getInt(6))
-                });
-            }
-            if(!rows.isEmpty()) {
-                View.displayTable(new String[]{"Order ID", "Date", "Total Amount", "Type", "Customer SSN", "Prescription ID"}, rows);
-            }
-            else {
-                View.displayMessage("No incomplete orders found.");
-                return;
-            }
-        }
-
-        int orderId = Integer.parseInt(readEntry("Enter Order ID to process: "));
-
-        // Check if the order belongs to this employee
-        String checkSql = "SELECT 1 FROM \"Order\" WHERE Order_ID = ? AND Employee_ID = ? AND Status = 'incomplete'";
-        try(PreparedStatement checkPstmt = conn.prepareStatement(checkSql)) {
-            checkPstmt.setInt(1, orderId);
-            checkPstmt.setInt(2, currentEmployeeId);
-            ResultSet rs = checkPstmt.executeQuery();
-            if(rs.next()) {
-                String update = "UPDATE \"Order\" SET Status = 'complete' WHERE Order_ID = ?";
-                try(PreparedStatement updatePstmt = conn.prepareStatement(update)) {
-                    updatePstmt.setInt(1, orderId);
-                    int rowsUpdated = updatePstmt.executeUpdate();
-                    if(rowsUpdated > 0) {
-                        View.displayMessage("Order processed successfully.");
-                    }
-                    else {
-                        View.displayError("Failed to process order.");
-                    }
-                }
+        Page page = Operations.incompleteOrders(conn, session.employeeId, View.TableStream.PAGE_ROWS, null);
+        if(page.rows.isEmpty()) {
+            View.displayMessage("No incomplete orders found.");
+            return;
+        }
+        View.displayTable(Operations.INCOMPLETE_ORDER_COLUMNS, page.rows);
+        while(page.nextCursor != null && View.askForMore()) {
+            page = Operations.incompleteOrders(conn, session.employeeId, View.TableStream.PAGE_ROWS, page.nextCursor);
+            View.displayTable(Operations.INCOMPLETE_ORDER_COLUMNS, page.rows);
+        }
+
+        String entry = readEntry("Enter Order ID(s) to process (e.g. 12 or 12, 15-20, or 'before YYYY-MM-DD'): ").trim();
+        if(entry.matches("\\d+")) {
+            if(Operations.completeOrder(conn, session.employeeId, Long.parseLong(entry))) {
+                View.displayMessage("Order processed successfully.");
             }
             else {
                 View.displayError("You can only process your own incomplete orders.");
             }
+            return;
         }
+        completeOrders(conn, session.employeeId, entry);
     }
 
-    private static void monthlyRevenueReport(Connection conn) throws SQLException {
-        String month = readEntry("Enter Month (YYYY-MM): ") + "-01";
-        String sql = "SELECT SUM(Total_Amount) AS Revenue FROM \"Order\" WHERE Order_Date BETWEEN TO_DATE(?, 'YYYY-MM-DD') AND ADD_MONTHS(TO_DATE(?, 'YYYY-MM-DD'), 1)";
-        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, month);
-            pstmt.setString(2, month);
-            ResultSet rs = pstmt.executeQuery();
-            if(rs.next()) {
-                View.displayMessage("Monthly Revenue: " + rs.getDouble(1));
+    // Complete the orders given as IDs and ranges ("12, 15-20") or as "before YYYY-MM-DD" in one transaction
+    private static void completeOrders(Connection conn, int employeeId, String entry) throws SQLException {
+        Operations.BulkCompletion result;
+        try {
+            result = entry.toLowerCase().startsWith("before ")
+                    ? Operations.completeOrdersBefore(conn, employeeId, LocalDate.parse(entry.substring(7).trim()))
+                    : Operations.completeOrders(conn, employeeId, Operations.parseIdRanges(entry));
+        }
+        catch(DateTimeException | IllegalArgumentException e) {
+            View.displayBadInput("order IDs, ranges or 'before YYYY-MM-DD'", entry);
+            return;
+        }
+        if(scheduler != null) {
+            for(long orderId : result.completed) {
+                scheduler.completed(orderId);
+            }
+        }
+        View.displayMessage(result.completed.size() + " order(s) processed: " + result.completed);
+        if(!result.rejected.isEmpty()) {
+            View.displayError(result.rejected.size() + " rejected, not incomplete orders of yours: " + result.rejected);
+        }
+    }
+
+    // Hand the employee the next order by urgency and age, taking one over from a colleague when their own queue is empty
+    private static void processNextOrder(Connection conn, int employeeId) throws SQLException {
+        ArrayList<String[]> queue = scheduler.queue(employeeId);
+        if(!queue.isEmpty()) {
+            View.displayMessage("Your queue (urgent first, then oldest):");
+            View.displayTable(new String[]{"Order ID", "Type", "Order Date"}, queue);
+        }
+        String entry = readEntry("Press Enter for your next order, or enter Order IDs (e.g. 12, 15-20) or 'before YYYY-MM-DD' to complete several: ").trim();
+        if(!entry.isEmpty()) {
+            completeOrders(conn, employeeId, entry);
+            return;
+        }
+        FulfilmentScheduler.Job job = scheduler.next(conn, employeeId);
+        if(job == null) {
+            View.displayMessage("No orders are waiting at your pharmacy.");
+            return;
+        }
+        View.displayMessage("Next: " + job + (job.wasStolen() ? ", taken over from a colleague" : ""));
+        if(!readEntry("Complete it now? (y/n): ").trim().equalsIgnoreCase("y")) {
+            scheduler.requeue(employeeId, job);
+            View.displayMessage("Left in your queue.");
+        }
+        else {
+            boolean completed = Operations.completeOrder(conn, employeeId, job.orderId);
+            scheduler.completed(job.orderId);
+            if(completed) {
+                View.displayMessage("Order processed successfully.");
             }
             else {
-                View.displayMessage("No revenue data found.");
+                View.displayError("Order " + job.orderId + " is no longer an incomplete order of yours.");
             }
         }
     }
 
+    private static void monthlyRevenueReport(Connection conn) throws SQLException {
+        String month = readEntry("Enter Month (YYYY-MM): ");
+        LocalDate first;
+        try {
+            first = LocalDate.parse(month + "-01");
+        }
+        catch(DateTimeException e) {
+            View.displayBadInput("month as YYYY-MM", month);
+            return;
+        }
+        View.displayMessage("Monthly Revenue: " + Operations.monthlyRevenue(conn, month));
+        revenueBreakdown(conn, first, first.plusMonths(1));
+    }
+
     private static void annualRevenueReport(Connection conn) throws SQLException {
         String year = readEntry("Enter Year (YYYY): ");
-        String startDate = year + "-01-01";
-        String endDate = year + "-12-31";
-        String sql = "SELECT SUM(Total_Amount) AS Revenue FROM \"Order\" WHERE Order_Date BETWEEN TO_DATE(?, 'YYYY-MM-DD') AND TO_DATE(?, 'YYYY-MM-DD')";
-        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, startDate);
-            pstmt.setString(2, endDate);
-            ResultSet rs = pstmt.executeQuery();
-            if(rs.next()) {
-                View.displayMessage("Annual Revenue: " + rs.getDouble(1));
-            }
-            else {
-                View.displayMessage("No revenue data found.");
-            }
+        LocalDate first;
+        try {
+            first = LocalDate.of(Integer.parseInt(year), 1, 1);
+        }
+        catch(NumberFormatException | DateTimeException e) {
+            View.displayBadInput("year as YYYY", year);
+            return;
+        }
+        View.displayMessage("Annual Revenue: " + Operations.annualRevenue(conn, year));
+        revenueBreakdown(conn, first, first.plusYears(1));
+    }
+
+    private static void revenueBreakdown(Connection conn, LocalDate from, LocalDate to) throws SQLException {
+        ArrayList<String[]> rows = RevenueRollup.breakdown(conn, from, to);
+        if(!rows.isEmpty()) {
+            View.displayTable(RevenueRollup.BREAKDOWN_COLUMNS, rows);
         }
     }
 
     private static void viewExpiredStock(Connection conn) throws SQLException {
-        String sql = "SELECT Drug_Name, Pharmacy_ID, Batch_Number, Expiry_Date FROM Medicine WHERE Expiry_Date < SYSDATE";
-        try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            View.displayMessage("\nExpired Stock:");
-            ArrayList<String[]> rows = new ArrayList<>();
-            while(rs.next()) {
-                String expiryStr = (rs.getDate(4) != null) ? rs.getDate(4).toString() : "N/A";
-                rows.add(new String[]{
-                        rs.getString(1),
-                        String.valueOf(rs.getInt(2)),
-                        rs.getString(3),
-                        expiryStr
-                });
-            }
-            if(!rows.isEmpty()) {
-                View.displayTable(new String[]{"Drug Name", "Pharmacy ID", "Batch Number", "Expiry Date"}, rows);
+        View.displayMessage("\nExpired Stock:");
+        int count;
+        try(View.TableStream table = View.streamTable(Operations.EXPIRED_STOCK_COLUMNS)) {
+            if(expiry != null) {
+                expiry.expired(table);
             }
             else {
-                View.displayMessage("No expired stock found.");
+                Operations.expiredStock(conn, table);
+            }
+            count = table.rows();
+        }
+        if(count == 0) {
+            View.displayMessage("No expired stock found.");
+        }
+        if(expiry != null) {
+            View.displayMessage("\nExpiring within " + expiry.noticeDays() + " days:");
+            try(View.TableStream table = View.streamTable(ExpiryIndex.EXPIRING_COLUMNS)) {
+                expiry.expiringWithin(expiry.noticeDays(), table);
+                count = table.rows();
+            }
+            if(count == 0) {
+                View.displayMessage("No stock expiring soon.");
             }
         }
     }
 
     private static void topSoldDrugsReport(Connection conn) throws SQLException {
         View.displayMessage("\n--- Top 5 Most Sold Drugs Report ---");
-        String sql = "SELECT Drug_Name, SUM(Ordered_Quantity) AS Total_Sold " +
-                "FROM Ordered_Drugs od JOIN \"Order\" o ON od.Order_ID = o.Order_ID " +
-                "WHERE o.Status = 'complete' " +
-                "GROUP BY Drug_Name " +
-                "ORDER BY Total_Sold DESC " +
-                "FETCH FIRST 5 ROWS ONLY";
-        try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            ArrayList<String[]> rows = new ArrayList<>();
-            while(rs.next()) {
-                rows.add(new String[]{
-                        rs.getString(1),
-                        String.valueOf(rs.getInt(2))
-                });
-            }
-            if(!rows.isEmpty()) {
-                View.displayTable(new String[]{"Drug Name", "Total Sold"}, rows);
-            }
-            else {
-                View.displayMessage("No data found.");
-            }
+        int window = readWindow();
+        if(window < 0) {
+            return;
+        }
+        ArrayList<String[]> rows = Operations.topSoldDrugs(conn, 5, window);
+        if(!rows.isEmpty()) {
+            View.displayTable(Operations.TOP_DRUG_COLUMNS, rows);
+        }
+        else {
+            View.displayMessage("No data found.");
         }
     }
 
     private static void topCustomersReport(Connection conn) throws SQLException {
         View.displayMessage("\n--- Top 5 Customers by Spending Report ---");
-        String sql = "SELECT c.First_Name || ' ' || c.Last_Name AS Customer_Name, SUM(o.Total_Amount) AS Total_Spent " +
-                "FROM \"Order\" o JOIN Customer c ON o.Customer_SSN = c.SSN " +
-                "WHERE o.Status = 'complete' " +
-                "GROUP BY c.SSN, c.First_Name, c.Last_Name " +
-                "ORDER BY Total_Spent DESC " +
-                "FETCH FIRST 5 ROWS ONLY";
-        try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            ArrayList<String[]> rows = new ArrayList<>();
-            while(rs.next()) {
-                rows.add(new String[]{
-                        rs.getString(1),
-                        String.valueOf(rs.getDouble(2))
-                });
-            }
-            if(!rows.isEmpty()) {
-                View.displayTable(new String[]{"Customer Name", "Total Spent"}, rows);
-            }
-            else {
-                View.displayMessage("No data found.");
-            }
+        int window = readWindow();
+        if(window < 0) {
+            return;
+        }
+        ArrayList<String[]> rows = Operations.topCustomers(conn, 5, window);
+        if(!rows.isEmpty()) {
+            View.displayTable(Operations.TOP_CUSTOMER_COLUMNS, rows);
+        }
+        else {
+            View.displayMessage("No data found.");
         }
     }
 
     private static void topDoctorsReport(Connection conn) throws SQLException {
         View.displayMessage("\n--- Top 5 Doctors by Prescriptions Report ---");
-        String sql = "SELECT d.First_Name || ' ' || d.Last_Name AS Doctor_Name, COUNT(p.Prescription_ID) AS Prescription_Count " +
-                "FROM Prescription p JOIN Doctor d ON p.Doctor_ID = d.Doctor_ID " +
-                "GROUP BY d.Doctor_ID, d.First_Name, d.Last_Name " +
-                "ORDER BY Prescription_Count DESC " +
-                "FETCH FIRST 5 ROWS ONLY";
-        try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            ArrayList<String[]> rows = new ArrayList<>();
-            while(rs.next()) {
-                rows.add(new String[]{
-                        rs.getString(1),
-                        String.valueOf(rs.getInt(2))
-                });
-            }
-            if(!rows.isEmpty()) {
-                View.displayTable(new String[]{"Doctor Name", "Prescription Count"}, rows);
-            }
-            else {
-                View.displayMessage("No data found.");
-            }
+        int window = readWindow();
+        if(window < 0) {
+            return;
+        }
+        ArrayList<String[]> rows = Operations.topDoctors(conn, 5, window);
+        if(!rows.isEmpty()) {
+            View.displayTable(Operations.TOP_DOCTOR_COLUMNS, rows);
+        }
+        else {
+            View.displayMessage("No data found.");
         }
     }
 
     private static void lowStockReport(Connection conn) throws SQLException {
         View.displayMessage("\n--- Low Stock Medicines Report ---");
-        String sql = "SELECT Drug_Name, Pharmacy_ID, Batch_Number, Stock_Quantity " +
-                "FROM Medicine " +
-                "WHERE Stock_Quantity < 10 " +
-                "ORDER BY Stock_Quantity ASC";
-        try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
-            ArrayList<String[]> rows = new ArrayList<>();
-            while(rs.next()) {
-                rows.add(new String[]{
-                        rs.getString(1),
-                        String.valueOf(rs.getInt(2)),
-                        rs.getString(3),
-                        String.valueOf(rs.getInt(4))
-                });
-            }
-            if(!rows.isEmpty()) {
-                View.displayTable(new String[]{"Drug Name", "Pharmacy ID", "Batch Number", "Stock Quantity"}, rows);
+        int count;
+        try(View.TableStream table = View.streamTable(Operations.LOW_STOCK_COLUMNS)) {
+            if(lowStock != null) {
+                lowStock.lowStock(table);
             }
             else {
-                View.displayMessage("No low stock found.");
+                Operations.lowStock(conn, Integer.getInteger("opms.lowStock.threshold", 10), table);
+            }
+            count = table.rows();
+        }
+        if(count == 0) {
+            View.displayMessage("No low stock found.");
+        }
+    }
+
+    private static void dispatchStatsReport() {
+        View.displayMessage("\n--- Fulfilment Queue Statistics ---");
+        if(scheduler == null) {
+            View.displayMessage("The fulfilment scheduler is off (start with -Dopms.dispatch=true).");
+            return;
+        }
+        View.displayTable(FulfilmentScheduler.STATS_COLUMNS, scheduler.stats());
+    }
+
+    private static void dashboardReport() {
+        View.displayMessage("\n--- Dashboard ---");
+        try {
+            dashboard.run(Long.getLong("opms.dashboard.timeoutMillis", 10000), result -> {
+                View.displayMessage("\n" + result.title + " (" + result.millis + "ms)");
+                if(result.error != null) {
+                    View.displayError(result.error);
+                }
+                else if(result.rows.isEmpty()) {
+                    View.displayMessage("No data found.");
+                }
+                else {
+                    View.displayTable(result.columns, result.rows);
+                }
+            });
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Reads a report window in days: 0 for all time, -1 after reporting bad input
+    private static int readWindow() {
+        String input = readEntry("Window in days (7, 30, 365; blank for all time): ");
+        if(input.isEmpty()) {
+            return 0;
+        }
+        try {
+            int days = Integer.parseInt(input);
+            if(days > 0) {
+                return days;
             }
         }
+        catch(NumberFormatException e) {
+            // Reported below
+        }
+        View.displayBadInput("positive number of days", input);
+        return -1;
     }
 
     // Utility method to read user input
     static String readEntry(String prompt) {
+        View.displayPrompt(prompt);
+        System.out.flush();
+        return readLine();
+    }
+
+    // Reads one line of user input without a prompt
+    static String readLine() {
         try {
-            View.displayPrompt(prompt);
             StringBuffer buffer = new StringBuffer();
-            System.out.flush();
             int c = System.in.read();
             while(c != '\n' && c != -1) {
                 buffer.append((char)c);
@@ -820,27 +930,133 @@ public class OPMSDemo {
          * Display formatted table
          */
         public static void displayTable(String[] header, ArrayList<String[]> rows){
-            System.out.println();
-            int[] mx = new int[header.length];
-            for(int i = 0; i < header.length; i++) {
-                mx[i] = header[i].length();
+            try(TableStream table = new TableStream(header, Math.max(rows.size(), 1), 0)) {
+                for(String[] row : rows) {
+                    table.row(row);
+                }
+            }
+        }
+
+        /**
+         * Ask whether to show the next page; always yes when not running in a terminal
+         */
+        public static boolean askForMore() {
+            if(System.console() == null) {
+                return true;
+            }
+            System.out.print("-- more: Enter for the next page, q to stop --");
+            System.out.flush();
+            return !readLine().equalsIgnoreCase("q");
+        }
+
+        /**
+         * Table that is printed while its rows are still being fetched, see TableStream
+         */
+        public static TableStream streamTable(String[] header) {
+            boolean interactive = System.console() != null;
+            return new TableStream(header, TableStream.SAMPLE_ROWS, interactive ? TableStream.PAGE_ROWS : 0);
+        }
+
+        /**
+         * Prints rows as they arrive. Column widths come from the header and the first sampleRows rows,
+         * which are held back until the sample is full (or the table is closed); a later, wider value just
+         * pushes its row out of line. Output goes through one buffered writer that is flushed once per page;
+         * with pageRows > 0 the reader is asked to continue after every page and can stop the query there.
+         */
+        public static class TableStream implements Operations.RowSink, AutoCloseable {
+            static final int SAMPLE_ROWS = 100;
+            static final int PAGE_ROWS = Integer.getInteger("opms.pageSize", 40);
+
+            private final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false);
+            private final String[] header;
+            private final int[] widths;
+            private final int sampleRows;
+            private final int pageRows;
+            private final StringBuilder line = new StringBuilder();
+            private List<String[]> sample = new ArrayList<>();
+            private int rows;
+            private int onPage;
+            private boolean stopped;
+
+            TableStream(String[] header, int sampleRows, int pageRows) {
+                this.header = header;
+                this.widths = new int[header.length];
+                this.sampleRows = sampleRows;
+                this.pageRows = pageRows;
+                for(int i = 0; i < header.length; i++) {
+                    widths[i] = header[i].length();
+                }
+            }
+
+            @Override
+            public boolean row(String[] row) {
+                if(stopped) {
+                    return false;
+                }
+                rows++;
+                if(sample != null) {
+                    for(int i = 0; i < row.length && i < widths.length; i++) {
+                        widths[i] = Math.max(widths[i], (row[i] != null) ? row[i].length() : 0);
+                    }
+                    sample.add(row);
+                    if(sample.size() >= sampleRows) {
+                        printSample();
+                    }
+                    return !stopped;
+                }
+                print(row);
+                return !stopped;
+            }
+
+            /**
+             * Rows received so far
+             */
+            public int rows() {
+                return rows;
             }
-            for(String[] row : rows) {
-                for(int i = 0; i < row.length; i++) {
-                    int len = (row[i] != null) ? row[i].length() : 0;
-                    mx[i] = Math.max(mx[i], len);
+
+            /**
+             * Print whatever is still held back and flush
+             */
+            @Override
+            public void close() {
+                if(sample != null && !sample.isEmpty()) {
+                    printSample();
                 }
+                out.flush();
             }
-            for(int i = 0; i < header.length; i++) {
-                System.out.printf("%-" + mx[i] + "s  ", header[i]);
+
+            private void printSample() {
+                List<String[]> held = sample;
+                sample = null;
+                out.println();
+                print(header);
+                for(String[] row : held) {
+                    if(stopped) {
+                        break;
+                    }
+                    print(row);
+                }
+                // The first rows show as soon as the sample is in, even when no paging is done
+                out.flush();
             }
-            System.out.println();
-            for(String[] row : rows) {
-                for(int i = 0; i < row.length; i++) {
-                    String val = (row[i] != null) ? row[i] : "";
-                    System.out.printf("%-" + mx[i] + "s  ", val);
+
+            private void print(String[] cells) {
+                line.setLength(0);
+                for(int i = 0; i < cells.length; i++) {
+                    String val = (cells[i] != null) ? cells[i] : "";
+                    line.append(val);
+                    int pad = ((i < widths.length) ? widths[i] : val.length()) - val.length() + 2;
+                    for(int p = 0; p < pad; p++) {
+                        line.append(' ');
+                    }
+                }
+                out.println(line);
+                if(cells != header && pageRows > 0 && ++onPage == pageRows) {
+                    onPage = 0;
+                    out.flush();
+                    stopped = !askForMore();
                 }
-                System.out.println();
             }
         }
     }
@@ -0,0 +1,518 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+/**
+ * HTTP/JSON front end for the OPMS operations, serving any number of operators from one JVM.
+ *
+ * Every request runs on its own thread (a virtual thread on Java 21 and later, otherwise a cached pool)
+ * and borrows a connection from the shared pool for just that request. Logging in returns a bearer token
+ * (kept in a SessionStore, so checking it never touches the database);
+ * every route is tied to a console menu function and checked against OPMSDemo's role permissions on each call.
+ *
+ *   POST /customers                      register (public), returns a token like /login
+ *   POST /login                          {"role":"customer","ssn","password"} | {"role":"doctor","doctorId","phone"} |
+ *                                        {"role":"employee","employeeId","phone"} | {"role":"admin","key"}
+ *   POST /logout
+ *   GET  /prescriptions?limit=&cursor=   customer: own prescriptions, newest first
+ *   POST /prescriptions                  doctor: {"ssn","date","note","drug","quantity","refillLimit"}
+ *   POST /orders                         customer: {"prescriptionId","employeeId","date","type","lines":[...]} as in BatchRunner
+ *   GET  /orders/incomplete?limit=&cursor= employee: own incomplete orders, oldest first
+ *   POST /orders/{id}/complete           employee
+ *   POST /orders/complete                employee: {"orderIds":[...] or "12, 15-20"} or {"before":"YYYY-MM-DD"}; lists completed and rejected ids
+ *   POST /orders/next                    employee: dispatch the next order, urgent first (with -Dopms.dispatch=true)
+ *   POST /orders/{id}/release            employee: put a dispatched order back in the queue
+ *   GET  /reports/{monthly-revenue?month=YYYY-MM | annual-revenue?year=YYYY | expired-stock |
+ *                  top-drugs | top-customers | top-doctors (?n=&window=) | low-stock?threshold= (default reorder point) |
+ *                  dashboard?timeoutMillis= | dispatch}   admin
+ *
+ * Admin login needs the key set with -Dopms.server.adminKey; without it there is no admin access.
+ *
+ * Usage: java OPMSServer [--port 8080] [--migrate]
+ * The connection is configured with the same opms.* system properties as OPMSDemo.
+ */
+public class OPMSServer {
+    private static final int MAX_BODY = 1 << 20;
+    private static final int PUBLIC = -1; // Route needs no login
+    private static final int ANY_ROLE = -2; // Route needs a login but no particular function
+
+    interface Handler {
+        Object handle(Request request, Connection conn) throws SQLException;
+    }
+
+    private static class Route {
+        final String method;
+        final Pattern path;
+        final int function; // OPMSDemo menu function, PUBLIC or ANY_ROLE
+        final Handler handler;
+
+        Route(String method, String path, int function, Handler handler) {
+            this.method = method;
+            this.path = Pattern.compile(path);
+            this.function = function;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * One call: who made it, the query string, the JSON body and the matched path
+     */
+    static class Request {
+        final String token;
+        final SessionStore.Session session;
+        final Map<String, String> query;
+        final BatchRunner.Args body;
+        final Matcher path;
+        int status = 200;
+
+        Request(String token, SessionStore.Session session, Map<String, String> query, BatchRunner.Args body, Matcher path) {
+            this.token = token;
+            this.session = session;
+            this.query = query;
+            this.body = body;
+            this.path = path;
+        }
+
+        BatchRunner.Args query() {
+            return new BatchRunner.Args(new HashMap<>(query));
+        }
+    }
+
+    // Maps to an HTTP status other than 500
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final IdAllocator ids;
+    private final String adminKey = System.getProperty("opms.server.adminKey");
+    private final SessionStore sessions = SessionStore.fromSystemProperties();
+    private final List<Route> routes = new ArrayList<>();
+    private final Dashboard dashboard;
+    private final FulfilmentScheduler scheduler; // Null unless -Dopms.dispatch=true
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public OPMSServer(ConnectionPool pool, IdAllocator ids) throws SQLException {
+        this.pool = pool;
+        this.ids = ids;
+        this.dashboard = new Dashboard(pool, null, null);
+        this.scheduler = Boolean.getBoolean("opms.dispatch") ? new FulfilmentScheduler(pool) : null;
+
+        route("POST", "/customers", PUBLIC, (r, conn) -> {
+            BatchRunner.Args a = r.body;
+            Operations.registerCustomer(conn, a.text("ssn"), a.text("firstName"), a.text("lastName"), a.text("gender"),
+                    LocalDate.parse(a.text("dob")).toString(), a.text("phone"), a.text("password"), a.text("address"));
+            r.status = 201;
+            return signIn(new SessionStore.Session("customer", a.text("ssn"), -1, -1));
+        });
+        route("POST", "/login", PUBLIC, this::login);
+        route("POST", "/logout", ANY_ROLE, (r, conn) -> {
+            sessions.logout(r.token);
+            return Collections.singletonMap("loggedOut", true);
+        });
+        route("GET", "/prescriptions", 2, (r, conn) -> {
+            BatchRunner.Args q = r.query();
+            return page(Operations.PRESCRIPTION_COLUMNS, Operations.prescriptions(conn, r.session.ssn, q.integer("limit", 20), q.optional("cursor")));
+        });
+        route("POST", "/prescriptions", 4, (r, conn) -> {
+            BatchRunner.Args a = r.body;
+            long id = Operations.issuePrescription(conn, ids, r.session.doctorId, a.text("ssn"), a.date("date"), a.optional("note"),
+                    a.text("drug"), a.integer("quantity"), a.integer("refillLimit"));
+            r.status = 201;
+            return Collections.singletonMap("prescriptionId", id);
+        });
+        route("POST", "/orders", 3, (r, conn) -> {
+            r.body.values.put("ssn", r.session.ssn);
+            long id = (Long)BatchRunner.placeOrder(conn, ids, r.body);
+            if(scheduler != null) {
+                BatchRunner.Args a = r.body;
+                scheduler.submit(id, a.integer("employeeId"), (a.optional("type") == null) ? "normal" : a.text("type"), LocalDate.parse(a.date("date")));
+            }
+            r.status = 201;
+            return Collections.singletonMap("orderId", id);
+        });
+        route("GET", "/orders/incomplete", 5, (r, conn) -> {
+            BatchRunner.Args q = r.query();
+            return page(Operations.INCOMPLETE_ORDER_COLUMNS, Operations.incompleteOrders(conn, r.session.employeeId, q.integer("limit", 20), q.optional("cursor")));
+        });
+        route("POST", "/orders/(\\d+)/complete", 5, (r, conn) -> {
+            long orderId = Long.parseLong(r.path.group(1));
+            if(!Operations.completeOrder(conn, r.session.employeeId, orderId)) {
+                throw new HttpError(409, "Order " + orderId + " is not an incomplete order managed by you");
+            }
+            if(scheduler != null) {
+                scheduler.completed(orderId);
+            }
+            return Collections.singletonMap("orderId", orderId);
+        });
+        route("POST", "/orders/complete", 5, (r, conn) -> {
+            r.body.values.put("employeeId", r.session.employeeId);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = (Map<String, Object>)BatchRunner.completeOrders(conn, ids, r.body);
+            if(scheduler != null) {
+                for(Object orderId : (List<?>)result.get("completed")) {
+                    scheduler.completed((Long)orderId);
+                }
+            }
+            return result;
+        });
+        route("POST", "/orders/next", 5, (r, conn) -> {
+            FulfilmentScheduler.Job job = dispatcher().next(conn, r.session.employeeId);
+            if(job == null) {
+                return Collections.singletonMap("order", null);
+            }
+            Map<String, Object> order = new LinkedHashMap<>();
+            order.put("orderId", job.orderId);
+            order.put("type", job.urgent ? "urgent" : "normal");
+            order.put("date", job.orderDate.toString());
+            order.put("stolen", job.wasStolen());
+            return Collections.singletonMap("order", order);
+        });
+        route("POST", "/orders/(\\d+)/release", 5, (r, conn) -> {
+            long orderId = Long.parseLong(r.path.group(1));
+            if(!dispatcher().release(r.session.employeeId, orderId)) {
+                throw new HttpError(409, "Order " + orderId + " was not dispatched");
+            }
+            return Collections.singletonMap("orderId", orderId);
+        });
+        route("GET", "/reports/monthly-revenue", 6, (r, conn) -> {
+            YearMonth month = YearMonth.parse(r.query().text("month"));
+            return Collections.singletonMap("revenue", Operations.monthlyRevenue(conn, month.toString()));
+        });
+        route("GET", "/reports/expired-stock", 7, (r, conn) -> table(Operations.EXPIRED_STOCK_COLUMNS, Operations.expiredStock(conn)));
+        route("GET", "/reports/annual-revenue", 8, (r, conn) -> {
+            Year year = Year.parse(r.query().text("year"));
+            return Collections.singletonMap("revenue", Operations.annualRevenue(conn, year.toString()));
+        });
+        route("GET", "/reports/top-drugs", 9, (r, conn) -> {
+            BatchRunner.Args q = r.query();
+            return table(Operations.TOP_DRUG_COLUMNS, Operations.topSoldDrugs(conn, q.integer("n", 5), q.integer("window", 0)));
+        });
+        route("GET", "/reports/top-customers", 10, (r, conn) -> {
+            BatchRunner.Args q = r.query();
+            return table(Operations.TOP_CUSTOMER_COLUMNS, Operations.topCustomers(conn, q.integer("n", 5), q.integer("window", 0)));
+        });
+        route("GET", "/reports/top-doctors", 11, (r, conn) -> {
+            BatchRunner.Args q = r.query();
+            return table(Operations.TOP_DOCTOR_COLUMNS, Operations.topDoctors(conn, q.integer("n", 5), q.integer("window", 0)));
+        });
+        route("GET", "/reports/low-stock", 12, (r, conn) ->
+                table(Operations.LOW_STOCK_COLUMNS, Operations.lowStock(conn, r.query().integer("threshold", 10))));
+        route("GET", "/reports/dispatch", 14, (r, conn) -> table(FulfilmentScheduler.STATS_COLUMNS, dispatcher().stats()));
+        route("GET", "/reports/dashboard", 13, (r, conn) -> {
+            List<Map<String, Object>> panels = new ArrayList<>();
+            try {
+                for(Dashboard.Result result : dashboard.run(r.query().integer("timeoutMillis", 10000), result -> { })) {
+                    Map<String, Object> panel = new LinkedHashMap<>();
+                    panel.put("title", result.title);
+                    panel.put("millis", result.millis);
+                    if(result.error != null) {
+                        panel.put("error", result.error);
+                    }
+                    else {
+                        panel.putAll(table(result.columns, result.rows));
+                    }
+                    panels.add(panel);
+                }
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HttpError(503, "Interrupted");
+            }
+            return Collections.singletonMap("panels", panels);
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        boolean migrate = false;
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--migrate": migrate = true; break;
+                default:
+                    System.err.println("Usage: java OPMSServer [--port 8080] [--migrate]");
+                    System.exit(2);
+            }
+        }
+        ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user"), System.getProperty("opms.jdbc.password"));
+        ConnectionPool pool = new ConnectionPool(config);
+        if(migrate) {
+            try(Connection conn = pool.getConnection()) {
+                SchemaMigrations.migrate(conn, new File(System.getProperty("opms.migrations", SchemaMigrations.DEFAULT_DIRECTORY)));
+                RevenueRollup.rebuild(conn);
+            }
+        }
+        if(Boolean.getBoolean("opms.rankings")) {
+            Operations.useRankings(new TopRankings(pool));
+        }
+        if(Boolean.getBoolean("opms.entitlements")) {
+            OrderPlacement.useEntitlements(PrescriptionEntitlements.fromSystemProperties());
+        }
+        StockReservations.startSweeper(pool, Long.getLong("opms.hold.sweepMillis", 60000));
+        Metrics.start();
+        OPMSServer server = new OPMSServer(pool, new IdAllocator(pool));
+        server.start(new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            OPMSDemo.View.displayMessage("Connection pool: " + pool.getStats());
+            if(Metrics.ENABLED) {
+                OPMSDemo.View.displayTable(Metrics.REPORT_COLUMNS, Metrics.rows());
+            }
+            pool.close();
+        }));
+        OPMSDemo.View.displayMessage("Listening on port " + server.server.getAddress().getPort() + " (" + server.threadKind() + " threads)");
+    }
+
+    public void start(InetSocketAddress address) throws IOException {
+        executor = newRequestExecutor();
+        server = HttpServer.create(address, 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+        server.start();
+        sessions.startSweeper(pool, Long.getLong("opms.session.sweepMillis", 60000));
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        sessions.close();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void route(String method, String path, int function, Handler handler) {
+        routes.add(new Route(method, path, function, handler));
+    }
+
+    // One thread per request: virtual threads where the runtime has them, else a cached pool of platform threads
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "opms-http");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private String threadKind() {
+        return executor.getClass().getName().contains("ThreadPerTask") ? "virtual" : "platform";
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        int status;
+        Object result;
+        try {
+            Route route = null;
+            Matcher path = null;
+            boolean pathKnown = false;
+            for(Route r : routes) {
+                Matcher m = r.path.matcher(exchange.getRequestURI().getPath());
+                if(m.matches()) {
+                    pathKnown = true;
+                    if(r.method.equals(exchange.getRequestMethod())) {
+                        route = r;
+                        path = m;
+                        break;
+                    }
+                }
+            }
+            if(route == null) {
+                throw pathKnown ? new HttpError(405, "Method not allowed") : new HttpError(404, "Not found");
+            }
+
+            String token = bearerToken(exchange);
+            SessionStore.Session session = sessions.get(token);
+            if(route.function != PUBLIC) {
+                if(session == null) {
+                    throw new HttpError(401, "Log in first");
+                }
+                if(route.function != ANY_ROLE && !OPMSDemo.permitted(session.role, route.function)) {
+                    throw new HttpError(403, "Not open to the " + session.role + " role");
+                }
+            }
+            Request request = new Request(token, session, query(exchange.getRequestURI()), body(exchange), path);
+            Metrics.Scope scope = Metrics.operation("http." + route.method + " " + route.path.pattern());
+            try(Connection conn = pool.getConnection()) {
+                result = route.handler.handle(request, conn);
+            }
+            finally {
+                scope.close();
+            }
+            status = request.status;
+        }
+        catch(HttpError e) {
+            status = e.status;
+            result = error(e.getMessage());
+        }
+        catch(SQLTimeoutException e) {
+            status = 503;
+            result = error(e.getMessage());
+        }
+        catch(PrescriptionEntitlements.EntitlementException e) {
+            status = 403;
+            result = error(e.getMessage());
+        }
+        catch(OrderPlacement.InsufficientStockException | FefoAllocator.InsufficientStockException | SQLIntegrityConstraintViolationException e) {
+            status = 409;
+            result = error(e.getMessage());
+        }
+        catch(SQLException e) {
+            status = 500;
+            result = error(e.getMessage());
+        }
+        catch(IllegalArgumentException | DateTimeException | ArithmeticException e) {
+            // NumberFormatException is an IllegalArgumentException
+            status = 400;
+            result = error(e.getMessage());
+        }
+        catch(RuntimeException e) {
+            status = 500;
+            result = error(e.toString());
+        }
+        byte[] bytes = Json.write(result).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Object login(Request r, Connection conn) throws SQLException {
+        BatchRunner.Args a = r.body;
+        SessionStore.Session session;
+        switch(a.text("role")) {
+            case "customer":
+                session = Operations.customerLogin(conn, a.text("ssn"), a.text("password")) ? new SessionStore.Session("customer", a.text("ssn"), -1, -1) : null;
+                break;
+            case "doctor":
+                session = Operations.doctorLogin(conn, a.integer("doctorId"), a.text("phone")) ? new SessionStore.Session("doctor", null, a.integer("doctorId"), -1) : null;
+                break;
+            case "employee":
+                session = Operations.employeeLogin(conn, a.integer("employeeId"), a.text("phone")) ? new SessionStore.Session("employee", null, -1, a.integer("employeeId")) : null;
+                break;
+            case "admin":
+                // Constant-time comparison, so response times do not leak how much of the key matched
+                String key = a.text("key");
+                session = (adminKey != null && key != null
+                        && java.security.MessageDigest.isEqual(adminKey.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)))
+                        ? new SessionStore.Session("admin", null, -1, -1) : null;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown role " + a.text("role"));
+        }
+        if(session == null) {
+            throw new HttpError(401, "Invalid credentials");
+        }
+        return signIn(session);
+    }
+
+    private Map<String, Object> signIn(SessionStore.Session session) {
+        String token = sessions.open(session);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("token", token);
+        result.put("role", session.role);
+        return result;
+    }
+
+    private FulfilmentScheduler dispatcher() {
+        if(scheduler == null) {
+            throw new HttpError(404, "The fulfilment scheduler is off (start with -Dopms.dispatch=true)");
+        }
+        return scheduler;
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if(header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        return header.substring(7).trim();
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> query = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if(raw == null) {
+            return query;
+        }
+        for(String pair : raw.split("&")) {
+            if(pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            try {
+                String name = URLDecoder.decode((eq < 0) ? pair : pair.substring(0, eq), "UTF-8");
+                String value = (eq < 0) ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+                if(!value.isEmpty()) {
+                    query.put(name, value);
+                }
+            }
+            catch(UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return query;
+    }
+
+    private static BatchRunner.Args body(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try(InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[8192];
+            int n;
+            while((n = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+                if(buffer.size() > MAX_BODY) {
+                    throw new HttpError(413, "Request body too large");
+                }
+            }
+        }
+        String text = buffer.toString("UTF-8").trim();
+        if(text.isEmpty()) {
+            return new BatchRunner.Args(new HashMap<>());
+        }
+        Object value = Json.parse(text);
+        if(!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> values = (Map<String, Object>)value;
+        return new BatchRunner.Args(values);
+    }
+
+    private static Map<String, Object> table(String[] columns, List<String[]> rows) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("columns", columns);
+        result.put("rows", rows);
+        return result;
+    }
+
+    private static Map<String, Object> page(String[] columns, Page page) {
+        Map<String, Object> result = table(columns, page.rows);
+        result.put("nextCursor", page.nextCursor);
+        return result;
+    }
+
+    private static Map<String, Object> error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+}
@@ -0,0 +1,770 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * The database work behind each OPMSDemo menu entry, without any prompting or printing.
+ * The console reads input and displays the results; other callers (benchmarks, batch runs) use these directly.
+ * Table results are returned as display rows together with a matching *_COLUMNS header; the listings
+ * that can grow with the data can also stream their rows into a RowSink as they are fetched.
+ * Writes run in their own transaction, unless the connection already has one open (auto-commit off):
+ * then they join it and the caller commits, or rolls back when they throw.
+ */
+public class Operations {
+    public static final String[] PRESCRIPTION_COLUMNS = {"ID", "Date", "Note", "Doctor"};
+    public static final String[] INCOMPLETE_ORDER_COLUMNS = {"Order ID", "Date", "Total Amount", "Type", "Customer SSN", "Prescription ID"};
+    public static final String[] EXPIRED_STOCK_COLUMNS = {"Drug Name", "Pharmacy ID", "Batch Number", "Expiry Date"};
+    public static final String[] TOP_DRUG_COLUMNS = {"Drug Name", "Total Sold"};
+    public static final String[] TOP_CUSTOMER_COLUMNS = {"Customer Name", "Total Spent"};
+    public static final String[] TOP_DOCTOR_COLUMNS = {"Doctor Name", "Prescription Count"};
+    public static final String[] LOW_STOCK_COLUMNS = {"Drug Name", "Pharmacy ID", "Batch Number", "Stock Quantity"};
+
+    // Rows per round trip for the listings; drivers default to as few as 10
+    static final int FETCH_SIZE = Integer.getInteger("opms.fetchSize", 500);
+    // Order ids per statement of a bulk completion (Oracle allows 1000 expressions in an IN list)
+    private static final int COMPLETE_CHUNK = 512;
+    private static final int MAX_ID_RANGE = 100000;
+
+    // Listing queries; the paged variants add a keyset predicate and a row limit (see Page)
+    private static final String PRESCRIPTIONS = "SELECT p.Prescription_ID, p.Prescribed_Date, p.Note, d.First_Name || ' ' || d.Last_Name AS Doctor_Name " +
+            "FROM Prescription p JOIN Doctor d ON p.Doctor_ID = d.Doctor_ID WHERE p.Customer_SSN = ?";
+    private static final String INCOMPLETE_ORDERS = "SELECT Order_ID, Order_Date, Total_Amount, Type, Customer_SSN, Prescription_ID " +
+            "FROM \"Order\" WHERE Employee_ID = ? AND Status = 'incomplete'";
+
+    private static volatile TopRankings rankings;
+    private static volatile LowStockMonitor lowStockMonitor;
+
+    /**
+     * Outcome of a bulk completion: the orders completed, and those that were not incomplete orders of the employee
+     */
+    public static class BulkCompletion {
+        public final List<Long> completed;
+        public final List<Long> rejected;
+
+        BulkCompletion(List<Long> completed, List<Long> rejected) {
+            this.completed = completed;
+            this.rejected = rejected;
+        }
+    }
+
+    /**
+     * Receives listing rows one at a time as they are fetched; returning false stops the query early
+     */
+    public interface RowSink {
+        boolean row(String[] row);
+    }
+
+    private Operations() {
+    }
+
+    /**
+     * Serve the top drugs/customers/doctors reports from in-memory rankings and keep them up to date
+     */
+    public static void useRankings(TopRankings topRankings) {
+        rankings = topRankings;
+    }
+
+    /**
+     * Keep the given monitor's live low-stock set in step with the reorder points stored by setReorderPoint
+     */
+    public static void useLowStockMonitor(LowStockMonitor monitor) {
+        lowStockMonitor = monitor;
+    }
+
+    public static boolean customerLogin(Connection conn, String ssn, String password) throws SQLException {
+        String sql = StatementCache.register("customerLogin", "SELECT 1 FROM Customer WHERE SSN = ? AND Password = ?");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, ssn);
+            pstmt.setString(2, password);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next();
+        }
+    }
+
+    public static boolean doctorLogin(Connection conn, int doctorId, String phone) throws SQLException {
+        String sql = StatementCache.register("doctorLogin", "SELECT 1 FROM Doctor WHERE Doctor_ID = ? AND Phone = ?");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, doctorId);
+            pstmt.setString(2, phone);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next();
+        }
+    }
+
+    public static boolean employeeLogin(Connection conn, int employeeId, String phone) throws SQLException {
+        String sql = StatementCache.register("employeeLogin", "SELECT 1 FROM Employee WHERE Employee_ID = ? AND Phone = ?");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, employeeId);
+            pstmt.setString(2, phone);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next();
+        }
+    }
+
+    /**
+     * Insert a new customer; dob is YYYY-MM-DD
+     */
+    public static void registerCustomer(Connection conn, String ssn, String firstName, String lastName, String gender,
+                                        String dob, String phone, String password, String address) throws SQLException {
+        String sql = StatementCache.register("registerCustomer",
+                "INSERT INTO Customer (SSN, First_Name, Last_Name, Gender, Date_of_Birth, Phone, Password, Address) VALUES (?, ?, ?, ?, TO_DATE(?, 'YYYY-MM-DD'), ?, ?, ?)");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, ssn);
+            pstmt.setString(2, firstName);
+            pstmt.setString(3, lastName);
+            pstmt.setString(4, gender);
+            pstmt.setString(5, dob);
+            pstmt.setString(6, phone);
+            pstmt.setString(7, password);
+            pstmt.setString(8, address);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Prescriptions of one customer, see PRESCRIPTION_COLUMNS
+     */
+    public static ArrayList<String[]> prescriptions(Connection conn, String ssn) throws SQLException {
+        ArrayList<String[]> rows = new ArrayList<>();
+        prescriptions(conn, ssn, rows::add);
+        return rows;
+    }
+
+    /**
+     * Stream the prescriptions of one customer into sink
+     */
+    public static void prescriptions(Connection conn, String ssn, RowSink sink) throws SQLException {
+        String sql = StatementCache.register("prescriptions", PRESCRIPTIONS + " ORDER BY p.Prescribed_Date DESC, p.Prescription_ID DESC");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, ssn);
+            pstmt.setFetchSize(FETCH_SIZE);
+            ResultSet rs = pstmt.executeQuery();
+            while(rs.next()) {
+                if(!sink.row(prescriptionRow(rs))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * One page of a customer's prescriptions, newest first. cursor is the previous page's nextCursor, null for the first page.
+     */
+    public static Page prescriptions(Connection conn, String ssn, int limit, String cursor) throws SQLException {
+        Page.Key after = Page.decode("prescriptions", cursor);
+        String sql = StatementCache.register((after != null) ? "prescriptionsNextPage" : "prescriptionsFirstPage", PRESCRIPTIONS +
+                ((after != null) ? " AND " + Page.after("p.Prescribed_Date", "p.Prescription_ID", true) : "") +
+                " ORDER BY p.Prescribed_Date DESC, p.Prescription_ID DESC FETCH FIRST ? ROWS ONLY");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            pstmt.setString(index++, ssn);
+            if(after != null) {
+                index = Page.bindAfter(pstmt, index, after);
+            }
+            pstmt.setInt(index, Page.checkLimit(limit) + 1);
+            ResultSet rs = pstmt.executeQuery();
+            ArrayList<String[]> rows = new ArrayList<>();
+            Page.Key last = null;
+            while(rs.next()) {
+                if(rows.size() == limit) {
+                    return new Page(rows, Page.encode("prescriptions", last));
+                }
+                rows.add(prescriptionRow(rs));
+                last = new Page.Key(rs.getTimestamp(2), rs.getLong(1));
+            }
+            return new Page(rows, null);
+        }
+    }
+
+    private static String[] prescriptionRow(ResultSet rs) throws SQLException {
+        String dateStr = (rs.getDate(2) != null) ? rs.getDate(2).toString() : "N/A";
+        String noteStr = rs.getString(3) != null ? rs.getString(3) : "N/A";
+        String doctorName = rs.getString(4) != null ? rs.getString(4) : "N/A";
+        return new String[]{
+                String.valueOf(rs.getInt(1)),
+                dateStr,
+                noteStr,
+                doctorName
+        };
+    }
+
+    /**
+     * Write a prescription with one prescribed drug in a single transaction and return its Prescription_ID
+     */
+    public static long issuePrescription(Connection conn, IdAllocator ids, int doctorId, String ssn, String prescribedDate, String note,
+                                         String drugName, int quantity, int refillLimit) throws SQLException {
+        long prescriptionId = ids.next("Prescription");
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            String insertPres = StatementCache.register("insertPrescription",
+                    "INSERT INTO Prescription (PRESCRIPTION_ID, Prescribed_Date, Note, Customer_SSN, Doctor_ID) VALUES (?, TO_DATE(?, 'YYYY-MM-DD'), ?, ?, ?)");
+            try(PreparedStatement pstmt = conn.prepareStatement(insertPres)) {
+                pstmt.setLong(1, prescriptionId);
+                pstmt.setString(2, prescribedDate);
+                pstmt.setString(3, note);
+                pstmt.setString(4, ssn);
+                pstmt.setInt(5, doctorId);
+                pstmt.executeUpdate();
+            }
+            String insertDrug = StatementCache.register("insertPrescribedDrug",
+                    "INSERT INTO Prescribed_Drugs (Prescription_ID, Drug_Name, Prescribed_Quantity, Refill_Limit) VALUES (?, ?, ?, ?)");
+            try(PreparedStatement pstmt = conn.prepareStatement(insertDrug)) {
+                pstmt.setLong(1, prescriptionId);
+                pstmt.setString(2, drugName);
+                pstmt.setInt(3, quantity);
+                pstmt.setInt(4, refillLimit);
+                pstmt.executeUpdate();
+            }
+            if(autoCommit) {
+                conn.commit();
+            }
+        }
+        catch(SQLException | RuntimeException e) {
+            if(autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        PrescriptionEntitlements entitlements = OrderPlacement.entitlements();
+        if(entitlements != null) {
+            entitlements.invalidate(ssn);
+        }
+        TopRankings topRankings = rankings;
+        if(topRankings != null) {
+            if(autoCommit) {
+                topRankings.prescriptionIssued(conn, doctorId, prescribedDate);
+            }
+            else {
+                // Not committed yet and may still be rolled back by the caller
+                topRankings.invalidate();
+            }
+        }
+        return prescriptionId;
+    }
+
+    /**
+     * Incomplete orders managed by one employee, see INCOMPLETE_ORDER_COLUMNS
+     */
+    public static ArrayList<String[]> incompleteOrders(Connection conn, int employeeId) throws SQLException {
+        ArrayList<String[]> rows = new ArrayList<>();
+        incompleteOrders(conn, employeeId, rows::add);
+        return rows;
+    }
+
+    /**
+     * Stream the incomplete orders managed by one employee into sink
+     */
+    public static void incompleteOrders(Connection conn, int employeeId, RowSink sink) throws SQLException {
+        String sql = StatementCache.register("incompleteOrders", INCOMPLETE_ORDERS + " ORDER BY Order_Date, Order_ID");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, employeeId);
+            pstmt.setFetchSize(FETCH_SIZE);
+            ResultSet rs = pstmt.executeQuery();
+            while(rs.next()) {
+                if(!sink.row(incompleteOrderRow(rs))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * One page of an employee's incomplete orders, oldest first. cursor is the previous page's nextCursor, null for the first page.
+     */
+    public static Page incompleteOrders(Connection conn, int employeeId, int limit, String cursor) throws SQLException {
+        Page.Key after = Page.decode("incompleteOrders", cursor);
+        String sql = StatementCache.register((after != null) ? "incompleteOrdersNextPage" : "incompleteOrdersFirstPage", INCOMPLETE_ORDERS +
+                ((after != null) ? " AND " + Page.after("Order_Date", "Order_ID", false) : "") +
+                " ORDER BY Order_Date, Order_ID FETCH FIRST ? ROWS ONLY");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            pstmt.setInt(index++, employeeId);
+            if(after != null) {
+                index = Page.bindAfter(pstmt, index, after);
+            }
+            pstmt.setInt(index, Page.checkLimit(limit) + 1);
+            ResultSet rs = pstmt.executeQuery();
+            ArrayList<String[]> rows = new ArrayList<>();
+            Page.Key last = null;
+            while(rs.next()) {
+                if(rows.size() == limit) {
+                    return new Page(rows, Page.encode("incompleteOrders", last));
+                }
+                rows.add(incompleteOrderRow(rs));
+                last = new Page.Key(rs.getTimestamp(2), rs.getLong(1));
+            }
+            return new Page(rows, null);
+        }
+    }
+
+    private static String[] incompleteOrderRow(ResultSet rs) throws SQLException {
+        String dateStr = (rs.getDate(2) != null) ? rs.getDate(2).toString() : "N/A";
+        return new String[]{
+                String.valueOf(rs.getLong(1)),
+                dateStr,
+                String.valueOf(rs.getDouble(3)),
+                rs.getString(4),
+                rs.getString(5),
+                String.valueOf(rs.getInt(6))
+        };
+    }
+
+    /**
+     * Mark an order complete and count it in the revenue rollup. The ownership and status checks are part
+     * of the update itself, so false means the order is not an incomplete order managed by this employee.
+     */
+    public static boolean completeOrder(Connection conn, int employeeId, long orderId) throws SQLException {
+        String sql = StatementCache.register("completeOrder", "UPDATE \"Order\" SET Status = 'complete' WHERE Order_ID = ? AND Employee_ID = ? AND Status = 'incomplete'");
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        boolean completed;
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, orderId);
+            pstmt.setInt(2, employeeId);
+            completed = pstmt.executeUpdate() > 0;
+            if(completed) {
+                RevenueRollup.orderCompleted(conn, orderId);
+            }
+            if(autoCommit) {
+                conn.commit();
+            }
+        }
+        catch(SQLException | RuntimeException e) {
+            if(autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        TopRankings topRankings = rankings;
+        if(completed && topRankings != null) {
+            if(autoCommit) {
+                topRankings.orderCompleted(conn, orderId);
+            }
+            else {
+                topRankings.invalidate();
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Complete many orders of one employee in one transaction. Each chunk of ids is locked and checked with one
+     * query and flipped with one update; the revenue rollup gets one change per order day and type.
+     * Ids that are not incomplete orders managed by this employee are rejected, the rest still complete.
+     */
+    public static BulkCompletion completeOrders(Connection conn, int employeeId, Collection<Long> orderIds) throws SQLException {
+        return completeOrders(conn, employeeId, orderIds, true);
+    }
+
+    // With rank unset the caller counts the completed orders towards the rankings once its own transaction is done
+    private static BulkCompletion completeOrders(Connection conn, int employeeId, Collection<Long> orderIds, boolean rank) throws SQLException {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(orderIds));
+        List<Long> completed = new ArrayList<>();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for(int from = 0; from < ids.size(); from += COMPLETE_CHUNK) {
+                completeChunk(conn, employeeId, ids.subList(from, Math.min(ids.size(), from + COMPLETE_CHUNK)), completed);
+            }
+            if(autoCommit) {
+                conn.commit();
+            }
+        }
+        catch(SQLException | RuntimeException e) {
+            if(autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        if(rank) {
+            rankCompleted(conn, autoCommit, completed);
+        }
+        List<Long> rejected = new ArrayList<>(ids);
+        rejected.removeAll(new HashSet<>(completed));
+        return new BulkCompletion(completed, rejected);
+    }
+
+    /**
+     * Complete every incomplete order of an employee dated before a day, in one transaction
+     */
+    public static BulkCompletion completeOrdersBefore(Connection conn, int employeeId, LocalDate before) throws SQLException {
+        String sql = StatementCache.register("incompleteOrdersBefore",
+                "SELECT Order_ID FROM \"Order\" WHERE Employee_ID = ? AND Status = 'incomplete' AND Order_Date < ?");
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        BulkCompletion result;
+        try {
+            List<Long> ids = new ArrayList<>();
+            try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, employeeId);
+                pstmt.setDate(2, java.sql.Date.valueOf(before));
+                pstmt.setFetchSize(FETCH_SIZE);
+                ResultSet rs = pstmt.executeQuery();
+                while(rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+            result = completeOrders(conn, employeeId, ids, false);
+            if(autoCommit) {
+                conn.commit();
+            }
+        }
+        catch(SQLException | RuntimeException e) {
+            if(autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        rankCompleted(conn, autoCommit, result.completed);
+        return result;
+    }
+
+    // Count committed completions towards the rankings in a few queries; a caller's transaction may still roll back
+    private static void rankCompleted(Connection conn, boolean committed, List<Long> completed) {
+        TopRankings topRankings = rankings;
+        if(completed.isEmpty() || topRankings == null) {
+            return;
+        }
+        if(committed) {
+            topRankings.ordersCompleted(conn, completed);
+        }
+        else {
+            topRankings.invalidate();
+        }
+    }
+
+    /**
+     * Order ids written as a list of ids and ranges, e.g. "12, 15-20"
+     */
+    public static List<Long> parseIdRanges(String text) {
+        List<Long> ids = new ArrayList<>();
+        for(String part : text.split(",")) {
+            part = part.trim();
+            if(part.isEmpty()) {
+                continue;
+            }
+            int dash = part.indexOf('-', 1);
+            if(dash < 0) {
+                ids.add(Long.parseLong(part));
+                continue;
+            }
+            long first = Long.parseLong(part.substring(0, dash).trim());
+            long last = Long.parseLong(part.substring(dash + 1).trim());
+            if(last < first || last - first >= MAX_ID_RANGE) {
+                throw new IllegalArgumentException("Invalid id range " + part);
+            }
+            for(long id = first; id <= last; id++) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    // Lock and check one chunk, flip it with one update and roll the completed orders up per day and type
+    private static void completeChunk(Connection conn, int employeeId, List<Long> chunk, List<Long> completed) throws SQLException {
+        // Padded to a power of two with the last id, so only a handful of distinct statements reach the cache
+        int slots = (chunk.size() == 1) ? 1 : Integer.highestOneBit(chunk.size() - 1) << 1;
+        String in = String.join(", ", Collections.nCopies(slots, "?"));
+        String select = "SELECT Order_ID, TRUNC(Order_Date), Type, Total_Amount FROM \"Order\" " +
+                "WHERE Employee_ID = ? AND Status = 'incomplete' AND Order_ID IN (" + in + ") FOR UPDATE";
+        String update = "UPDATE \"Order\" SET Status = 'complete' WHERE Employee_ID = ? AND Status = 'incomplete' AND Order_ID IN (" + in + ")";
+        Map<String, double[]> rollup = new LinkedHashMap<>(); // "day|type" -> {orders, amount}
+        List<Long> eligible = new ArrayList<>();
+        try(PreparedStatement pstmt = conn.prepareStatement(select)) {
+            bindChunk(pstmt, employeeId, chunk, slots);
+            ResultSet rs = pstmt.executeQuery();
+            while(rs.next()) {
+                eligible.add(rs.getLong(1));
+                double[] sums = rollup.computeIfAbsent(rs.getDate(2) + "|" + rs.getString(3), k -> new double[2]);
+                sums[0]++;
+                sums[1] += rs.getDouble(4);
+            }
+        }
+        if(eligible.isEmpty()) {
+            return;
+        }
+        try(PreparedStatement pstmt = conn.prepareStatement(update)) {
+            bindChunk(pstmt, employeeId, chunk, slots);
+            int updated = pstmt.executeUpdate();
+            if(updated != eligible.size()) {
+                // The rows were locked above, so this only happens if something bypassed the lock
+                throw new SQLException("Completed " + updated + " orders, expected " + eligible.size());
+            }
+        }
+        for(Map.Entry<String, double[]> e : rollup.entrySet()) {
+            String[] key = e.getKey().split("\\|");
+            RevenueRollup.ordersCompleted(conn, java.sql.Date.valueOf(key[0]), employeeId, key[1], (int)e.getValue()[0], e.getValue()[1]);
+        }
+        completed.addAll(eligible);
+    }
+
+    private static void bindChunk(PreparedStatement pstmt, int employeeId, List<Long> chunk, int slots) throws SQLException {
+        pstmt.setInt(1, employeeId);
+        for(int i = 0; i < slots; i++) {
+            pstmt.setLong(i + 2, chunk.get(Math.min(i, chunk.size() - 1)));
+        }
+    }
+
+    /**
+     * Revenue of one month; month is YYYY-MM
+     */
+    public static double monthlyRevenue(Connection conn, String month) throws SQLException {
+        LocalDate first = LocalDate.parse(month + "-01");
+        return RevenueRollup.revenue(conn, first, first.plusMonths(1));
+    }
+
+    /**
+     * Revenue of one calendar year; year is YYYY
+     */
+    public static double annualRevenue(Connection conn, String year) throws SQLException {
+        LocalDate first = LocalDate.of(Integer.parseInt(year), 1, 1);
+        return RevenueRollup.revenue(conn, first, first.plusYears(1));
+    }
+
+    /**
+     * Batches past their expiry date, see EXPIRED_STOCK_COLUMNS
+     */
+    public static ArrayList<String[]> expiredStock(Connection conn) throws SQLException {
+        ArrayList<String[]> rows = new ArrayList<>();
+        expiredStock(conn, rows::add);
+        return rows;
+    }
+
+    /**
+     * Stream the expired batches into sink
+     */
+    public static void expiredStock(Connection conn, RowSink sink) throws SQLException {
+        String sql = "SELECT Drug_Name, Pharmacy_ID, Batch_Number, Expiry_Date FROM Medicine WHERE Expiry_Date < SYSDATE";
+        try(Statement stmt = conn.createStatement()) {
+            stmt.setFetchSize(FETCH_SIZE);
+            ResultSet rs = stmt.executeQuery(sql);
+            while(rs.next()) {
+                String expiryStr = (rs.getDate(4) != null) ? rs.getDate(4).toString() : "N/A";
+                boolean more = sink.row(new String[]{
+                        rs.getString(1),
+                        String.valueOf(rs.getInt(2)),
+                        rs.getString(3),
+                        expiryStr
+                });
+                if(!more) {
+                    break;
+                }
+            }
+        }
+    }
+
+    public static ArrayList<String[]> topSoldDrugs(Connection conn) throws SQLException {
+        return topSoldDrugs(conn, 5, 0);
+    }
+
+    /**
+     * The n drugs with the most units in completed orders of the last windowDays days (0 for all time),
+     * see TOP_DRUG_COLUMNS
+     */
+    public static ArrayList<String[]> topSoldDrugs(Connection conn, int n, int windowDays) throws SQLException {
+        TopRankings topRankings = rankings;
+        if(topRankings != null && TopRankings.supports(windowDays)) {
+            return topRankings.top(TopRankings.Board.DRUGS, n, windowDays);
+        }
+        String sql = "SELECT Drug_Name, SUM(Ordered_Quantity) AS Total_Sold " +
+                "FROM Ordered_Drugs od JOIN \"Order\" o ON od.Order_ID = o.Order_ID " +
+                "WHERE o.Status = 'complete' " +
+                ((windowDays > 0) ? "AND o.Order_Date >= ? " : "") +
+                "GROUP BY Drug_Name " +
+                "ORDER BY Total_Sold DESC " +
+                "FETCH FIRST ? ROWS ONLY";
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            bindWindow(pstmt, n, windowDays);
+            ResultSet rs = pstmt.executeQuery();
+            ArrayList<String[]> rows = new ArrayList<>();
+            while(rs.next()) {
+                rows.add(new String[]{
+                        rs.getString(1),
+                        String.valueOf(rs.getInt(2))
+                });
+            }
+            return rows;
+        }
+    }
+
+    public static ArrayList<String[]> topCustomers(Connection conn) throws SQLException {
+        return topCustomers(conn, 5, 0);
+    }
+
+    /**
+     * The n customers with the highest completed order totals of the last windowDays days (0 for all time),
+     * see TOP_CUSTOMER_COLUMNS
+     */
+    public static ArrayList<String[]> topCustomers(Connection conn, int n, int windowDays) throws SQLException {
+        TopRankings topRankings = rankings;
+        if(topRankings != null && TopRankings.supports(windowDays)) {
+            return topRankings.top(TopRankings.Board.CUSTOMERS, n, windowDays);
+        }
+        String sql = "SELECT c.First_Name || ' ' || c.Last_Name AS Customer_Name, SUM(o.Total_Amount) AS Total_Spent " +
+                "FROM \"Order\" o JOIN Customer c ON o.Customer_SSN = c.SSN " +
+                "WHERE o.Status = 'complete' " +
+                ((windowDays > 0) ? "AND o.Order_Date >= ? " : "") +
+                "GROUP BY c.SSN, c.First_Name, c.Last_Name " +
+                "ORDER BY Total_Spent DESC " +
+                "FETCH FIRST ? ROWS ONLY";
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            bindWindow(pstmt, n, windowDays);
+            ResultSet rs = pstmt.executeQuery();
+            ArrayList<String[]> rows = new ArrayList<>();
+            while(rs.next()) {
+                rows.add(new String[]{
+                        rs.getString(1),
+                        String.valueOf(rs.getDouble(2))
+                });
+            }
+            return rows;
+        }
+    }
+
+    public static ArrayList<String[]> topDoctors(Connection conn) throws SQLException {
+        return topDoctors(conn, 5, 0);
+    }
+
+    /**
+     * The n doctors who issued the most prescriptions in the last windowDays days (0 for all time),
+     * see TOP_DOCTOR_COLUMNS
+     */
+    public static ArrayList<String[]> topDoctors(Connection conn, int n, int windowDays) throws SQLException {
+        TopRankings topRankings = rankings;
+        if(topRankings != null && TopRankings.supports(windowDays)) {
+            return topRankings.top(TopRankings.Board.DOCTORS, n, windowDays);
+        }
+        String sql = "SELECT d.First_Name || ' ' || d.Last_Name AS Doctor_Name, COUNT(p.Prescription_ID) AS Prescription_Count " +
+                "FROM Prescription p JOIN Doctor d ON p.Doctor_ID = d.Doctor_ID " +
+                ((windowDays > 0) ? "WHERE p.Prescribed_Date >= ? " : "") +
+                "GROUP BY d.Doctor_ID, d.First_Name, d.Last_Name " +
+                "ORDER BY Prescription_Count DESC " +
+                "FETCH FIRST ? ROWS ONLY";
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            bindWindow(pstmt, n, windowDays);
+            ResultSet rs = pstmt.executeQuery();
+            ArrayList<String[]> rows = new ArrayList<>();
+            while(rs.next()) {
+                rows.add(new String[]{
+                        rs.getString(1),
+                        String.valueOf(rs.getInt(2))
+                });
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Batches with fewer than threshold units in stock, lowest first, see LOW_STOCK_COLUMNS
+     */
+    public static ArrayList<String[]> lowStock(Connection conn, int defaultThreshold) throws SQLException {
+        ArrayList<String[]> rows = new ArrayList<>();
+        lowStock(conn, defaultThreshold, rows::add);
+        return rows;
+    }
+
+    /**
+     * Stream the batches below their reorder point into sink, lowest first.
+     * The point is the most specific Reorder_Point row (drug at the pharmacy, drug, pharmacy), else defaultThreshold.
+     */
+    public static void lowStock(Connection conn, int defaultThreshold, RowSink sink) throws SQLException {
+        String sql = StatementCache.register("lowStock", "SELECT m.Drug_Name, m.Pharmacy_ID, m.Batch_Number, m.Stock_Quantity " +
+                "FROM Medicine m " +
+                "LEFT JOIN Reorder_Point dp ON dp.Drug_Name = m.Drug_Name AND dp.Pharmacy_ID = m.Pharmacy_ID " +
+                "LEFT JOIN Reorder_Point d ON d.Drug_Name = m.Drug_Name AND d.Pharmacy_ID IS NULL " +
+                "LEFT JOIN Reorder_Point p ON p.Drug_Name IS NULL AND p.Pharmacy_ID = m.Pharmacy_ID " +
+                "WHERE m.Stock_Quantity < COALESCE(dp.Threshold, d.Threshold, p.Threshold, ?) " +
+                "ORDER BY m.Stock_Quantity ASC");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, defaultThreshold);
+            pstmt.setFetchSize(FETCH_SIZE);
+            ResultSet rs = pstmt.executeQuery();
+            while(rs.next()) {
+                boolean more = sink.row(new String[]{
+                        rs.getString(1),
+                        String.valueOf(rs.getInt(2)),
+                        rs.getString(3),
+                        String.valueOf(rs.getInt(4))
+                });
+                if(!more) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Store the reorder point of a drug at a pharmacy, of a drug everywhere (pharmacyId null) or of everything at
+     * a pharmacy (drugName null); a null threshold removes it
+     */
+    public static void setReorderPoint(Connection conn, String drugName, Integer pharmacyId, Integer threshold) throws SQLException {
+        if(drugName == null && pharmacyId == null) {
+            throw new IllegalArgumentException("A reorder point needs a drug, a pharmacy or both");
+        }
+        storeReorderPoint(conn, drugName, pharmacyId, threshold);
+        LowStockMonitor monitor = lowStockMonitor;
+        if(monitor != null) {
+            monitor.reorderPointChanged(drugName, pharmacyId, threshold);
+        }
+    }
+
+    private static void storeReorderPoint(Connection conn, String drugName, Integer pharmacyId, Integer threshold) throws SQLException {
+        String key = " WHERE Drug_Name " + ((drugName != null) ? "= ?" : "IS NULL") + " AND Pharmacy_ID " + ((pharmacyId != null) ? "= ?" : "IS NULL");
+        if(threshold == null) {
+            try(PreparedStatement pstmt = conn.prepareStatement("DELETE FROM Reorder_Point" + key)) {
+                bindReorderKey(pstmt, 1, drugName, pharmacyId);
+                pstmt.executeUpdate();
+            }
+            return;
+        }
+        try(PreparedStatement pstmt = conn.prepareStatement("UPDATE Reorder_Point SET Threshold = ?" + key)) {
+            pstmt.setInt(1, threshold);
+            bindReorderKey(pstmt, 2, drugName, pharmacyId);
+            if(pstmt.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try(PreparedStatement pstmt = conn.prepareStatement("INSERT INTO Reorder_Point (Threshold, Drug_Name, Pharmacy_ID) VALUES (?, ?, ?)")) {
+            pstmt.setInt(1, threshold);
+            pstmt.setString(2, drugName);
+            if(pharmacyId != null) {
+                pstmt.setInt(3, pharmacyId);
+            }
+            else {
+                pstmt.setNull(3, Types.NUMERIC);
+            }
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static void bindReorderKey(PreparedStatement pstmt, int index, String drugName, Integer pharmacyId) throws SQLException {
+        if(drugName != null) {
+            pstmt.setString(index++, drugName);
+        }
+        if(pharmacyId != null) {
+            pstmt.setInt(index, pharmacyId);
+        }
+    }
+
+    // Binds the window start (the last windowDays days, today included) when there is one, then the row limit
+    private static void bindWindow(PreparedStatement pstmt, int n, int windowDays) throws SQLException {
+        int index = 1;
+        if(windowDays > 0) {
+            pstmt.setDate(index++, java.sql.Date.valueOf(LocalDate.now().minusDays(windowDays - 1)));
+        }
+        pstmt.setInt(index, n);
+    }
+}
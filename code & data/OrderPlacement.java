@@ -0,0 +1,242 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Places an order with any number of drug lines in a single transaction.
+ * The total is computed up front, so the order costs the same round trips regardless of line count:
+ * one header insert, one revenue rollup update (see RevenueRollup), one stock reservation batch (see StockReservations),
+ * one Ordered_Drugs insert batch and the commit. With PrescriptionEntitlements installed, the lines are checked
+ * against the prescription's quantities and refills from memory first.
+ */
+public class OrderPlacement {
+    private static volatile PrescriptionEntitlements entitlements;
+
+    private OrderPlacement() {
+    }
+
+    /**
+     * Check every order against its prescription with the given cache (null places orders unchecked)
+     */
+    public static void useEntitlements(PrescriptionEntitlements cache) {
+        entitlements = cache;
+    }
+
+    static PrescriptionEntitlements entitlements() {
+        return entitlements;
+    }
+
+    /**
+     * One drug line of an order: a quantity taken from a specific Medicine batch
+     */
+    public static class OrderLine {
+        public final String drugName;
+        public final int pharmacyId;
+        public final String batchNumber;
+        public final int quantity;
+        public final double price;
+
+        public OrderLine(String drugName, int pharmacyId, String batchNumber, int quantity, double price) {
+            if(quantity <= 0) {
+                throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+            }
+            if(price < 0) {
+                throw new IllegalArgumentException("Price must not be negative: " + price);
+            }
+            this.drugName = drugName;
+            this.pharmacyId = pharmacyId;
+            this.batchNumber = batchNumber;
+            this.quantity = quantity;
+            this.price = price;
+        }
+
+        String key() {
+            return drugName + "|" + pharmacyId + "|" + batchNumber;
+        }
+
+        @Override
+        public String toString() {
+            return drugName + " (pharmacy " + pharmacyId + ", batch " + batchNumber + ") x" + quantity;
+        }
+    }
+
+    /**
+     * Everything needed to create one "Order" row and its Ordered_Drugs rows
+     */
+    public static class OrderRequest {
+        public final String customerSsn;
+        public final int prescriptionId;
+        public final int employeeId;
+        public final String orderDate; // YYYY-MM-DD
+        public final String type; // urgent or normal
+        public final List<OrderLine> lines = new ArrayList<>();
+
+        public OrderRequest(String customerSsn, int prescriptionId, int employeeId, String orderDate, String type) {
+            this.customerSsn = customerSsn;
+            this.prescriptionId = prescriptionId;
+            this.employeeId = employeeId;
+            this.orderDate = orderDate;
+            this.type = type;
+        }
+
+        public OrderRequest addLine(OrderLine line) {
+            lines.add(line);
+            return this;
+        }
+
+        /**
+         * Sum of price * quantity over all lines
+         */
+        public double total() {
+            double total = 0.0;
+            for(OrderLine line : lines) {
+                total += line.price * line.quantity;
+            }
+            return Math.round(total * 100) / 100.0;
+        }
+    }
+
+    /**
+     * Thrown when one or more lines could not be taken from stock; nothing of the order is written
+     */
+    public static class InsufficientStockException extends SQLException {
+        private static final long serialVersionUID = 1L;
+        public final List<OrderLine> failedLines;
+
+        InsufficientStockException(List<OrderLine> failedLines) {
+            super("Insufficient stock for " + failedLines);
+            this.failedLines = failedLines;
+        }
+    }
+
+    /**
+     * Thrown by placeHeld when some of the holds were released or expired first; nothing of the order is written
+     */
+    public static class HoldsExpiredException extends SQLException {
+        private static final long serialVersionUID = 1L;
+        public final List<Long> missingHoldIds;
+
+        HoldsExpiredException(List<Long> missingHoldIds) {
+            super("Stock holds expired or released: " + missingHoldIds);
+            this.missingHoldIds = missingHoldIds;
+        }
+    }
+
+    /**
+     * Write the order and all of its lines atomically and return the new Order_ID.
+     * If the connection is already in a transaction (auto-commit off) the order joins it and the caller
+     * commits, or rolls back when this throws.
+     */
+    public static long place(Connection conn, IdAllocator ids, OrderRequest request) throws SQLException {
+        return write(conn, ids, request, null);
+    }
+
+    /**
+     * Place an order whose lines were held earlier with StockReservations.hold.
+     * The holds are consumed instead of decrementing stock again; throws HoldsExpiredException if any hold has
+     * already been released.
+     */
+    public static long placeHeld(Connection conn, IdAllocator ids, OrderRequest request, List<Long> holdIds) throws SQLException {
+        return write(conn, ids, request, holdIds);
+    }
+
+    private static long write(Connection conn, IdAllocator ids, OrderRequest request, List<Long> holdIds) throws SQLException {
+        if(request.lines.isEmpty()) {
+            throw new IllegalArgumentException("An order needs at least one drug line");
+        }
+        List<OrderLine> lines = mergeLines(request.lines);
+        long orderId = ids.next("Order");
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        boolean reserved = false;
+        PrescriptionEntitlements.Claim claim = null;
+        try {
+            PrescriptionEntitlements cache = entitlements;
+            if(cache != null) {
+                claim = cache.claim(conn, request.customerSsn, request.prescriptionId, lines);
+            }
+            String insertOrder = StatementCache.register("insertOrder",
+                    "INSERT INTO \"Order\" (ORDER_ID, Order_Date, Total_Amount, Type, Status, Customer_SSN, Employee_ID, Prescription_ID) " +
+                    "VALUES (?, TO_DATE(?, 'YYYY-MM-DD'), ?, ?, 'incomplete', ?, ?, ?)");
+            try(PreparedStatement pstmt = conn.prepareStatement(insertOrder)) {
+                pstmt.setLong(1, orderId);
+                pstmt.setString(2, request.orderDate);
+                pstmt.setDouble(3, request.total());
+                pstmt.setString(4, request.type);
+                pstmt.setString(5, request.customerSsn);
+                pstmt.setInt(6, request.employeeId);
+                pstmt.setInt(7, request.prescriptionId);
+                pstmt.executeUpdate();
+            }
+            RevenueRollup.orderPlaced(conn, request.orderDate, request.employeeId, request.type, request.total());
+
+            if(holdIds == null) {
+                StockReservations.ReservationResult reservation = StockReservations.reserve(conn, lines);
+                if(!reservation.allReserved()) {
+                    StockReservations.undo(reservation.reservedLines());
+                    throw new InsufficientStockException(reservation.failedLines());
+                }
+                reserved = true;
+            }
+            else {
+                List<Long> missing = StockReservations.consume(conn, holdIds);
+                if(!missing.isEmpty()) {
+                    throw new HoldsExpiredException(missing);
+                }
+            }
+
+            String insertOrdered = StatementCache.register("insertOrderedDrugs",
+                    "INSERT INTO Ordered_Drugs (Order_ID, Drug_Name, Pharmacy_ID, Batch_Number, Ordered_Quantity, Price) VALUES (?, ?, ?, ?, ?, ?)");
+            try(PreparedStatement pstmt = conn.prepareStatement(insertOrdered)) {
+                for(OrderLine line : lines) {
+                    pstmt.setLong(1, orderId);
+                    pstmt.setString(2, line.drugName);
+                    pstmt.setInt(3, line.pharmacyId);
+                    pstmt.setString(4, line.batchNumber);
+                    pstmt.setInt(5, line.quantity);
+                    pstmt.setDouble(6, line.price);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+
+            if(autoCommit) {
+                conn.commit();
+            }
+            return orderId;
+        }
+        catch(SQLException | RuntimeException e) {
+            if(autoCommit) {
+                conn.rollback();
+            }
+            if(reserved) {
+                StockReservations.undo(lines);
+            }
+            if(claim != null) {
+                claim.release();
+            }
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Ordered_Drugs is keyed by batch, so repeated lines for the same batch are folded together
+    static List<OrderLine> mergeLines(List<OrderLine> lines) {
+        Map<String, OrderLine> merged = new LinkedHashMap<>();
+        for(OrderLine line : lines) {
+            OrderLine existing = merged.get(line.key());
+            if(existing == null) {
+                merged.put(line.key(), line);
+            }
+            else if(existing.price != line.price) {
+                throw new IllegalArgumentException("Conflicting prices for " + line.drugName + " batch " + line.batchNumber);
+            }
+            else {
+                merged.put(line.key(), new OrderLine(line.drugName, line.pharmacyId, line.batchNumber, existing.quantity + line.quantity, line.price));
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+}
@@ -0,0 +1,82 @@
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * One page of a listing plus the cursor for the page after it.
+ *
+ * Listings are paged by keyset ("seek") on (date, id) rather than by offset: the cursor carries the key
+ * of the last row returned and the next page starts strictly after it, so a deep page costs the same
+ * index range scan as the first and rows inserted meanwhile neither repeat nor shift the pages.
+ * A cursor is an opaque token naming its listing; it holds no server state and can be reused at any time.
+ */
+public class Page {
+    public static final int MAX_LIMIT = 500;
+
+    public final ArrayList<String[]> rows;
+    public final String nextCursor; // null on the last page
+
+    Page(ArrayList<String[]> rows, String nextCursor) {
+        this.rows = rows;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Key of the last row of a page
+     */
+    static class Key {
+        final Timestamp date;
+        final long id;
+
+        Key(Timestamp date, long id) {
+            this.date = date;
+            this.id = id;
+        }
+    }
+
+    static String encode(String listing, Key key) {
+        String raw = listing + ":" + key.date.getTime() + ":" + key.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The key a cursor of this listing points at, or null for the first page
+     */
+    static Key decode(String listing, String cursor) {
+        if(cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if(parts.length == 3 && parts[0].equals(listing)) {
+                return new Key(new Timestamp(Long.parseLong(parts[1])), Long.parseLong(parts[2]));
+            }
+        }
+        catch(IllegalArgumentException e) {
+            // Reported below; NumberFormatException is an IllegalArgumentException too
+        }
+        throw new IllegalArgumentException("Invalid cursor for " + listing + ": " + cursor);
+    }
+
+    static int checkLimit(int limit) {
+        if(limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_LIMIT + ": " + limit);
+        }
+        return limit;
+    }
+
+    /**
+     * Predicate selecting the rows after key in (date, id) order; binds the date, the date again and the id
+     */
+    static String after(String dateColumn, String idColumn, boolean descending) {
+        String op = descending ? "<" : ">";
+        return "(" + dateColumn + " " + op + " ? OR (" + dateColumn + " = ? AND " + idColumn + " " + op + " ?))";
+    }
+
+    static int bindAfter(PreparedStatement pstmt, int index, Key key) throws SQLException {
+        pstmt.setTimestamp(index++, key.date);
+        pstmt.setTimestamp(index++, key.date);
+        pstmt.setLong(index++, key.id);
+        return index;
+    }
+}
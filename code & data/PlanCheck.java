@@ -0,0 +1,306 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.*;
+
+/**
+ * Fails when one of the application's queries is planned as a full scan, or when a foreign key has no
+ * index that its ON DELETE CASCADE can probe.
+ *
+ * The queries are not listed here. Every OPMSBenchmark operation (plus FEFO allocation and the hold sweeper)
+ * runs once through a recording connection, and each distinct statement it issues is explained with the
+ * parameters it was executed with. The recording connection ignores commits and everything is rolled back
+ * at the end, so the check can also run against a live database.
+ *
+ * Usage: java -cp .:h2.jar PlanCheck [--url jdbc-url] [--schema create_schema.sql] [--migrations dir] [--scale 0.1]
+ * Without a URL (--url or opms.jdbc.url) an in-memory H2 database is created, migrated and filled by
+ * DataGenerator; with one, the existing schema and data are checked as they are. Oracle plans depend on
+ * statistics, so check it against realistically sized data. Exits with status 1 when anything is reported.
+ */
+public class PlanCheck {
+    public static final String EMBEDDED_URL = "jdbc:h2:mem:opms_plan_check;MODE=Oracle;DB_CLOSE_DELAY=-1";
+
+    // Whole-history aggregates read every row by design; TopRankings serves them when it is enabled
+    private static final Set<String> FULL_SCAN_ALLOWED = new HashSet<>(Arrays.asList("topSoldDrugs", "topCustomers", "topDoctors"));
+    private static final Pattern H2_TABLE_SCAN = Pattern.compile("([\\w.\"]+)\\.tableScan");
+    private static final String PLAN_ID = "opms_plan_check";
+
+    /**
+     * A statement as an operation issued it: the SQL and the setter calls that bound its parameters
+     */
+    static class Recorded {
+        final String operation;
+        final String sql;
+        final Collection<Object[]> binds; // {Method, Object[] args}
+
+        Recorded(String operation, String sql, Collection<Object[]> binds) {
+            this.operation = operation;
+            this.sql = sql;
+            this.binds = binds;
+        }
+    }
+
+    // Wraps a connection so every executed statement is recorded once per distinct SQL text
+    static class Recorder {
+        final Connection target;
+        final Map<String, Recorded> recorded = new LinkedHashMap<>();
+        String operation;
+
+        Recorder(Connection target) {
+            this.target = target;
+        }
+
+        Connection connection() {
+            return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                switch(method.getName()) {
+                    case "commit":
+                    case "setAutoCommit":
+                    case "close":
+                        return null;
+                    default:
+                        Object result = invoke(target, method, args);
+                        if(method.getName().equals("prepareStatement")) {
+                            return prepared((PreparedStatement)result, (String)args[0]);
+                        }
+                        if(method.getName().equals("createStatement")) {
+                            return plain((Statement)result);
+                        }
+                        return result;
+                }
+            });
+        }
+
+        private PreparedStatement prepared(PreparedStatement target, String sql) {
+            Map<Integer, Object[]> binds = new TreeMap<>();
+            return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                String name = method.getName();
+                if(name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    binds.put((Integer)args[0], new Object[]{method, args.clone()});
+                }
+                else if(name.equals("clearParameters")) {
+                    binds.clear();
+                }
+                else if((args == null || args.length == 0) && (name.startsWith("execute") || name.equals("addBatch"))) {
+                    record(sql, new ArrayList<>(binds.values()));
+                }
+                return invoke(target, method, args);
+            });
+        }
+
+        private Statement plain(Statement target) {
+            return (Statement)Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{Statement.class}, (proxy, method, args) -> {
+                if(method.getName().startsWith("execute") && args != null && args.length > 0 && args[0] instanceof String) {
+                    record((String)args[0], Collections.emptyList());
+                }
+                return invoke(target, method, args);
+            });
+        }
+
+        private void record(String sql, Collection<Object[]> binds) {
+            recorded.putIfAbsent(sql, new Recorded(operation, sql, binds));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("opms.jdbc.url");
+        String schema = "create_schema.sql";
+        String migrations = SchemaMigrations.DEFAULT_DIRECTORY;
+        double scale = 0.1;
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--url": url = args[++i]; break;
+                case "--schema": schema = args[++i]; break;
+                case "--migrations": migrations = args[++i]; break;
+                case "--scale": scale = Double.parseDouble(args[++i]); break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        boolean embedded = (url == null);
+        ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user", embedded ? "sa" : null),
+                System.getProperty("opms.jdbc.password", embedded ? "" : null));
+        config.url = embedded ? EMBEDDED_URL : url;
+        if(embedded) {
+            config.initScripts.add(schema);
+        }
+
+        List<String> problems = new ArrayList<>();
+        try(ConnectionPool pool = new ConnectionPool(config)) {
+            if(embedded) {
+                try(Connection conn = pool.getConnection()) {
+                    SchemaMigrations.migrate(conn, new File(migrations));
+                }
+                DataGenerator.Settings settings = new DataGenerator.Settings();
+                settings.scale(scale);
+                new DataGenerator(settings).generate(DataGenerator.jdbcSinks(pool, 1000));
+                try(Connection conn = pool.getConnection()) {
+                    RevenueRollup.rebuild(conn);
+                }
+            }
+
+            try(Connection conn = pool.getConnection()) {
+                problems.addAll(unindexedForeignKeys(conn));
+                OPMSBenchmark.Keys keys = new OPMSBenchmark.Keys(conn, new IdAllocator(pool));
+                conn.setAutoCommit(false);
+                try {
+                    Recorder recorder = record(conn, keys);
+                    boolean oracle = conn.getMetaData().getDatabaseProductName().toLowerCase().contains("oracle");
+                    for(Recorded r : recorder.recorded.values()) {
+                        List<String> scans = fullScans(conn, r, oracle);
+                        if(scans.isEmpty()) {
+                            OPMSDemo.View.displayMessage("OK         " + r.operation + ": " + r.sql);
+                        }
+                        else if(FULL_SCAN_ALLOWED.contains(r.operation)) {
+                            OPMSDemo.View.displayMessage("ALLOWED    " + r.operation + " scans " + scans + ": " + r.sql);
+                        }
+                        else {
+                            problems.add(r.operation + " scans " + scans + ": " + r.sql);
+                        }
+                    }
+                }
+                finally {
+                    conn.rollback();
+                }
+            }
+        }
+
+        for(String problem : problems) {
+            OPMSDemo.View.displayError(problem);
+        }
+        if(!problems.isEmpty()) {
+            System.exit(1);
+        }
+        OPMSDemo.View.displayMessage("No full scans and no unindexed foreign keys");
+    }
+
+    // Run every operation once through a recording connection
+    private static Recorder record(Connection conn, OPMSBenchmark.Keys keys) {
+        Recorder recorder = new Recorder(conn);
+        Connection recording = recorder.connection();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, OPMSBenchmark.Operation> operations = new LinkedHashMap<>(OPMSBenchmark.OPERATIONS);
+        operations.put("fefoAllocate", (c, k, r) -> FefoAllocator.allocate(c, k.pick(k.batches, r)[0], 1, null, 0.0));
+        operations.put("releaseExpiredHolds", (c, k, r) -> StockReservations.releaseExpired(c));
+        for(Map.Entry<String, OPMSBenchmark.Operation> op : operations.entrySet()) {
+            recorder.operation = op.getKey();
+            try {
+                op.getValue().run(recording, keys, random);
+            }
+            catch(SQLException e) {
+                // The statements issued before the failure are still checked
+                OPMSDemo.View.displayMessage(op.getKey() + " failed while recording: " + e.getMessage());
+            }
+        }
+        return recorder;
+    }
+
+    // Tables (or indexes) that the plan of a recorded statement reads in full
+    private static List<String> fullScans(Connection conn, Recorded r, boolean oracle) throws SQLException {
+        List<String> scans = new ArrayList<>();
+        if(oracle) {
+            try(PreparedStatement pstmt = conn.prepareStatement("EXPLAIN PLAN SET STATEMENT_ID = '" + PLAN_ID + "' FOR " + r.sql)) {
+                bind(pstmt, r.binds);
+                pstmt.execute();
+            }
+            String sql = "SELECT Operation, Options, Object_Name FROM PLAN_TABLE WHERE Statement_ID = ?";
+            try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, PLAN_ID);
+                ResultSet rs = pstmt.executeQuery();
+                while(rs.next()) {
+                    String operation = rs.getString(1) + " " + rs.getString(2);
+                    if(operation.equals("TABLE ACCESS FULL") || operation.equals("INDEX FULL SCAN") || operation.equals("INDEX FAST FULL SCAN")) {
+                        scans.add(rs.getString(3));
+                    }
+                }
+            }
+            try(PreparedStatement pstmt = conn.prepareStatement("DELETE FROM PLAN_TABLE WHERE Statement_ID = ?")) {
+                pstmt.setString(1, PLAN_ID);
+                pstmt.executeUpdate();
+            }
+        }
+        else {
+            try(PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + r.sql)) {
+                bind(pstmt, r.binds);
+                ResultSet rs = pstmt.executeQuery();
+                while(rs.next()) {
+                    Matcher m = H2_TABLE_SCAN.matcher(rs.getString(1));
+                    while(m.find()) {
+                        scans.add(m.group(1));
+                    }
+                }
+            }
+        }
+        return scans;
+    }
+
+    // Foreign keys whose columns are not the leading columns of any index on the referencing table
+    static List<String> unindexedForeignKeys(Connection conn) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        String schema = conn.getSchema();
+        List<String> tables = new ArrayList<>();
+        try(ResultSet rs = meta.getTables(null, schema, "%", new String[]{"TABLE"})) {
+            while(rs.next()) {
+                tables.add(rs.getString("TABLE_NAME"));
+            }
+        }
+        List<String> problems = new ArrayList<>();
+        for(String table : tables) {
+            Map<String, TreeMap<Integer, String>> foreignKeys = new LinkedHashMap<>();
+            try(ResultSet rs = meta.getImportedKeys(null, schema, table)) {
+                while(rs.next()) {
+                    foreignKeys.computeIfAbsent(rs.getString("FK_NAME"), k -> new TreeMap<>()).put(rs.getInt("KEY_SEQ"), rs.getString("FKCOLUMN_NAME"));
+                }
+            }
+            if(foreignKeys.isEmpty()) {
+                continue;
+            }
+            Map<String, TreeMap<Integer, String>> indexes = new HashMap<>();
+            try(ResultSet rs = meta.getIndexInfo(null, schema, table, false, true)) {
+                while(rs.next()) {
+                    if(rs.getString("INDEX_NAME") != null && rs.getString("COLUMN_NAME") != null) {
+                        indexes.computeIfAbsent(rs.getString("INDEX_NAME"), k -> new TreeMap<>()).put(rs.getInt("ORDINAL_POSITION"), rs.getString("COLUMN_NAME"));
+                    }
+                }
+            }
+            for(Map.Entry<String, TreeMap<Integer, String>> fk : foreignKeys.entrySet()) {
+                Set<String> columns = new HashSet<>(fk.getValue().values());
+                boolean covered = false;
+                for(TreeMap<Integer, String> index : indexes.values()) {
+                    List<String> indexColumns = new ArrayList<>(index.values());
+                    if(indexColumns.size() >= columns.size() && new HashSet<>(indexColumns.subList(0, columns.size())).equals(columns)) {
+                        covered = true;
+                        break;
+                    }
+                }
+                if(!covered) {
+                    problems.add("No index for foreign key " + fk.getKey() + " on " + table + fk.getValue().values());
+                }
+            }
+        }
+        return problems;
+    }
+
+    private static void bind(PreparedStatement pstmt, Collection<Object[]> binds) throws SQLException {
+        for(Object[] bind : binds) {
+            invoke(pstmt, (Method)bind[0], (Object[])bind[1]);
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws SQLException {
+        try {
+            return method.invoke(target, args);
+        }
+        catch(InvocationTargetException e) {
+            if(e.getCause() instanceof SQLException) {
+                throw (SQLException)e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+        catch(IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+}
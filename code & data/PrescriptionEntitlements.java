@@ -0,0 +1,219 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers "may this customer order this quantity of these drugs under this prescription" from memory.
+ *
+ * A prescribed drug may be ordered up to its Prescribed_Quantity per order, in at most 1 + Refill_Limit orders
+ * under the prescription (the first fill and the refills). A customer's prescriptions, their prescribed drugs
+ * and the fills already used are loaded with one query the first time the customer orders, and every order
+ * placed in this process then counts its fills in the cache, so the check adds no round trips.
+ *
+ * Claims are checked and counted atomically per customer; OrderPlacement releases a claim when the order fails.
+ * issuePrescription invalidates the customer, and entries are reloaded after ttlMillis so orders placed by
+ * other processes are counted too. An order rolled back by its caller after it was placed stays counted until
+ * then, which errs on the side of refusing a refill. At most maxCustomers are kept, dropping the least recently used.
+ */
+public class PrescriptionEntitlements {
+    private static final String LOAD = StatementCache.register("loadEntitlements",
+            "SELECT p.Prescription_ID, pd.Drug_Name, pd.Prescribed_Quantity, pd.Refill_Limit, " +
+            "(SELECT COUNT(DISTINCT o.Order_ID) FROM \"Order\" o JOIN Ordered_Drugs od ON od.Order_ID = o.Order_ID " +
+            "WHERE o.Prescription_ID = p.Prescription_ID AND od.Drug_Name = pd.Drug_Name) AS Fills " +
+            "FROM Prescription p LEFT JOIN Prescribed_Drugs pd ON pd.Prescription_ID = p.Prescription_ID WHERE p.Customer_SSN = ?");
+
+    /**
+     * Thrown when an order asks for more than its prescription allows; nothing of the order is written
+     */
+    public static class EntitlementException extends SQLException {
+        private static final long serialVersionUID = 1L;
+        public final List<String> reasons;
+
+        EntitlementException(List<String> reasons) {
+            super("Not covered by the prescription: " + String.join("; ", reasons));
+            this.reasons = reasons;
+        }
+    }
+
+    /**
+     * Fills counted for one order; release it if the order is not written after all
+     */
+    public static class Claim {
+        private final Customer customer;
+        private final List<Grant> grants;
+        private boolean released;
+
+        Claim(Customer customer, List<Grant> grants) {
+            this.customer = customer;
+            this.grants = grants;
+        }
+
+        public void release() {
+            synchronized(customer) {
+                if(released) {
+                    return;
+                }
+                released = true;
+                for(Grant grant : grants) {
+                    grant.fills--;
+                }
+            }
+        }
+    }
+
+    // One prescribed drug; fills is guarded by the owning Customer
+    private static class Grant {
+        final int prescribedQuantity;
+        final int refillLimit;
+        int fills;
+
+        Grant(int prescribedQuantity, int refillLimit, int fills) {
+            this.prescribedQuantity = prescribedQuantity;
+            this.refillLimit = refillLimit;
+            this.fills = fills;
+        }
+    }
+
+    // Prescription_ID -> Drug_Name -> grant, for one customer
+    private static class Customer {
+        final Map<Integer, Map<String, Grant>> prescriptions = new HashMap<>();
+        final long loadedAt = System.currentTimeMillis();
+        volatile long lastUsed = loadedAt;
+    }
+
+    private final ConcurrentHashMap<String, Customer> customers = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final long ttlMillis;
+    private final int maxCustomers;
+
+    public PrescriptionEntitlements(long ttlMillis, int maxCustomers) {
+        if(ttlMillis <= 0 || maxCustomers <= 0) {
+            throw new IllegalArgumentException("Entitlement TTL and maximum must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxCustomers = maxCustomers;
+    }
+
+    /**
+     * Cache sized by -Dopms.entitlements.ttlMillis (default 5 minutes) and -Dopms.entitlements.max (default 10000)
+     */
+    public static PrescriptionEntitlements fromSystemProperties() {
+        return new PrescriptionEntitlements(Long.getLong("opms.entitlements.ttlMillis", 5 * 60 * 1000L), Integer.getInteger("opms.entitlements.max", 10000));
+    }
+
+    /**
+     * Check an order's lines against the prescription and count the fills; throws EntitlementException listing
+     * every line that is not covered, in which case nothing is counted
+     */
+    public Claim claim(Connection conn, String ssn, int prescriptionId, List<OrderPlacement.OrderLine> lines) throws SQLException {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for(OrderPlacement.OrderLine line : lines) {
+            quantities.merge(line.drugName, line.quantity, Integer::sum);
+        }
+        Customer customer = customer(conn, ssn);
+        List<String> reasons = new ArrayList<>();
+        List<Grant> grants = new ArrayList<>();
+        synchronized(customer) {
+            Map<String, Grant> prescribed = customer.prescriptions.get(prescriptionId);
+            if(prescribed == null) {
+                throw new EntitlementException(Collections.singletonList("prescription " + prescriptionId + " was not issued to customer " + ssn));
+            }
+            for(Map.Entry<String, Integer> e : quantities.entrySet()) {
+                Grant grant = prescribed.get(e.getKey());
+                if(grant == null) {
+                    reasons.add(e.getKey() + " is not prescribed");
+                }
+                else if(e.getValue() > grant.prescribedQuantity) {
+                    reasons.add(e.getKey() + " x" + e.getValue() + " exceeds the prescribed quantity " + grant.prescribedQuantity);
+                }
+                else if(grant.fills > grant.refillLimit) {
+                    reasons.add(e.getKey() + " has used all " + grant.refillLimit + " refill(s)");
+                }
+                else {
+                    grants.add(grant);
+                }
+            }
+            if(!reasons.isEmpty()) {
+                throw new EntitlementException(reasons);
+            }
+            for(Grant grant : grants) {
+                grant.fills++;
+            }
+        }
+        return new Claim(customer, grants);
+    }
+
+    /**
+     * Forget a customer's prescriptions, e.g. after one was issued or changed; the next claim reloads them
+     */
+    public void invalidate(String ssn) {
+        invalidations.incrementAndGet();
+        customers.remove(ssn);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        customers.clear();
+    }
+
+    public int size() {
+        return customers.size();
+    }
+
+    // The cached customer, loaded on a miss or once it is older than the TTL
+    private Customer customer(Connection conn, String ssn) throws SQLException {
+        long now = System.currentTimeMillis();
+        Customer cached = customers.get(ssn);
+        if(cached != null && now - cached.loadedAt <= ttlMillis) {
+            cached.lastUsed = now;
+            return cached;
+        }
+        long generation = invalidations.get();
+        Customer loaded = load(conn, ssn);
+        // An invalidation during the load may have been missed by it: use the rows for this order, but do not keep them
+        if(invalidations.get() != generation) {
+            return loaded;
+        }
+        if(customers.size() >= maxCustomers) {
+            evict(now);
+        }
+        if(cached != null && customers.replace(ssn, cached, loaded)) {
+            return loaded;
+        }
+        // Another order of the customer may have loaded and claimed meanwhile; its entry has the newer counts
+        Customer winner = customers.putIfAbsent(ssn, loaded);
+        return (winner != null) ? winner : loaded;
+    }
+
+    private static Customer load(Connection conn, String ssn) throws SQLException {
+        Customer customer = new Customer();
+        try(PreparedStatement pstmt = conn.prepareStatement(LOAD)) {
+            pstmt.setString(1, ssn);
+            ResultSet rs = pstmt.executeQuery();
+            while(rs.next()) {
+                // A prescription without prescribed drugs still belongs to the customer, it just covers nothing
+                Map<String, Grant> prescribed = customer.prescriptions.computeIfAbsent(rs.getInt(1), k -> new HashMap<>());
+                String drugName = rs.getString(2);
+                if(drugName != null) {
+                    prescribed.put(drugName, new Grant(rs.getInt(3), rs.getInt(4), rs.getInt(5)));
+                }
+            }
+        }
+        return customer;
+    }
+
+    // Drop the expired entries and then, if still full, the least recently used one
+    private void evict(long now) {
+        customers.values().removeIf(c -> now - c.loadedAt > ttlMillis);
+        Map.Entry<String, Customer> eldest = null;
+        for(Map.Entry<String, Customer> e : customers.entrySet()) {
+            if(eldest == null || e.getValue().lastUsed < eldest.getValue().lastUsed) {
+                eldest = e;
+            }
+        }
+        if(eldest != null && customers.size() >= maxCustomers) {
+            customers.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Revenue aggregated per day, pharmacy (of the managing employee) and order type in Revenue_Daily.
+ * Order placement and completion update the matching row inside their own transaction, so the rollup
+ * commits or rolls back together with the order. The revenue reports then add up at most
+ * days x pharmacies x 2 rows, however many orders there are.
+ *
+ * Orders written around the application (SQL scripts, BulkLoader, DataGenerator) are not tracked;
+ * run "java RevenueRollup --rebuild" after such a load.
+ */
+public class RevenueRollup {
+    public static final String[] BREAKDOWN_COLUMNS = {"Pharmacy ID", "Type", "Orders", "Revenue", "Completed Orders", "Completed Revenue"};
+
+    private RevenueRollup() {
+    }
+
+    public static void main(String[] args) throws SQLException {
+        if(args.length != 1 || !args[0].equals("--rebuild")) {
+            System.err.println("Usage: java RevenueRollup --rebuild");
+            System.exit(2);
+        }
+        ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user"), System.getProperty("opms.jdbc.password"));
+        try(ConnectionPool pool = new ConnectionPool(config); Connection conn = pool.getConnection()) {
+            long start = System.nanoTime();
+            int rows = rebuild(conn);
+            OPMSDemo.View.displayMessage(String.format("Rebuilt %d revenue rollup rows in %.1fs", rows, (System.nanoTime() - start) / 1e9));
+        }
+    }
+
+    /**
+     * Count a newly placed order; call inside the transaction that inserts it
+     */
+    public static void orderPlaced(Connection conn, String orderDate, int employeeId, String type, double amount) throws SQLException {
+        add(conn, java.sql.Date.valueOf(orderDate), employeeId, type, 1, amount, 0, 0.0);
+    }
+
+    /**
+     * Count an order as completed; call inside the transaction that changes its status
+     */
+    public static void orderCompleted(Connection conn, long orderId) throws SQLException {
+        String sql = StatementCache.register("rollupOrder", "SELECT TRUNC(Order_Date), Employee_ID, Type, Total_Amount FROM \"Order\" WHERE Order_ID = ?");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, orderId);
+            ResultSet rs = pstmt.executeQuery();
+            if(!rs.next()) {
+                throw new SQLException("Order " + orderId + " not found");
+            }
+            add(conn, rs.getDate(1), rs.getInt(2), rs.getString(3), 0, 0.0, 1, rs.getDouble(4));
+        }
+    }
+
+    /**
+     * Count several orders of one employee, day and type as completed at once; call inside the transaction that
+     * changes their status
+     */
+    public static void ordersCompleted(Connection conn, java.sql.Date day, int employeeId, String type, int orders, double amount) throws SQLException {
+        add(conn, day, employeeId, type, 0, 0.0, orders, amount);
+    }
+
+    /**
+     * Recompute every rollup row from "Order" in one transaction
+     */
+    public static int rebuild(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try(Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM Revenue_Daily");
+            int rows = stmt.executeUpdate("INSERT INTO Revenue_Daily (Revenue_Date, Pharmacy_ID, Type, Order_Count, Total_Amount, Completed_Count, Completed_Amount) " +
+                    "SELECT TRUNC(o.Order_Date), e.Pharmacy_ID, o.Type, COUNT(*), SUM(o.Total_Amount), " +
+                    "SUM(CASE WHEN o.Status = 'complete' THEN 1 ELSE 0 END), SUM(CASE WHEN o.Status = 'complete' THEN o.Total_Amount ELSE 0 END) " +
+                    "FROM \"Order\" o JOIN Employee e ON o.Employee_ID = e.Employee_ID " +
+                    "GROUP BY TRUNC(o.Order_Date), e.Pharmacy_ID, o.Type");
+            conn.commit();
+            return rows;
+        }
+        catch(SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Revenue of all orders dated in [from, to)
+     */
+    public static double revenue(Connection conn, LocalDate from, LocalDate to) throws SQLException {
+        String sql = StatementCache.register("revenue", "SELECT SUM(Total_Amount) FROM Revenue_Daily WHERE Revenue_Date >= ? AND Revenue_Date < ?");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setDate(1, java.sql.Date.valueOf(from));
+            pstmt.setDate(2, java.sql.Date.valueOf(to));
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getDouble(1) : 0.0;
+        }
+    }
+
+    /**
+     * Revenue of orders dated in [from, to) per pharmacy and type, see BREAKDOWN_COLUMNS
+     */
+    public static ArrayList<String[]> breakdown(Connection conn, LocalDate from, LocalDate to) throws SQLException {
+        String sql = "SELECT Pharmacy_ID, Type, SUM(Order_Count), SUM(Total_Amount), SUM(Completed_Count), SUM(Completed_Amount) " +
+                "FROM Revenue_Daily WHERE Revenue_Date >= ? AND Revenue_Date < ? " +
+                "GROUP BY Pharmacy_ID, Type ORDER BY Pharmacy_ID, Type";
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setDate(1, java.sql.Date.valueOf(from));
+            pstmt.setDate(2, java.sql.Date.valueOf(to));
+            ResultSet rs = pstmt.executeQuery();
+            ArrayList<String[]> rows = new ArrayList<>();
+            while(rs.next()) {
+                rows.add(new String[]{
+                        String.valueOf(rs.getInt(1)),
+                        rs.getString(2),
+                        String.valueOf(rs.getLong(3)),
+                        String.valueOf(rs.getDouble(4)),
+                        String.valueOf(rs.getLong(5)),
+                        String.valueOf(rs.getDouble(6))
+                });
+            }
+            return rows;
+        }
+    }
+
+    // Update the row for (day, employee's pharmacy, type), creating it on first use.
+    // Two transactions creating the same row race on the primary key; the loser retries as an update.
+    private static void add(Connection conn, java.sql.Date day, int employeeId, String type,
+                            int orders, double amount, int completed, double completedAmount) throws SQLException {
+        if(update(conn, day, employeeId, type, orders, amount, completed, completedAmount)) {
+            return;
+        }
+        String insert = StatementCache.register("rollupInsert",
+                "INSERT INTO Revenue_Daily (Revenue_Date, Pharmacy_ID, Type, Order_Count, Total_Amount, Completed_Count, Completed_Amount) " +
+                "SELECT ?, Pharmacy_ID, ?, ?, ?, ?, ? FROM Employee WHERE Employee_ID = ?");
+        Savepoint savepoint = conn.setSavepoint();
+        try(PreparedStatement pstmt = conn.prepareStatement(insert)) {
+            pstmt.setDate(1, day);
+            pstmt.setString(2, type);
+            pstmt.setInt(3, orders);
+            pstmt.setDouble(4, amount);
+            pstmt.setInt(5, completed);
+            pstmt.setDouble(6, completedAmount);
+            pstmt.setInt(7, employeeId);
+            if(pstmt.executeUpdate() == 0) {
+                throw new SQLException("Employee " + employeeId + " not found");
+            }
+        }
+        catch(SQLIntegrityConstraintViolationException e) {
+            conn.rollback(savepoint);
+            if(!update(conn, day, employeeId, type, orders, amount, completed, completedAmount)) {
+                throw e;
+            }
+        }
+    }
+
+    private static boolean update(Connection conn, java.sql.Date day, int employeeId, String type,
+                                  int orders, double amount, int completed, double completedAmount) throws SQLException {
+        String sql = StatementCache.register("rollupUpdate", "UPDATE Revenue_Daily SET Order_Count = Order_Count + ?, Total_Amount = Total_Amount + ?, " +
+                "Completed_Count = Completed_Count + ?, Completed_Amount = Completed_Amount + ? " +
+                "WHERE Revenue_Date = ? AND Type = ? AND Pharmacy_ID = (SELECT Pharmacy_ID FROM Employee WHERE Employee_ID = ?)");
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, orders);
+            pstmt.setDouble(2, amount);
+            pstmt.setInt(3, completed);
+            pstmt.setDouble(4, completedAmount);
+            pstmt.setDate(5, day);
+            pstmt.setString(6, type);
+            pstmt.setInt(7, employeeId);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+}
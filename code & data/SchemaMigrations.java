@@ -0,0 +1,178 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned schema changes on top of create_schema.sql.
+ *
+ * A migration is a SQL script named V<version>__<description>.sql in the migrations directory.
+ * Scripts are applied in version order and recorded in Schema_Version together with a checksum;
+ * an applied script that has since been edited is reported instead of being run again.
+ * Oracle commits DDL statement by statement, so a script is not atomic: statements failing only because
+ * the object already exists (or, for DROP, no longer exists) are skipped, which makes re-running a half-applied
+ * script safe.
+ *
+ * Usage: java SchemaMigrations [--dir migrations] [--status]
+ */
+public class SchemaMigrations {
+    public static final String DEFAULT_DIRECTORY = "migrations";
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+    // Vendor codes meaning "already exists": Oracle ORA-00955, ORA-01408, ORA-01430, ORA-02260, ORA-02261, ORA-02275;
+    // H2 table, index and constraint already exists
+    private static final Set<Integer> ALREADY_EXISTS = new HashSet<>(Arrays.asList(955, 1408, 1430, 2260, 2261, 2275, 42101, 42111, 90045));
+    // "Does not exist" for DROP: Oracle ORA-00942, ORA-01418, ORA-02443; H2 table, index and constraint not found
+    private static final Set<Integer> ALREADY_DROPPED = new HashSet<>(Arrays.asList(942, 1418, 2443, 42102, 42112, 90057));
+
+    /**
+     * One migration script
+     */
+    public static class Migration {
+        public final int version;
+        public final String description;
+        public final File file;
+        public final String checksum;
+
+        Migration(int version, String description, File file, String checksum) {
+            this.version = version;
+            this.description = description;
+            this.file = file;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public String toString() {
+            return "V" + version + " " + description;
+        }
+    }
+
+    private SchemaMigrations() {
+    }
+
+    public static void main(String[] args) throws SQLException, IOException {
+        String dir = DEFAULT_DIRECTORY;
+        boolean status = false;
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--dir": dir = args[++i]; break;
+                case "--status": status = true; break;
+                default:
+                    System.err.println("Usage: java SchemaMigrations [--dir migrations] [--status]");
+                    System.exit(2);
+            }
+        }
+        ConnectionPool.Config config = ConnectionPool.Config.fromSystemProperties(System.getProperty("opms.jdbc.user"), System.getProperty("opms.jdbc.password"));
+        try(ConnectionPool pool = new ConnectionPool(config); Connection conn = pool.getConnection()) {
+            if(status) {
+                Map<Integer, String> applied = applied(conn);
+                for(Migration m : scan(new File(dir))) {
+                    OPMSDemo.View.displayMessage(String.format("%-40s %s", m, applied.containsKey(m.version) ? "applied" : "pending"));
+                }
+                return;
+            }
+            List<Migration> ran = migrate(conn, new File(dir));
+            OPMSDemo.View.displayMessage(ran.isEmpty() ? "Schema is up to date" : "Applied " + ran);
+        }
+    }
+
+    /**
+     * Apply every migration of the directory that has not been applied yet and return the ones applied now
+     */
+    public static List<Migration> migrate(Connection conn, File dir) throws SQLException, IOException {
+        Map<Integer, String> applied = applied(conn);
+        List<Migration> ran = new ArrayList<>();
+        for(Migration m : scan(dir)) {
+            String checksum = applied.get(m.version);
+            if(checksum != null) {
+                if(!checksum.equals(m.checksum)) {
+                    throw new SQLException(m.file.getName() + " was changed after it was applied (checksum " + checksum + ", now " + m.checksum + ")");
+                }
+                continue;
+            }
+            apply(conn, m);
+            ran.add(m);
+        }
+        return ran;
+    }
+
+    /**
+     * Migration scripts of a directory in version order
+     */
+    public static List<Migration> scan(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if(files == null) {
+            throw new FileNotFoundException("Migration directory not found: " + dir);
+        }
+        TreeMap<Integer, Migration> migrations = new TreeMap<>();
+        for(File file : files) {
+            Matcher m = FILE_NAME.matcher(file.getName());
+            if(!m.matches()) {
+                continue;
+            }
+            int version = Integer.parseInt(m.group(1));
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(file.toPath()));
+            Migration previous = migrations.put(version, new Migration(version, m.group(2).replace('_', ' '), file, Long.toHexString(crc.getValue())));
+            if(previous != null) {
+                throw new IOException("Two migrations with version " + version + ": " + previous.file.getName() + " and " + file.getName());
+            }
+        }
+        return new ArrayList<>(migrations.values());
+    }
+
+    private static void apply(Connection conn, Migration m) throws SQLException, IOException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(true);
+        try(Statement stmt = conn.createStatement();
+            Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(m.file), StandardCharsets.UTF_8))) {
+            SqlScripts.parse(reader, sql -> {
+                try {
+                    stmt.execute(sql);
+                }
+                catch(SQLException e) {
+                    boolean drop = sql.trim().toUpperCase().startsWith("DROP");
+                    if(!(drop ? ALREADY_DROPPED : ALREADY_EXISTS).contains(e.getErrorCode())) {
+                        throw new SQLException(m.file.getName() + ": " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+                    }
+                }
+            });
+            String sql = "INSERT INTO Schema_Version (Version, Description, Checksum, Applied_At) VALUES (?, ?, ?, SYSTIMESTAMP)";
+            try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, m.version);
+                pstmt.setString(2, m.description);
+                pstmt.setString(3, m.checksum);
+                pstmt.executeUpdate();
+            }
+            catch(SQLIntegrityConstraintViolationException e) {
+                // Another instance applied the same migration concurrently
+            }
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Version -> checksum of every applied migration; creates Schema_Version on first use
+    private static Map<Integer, String> applied(Connection conn) throws SQLException {
+        try(Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE Schema_Version(" +
+                    "Version NUMBER PRIMARY KEY, Description VARCHAR2(100) NOT NULL, Checksum VARCHAR2(16) NOT NULL, Applied_At TIMESTAMP NOT NULL)");
+        }
+        catch(SQLException e) {
+            if(!ALREADY_EXISTS.contains(e.getErrorCode())) {
+                throw e;
+            }
+        }
+        Map<Integer, String> applied = new HashMap<>();
+        try(Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT Version, Checksum FROM Schema_Version")) {
+            while(rs.next()) {
+                applied.put(rs.getInt(1), rs.getString(2));
+            }
+        }
+        return applied;
+    }
+}
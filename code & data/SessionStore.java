@@ -0,0 +1,253 @@
+import java.security.SecureRandom;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Signed-in operators of one process, by session token. Logging in checks the credentials against the database
+ * once; every later authorization is a lookup in this map, which never touches the database.
+ *
+ * A session expires after ttlMillis without use (each lookup extends it). At most maxSessions are kept: opening
+ * one more first drops the expired ones and then, if still full, the least recently used. The sweeper drops
+ * expired sessions in the background and also checks, in one query per role, that every signed-in customer,
+ * doctor and employee still exists; sessions of a deleted row are invalidated, as are those passed to
+ * invalidate(role, id) by code that deletes one itself.
+ */
+public class SessionStore implements AutoCloseable {
+    private static final int CHECK_CHUNK = 512; // Ids per IN list when revalidating (Oracle allows 1000)
+    private static final long TOUCH_GRANULARITY = 1000; // Expiry is extended at most once a second per session
+
+    /**
+     * A signed-in operator; only the id matching the role is set
+     */
+    public static class Session {
+        public final String role;
+        public final String ssn;
+        public final int doctorId;
+        public final int employeeId;
+        volatile long lastUsed;
+
+        public Session(String role, String ssn, int doctorId, int employeeId) {
+            this.role = role;
+            this.ssn = ssn;
+            this.doctorId = doctorId;
+            this.employeeId = employeeId;
+        }
+
+        // The table row behind the session, e.g. "doctor:12"; null for admin
+        String principal() {
+            switch(role) {
+                case "customer": return role + ":" + ssn;
+                case "doctor": return role + ":" + doctorId;
+                case "employee": return role + ":" + employeeId;
+                default: return null;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlMillis;
+    private final int maxSessions;
+    private ScheduledExecutorService sweeper;
+
+    public SessionStore(long ttlMillis, int maxSessions) {
+        if(ttlMillis <= 0 || maxSessions <= 0) {
+            throw new IllegalArgumentException("Session TTL and maximum must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Store sized by -Dopms.session.ttlMillis (default 30 minutes) and -Dopms.session.max (default 10000)
+     */
+    public static SessionStore fromSystemProperties() {
+        return new SessionStore(Long.getLong("opms.session.ttlMillis", 30 * 60 * 1000L), Integer.getInteger("opms.session.max", 10000));
+    }
+
+    /**
+     * Sign the operator in and return the new session's token
+     */
+    public String open(Session session) {
+        if(sessions.size() >= maxSessions) {
+            sweep();
+            while(sessions.size() >= maxSessions && evictLeastRecentlyUsed()) {
+                // Each round drops one session
+            }
+        }
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        session.lastUsed = System.currentTimeMillis();
+        sessions.put(token, session);
+        return token;
+    }
+
+    /**
+     * The session of a token, or null when there is none or it has expired
+     */
+    public Session get(String token) {
+        if(token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if(session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if(now - session.lastUsed > ttlMillis) {
+            sessions.remove(token, session);
+            return null;
+        }
+        if(now - session.lastUsed > TOUCH_GRANULARITY) {
+            session.lastUsed = now;
+        }
+        return session;
+    }
+
+    /**
+     * End the session of a token
+     */
+    public void logout(String token) {
+        if(token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    /**
+     * Drop every session of a customer (by SSN), doctor or employee (by id); returns how many were dropped
+     */
+    public int invalidate(String role, Object id) {
+        String principal = role + ":" + id;
+        int dropped = 0;
+        for(Iterator<Session> it = sessions.values().iterator(); it.hasNext(); ) {
+            if(principal.equals(it.next().principal())) {
+                it.remove();
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Drop expired sessions; returns how many were dropped
+     */
+    public int sweep() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        int dropped = 0;
+        for(Iterator<Session> it = sessions.values().iterator(); it.hasNext(); ) {
+            if(it.next().lastUsed < cutoff) {
+                it.remove();
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Drop the sessions whose customer, doctor or employee row no longer exists; returns how many were dropped
+     */
+    public int revalidate(Connection conn) throws SQLException {
+        Map<String, Set<String>> byRole = new HashMap<>();
+        for(Session session : sessions.values()) {
+            String principal = session.principal();
+            if(principal != null) {
+                byRole.computeIfAbsent(session.role, k -> new HashSet<>()).add(principal.substring(session.role.length() + 1));
+            }
+        }
+        int dropped = 0;
+        for(Map.Entry<String, Set<String>> e : byRole.entrySet()) {
+            Set<String> missing = new HashSet<>(e.getValue());
+            missing.removeAll(existing(conn, e.getKey(), new ArrayList<>(e.getValue())));
+            for(String id : missing) {
+                dropped += invalidate(e.getKey(), id);
+            }
+        }
+        return dropped;
+    }
+
+    // The ids among these that still have a row
+    private static Set<String> existing(Connection conn, String role, List<String> ids) throws SQLException {
+        String table;
+        String key;
+        switch(role) {
+            case "customer": table = "Customer"; key = "SSN"; break;
+            case "doctor": table = "Doctor"; key = "Doctor_ID"; break;
+            case "employee": table = "Employee"; key = "Employee_ID"; break;
+            default: throw new IllegalArgumentException("Unknown role " + role);
+        }
+        boolean numeric = !role.equals("customer");
+        Set<String> found = new HashSet<>();
+        for(int from = 0; from < ids.size(); from += CHECK_CHUNK) {
+            List<String> chunk = ids.subList(from, Math.min(ids.size(), from + CHECK_CHUNK));
+            // Padded to a power of two with the last id, so the statement cache sees only a handful of distinct lists
+            int slots = (chunk.size() == 1) ? 1 : Integer.highestOneBit(chunk.size() - 1) << 1;
+            String sql = "SELECT " + key + " FROM " + table + " WHERE " + key + " IN (" + String.join(", ", Collections.nCopies(slots, "?")) + ")";
+            try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for(int i = 0; i < slots; i++) {
+                    String id = chunk.get(Math.min(i, chunk.size() - 1));
+                    if(numeric) {
+                        pstmt.setInt(i + 1, Integer.parseInt(id));
+                    }
+                    else {
+                        pstmt.setString(i + 1, id);
+                    }
+                }
+                try(ResultSet rs = pstmt.executeQuery()) {
+                    while(rs.next()) {
+                        // Ids read as numbers: some drivers render NUMBER as text like "1E+1"
+                        found.add(numeric ? String.valueOf(rs.getInt(1)) : rs.getString(1));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Sweep and revalidate every periodMillis in the background
+     */
+    public synchronized void startSweeper(ConnectionPool pool, long periodMillis) {
+        if(sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "opms-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            sweep();
+            try(Connection conn = pool.getConnection()) {
+                revalidate(conn);
+            }
+            catch(SQLException e) {
+                System.err.println("Revalidating sessions failed: " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if(sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+        sessions.clear();
+    }
+
+    private boolean evictLeastRecentlyUsed() {
+        Map.Entry<String, Session> eldest = null;
+        for(Map.Entry<String, Session> e : sessions.entrySet()) {
+            if(eldest == null || e.getValue().lastUsed < eldest.getValue().lastUsed) {
+                eldest = e;
+            }
+        }
+        return eldest != null && sessions.remove(eldest.getKey(), eldest.getValue());
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.*;
+import java.sql.*;
+
+public class SqlScripts {
+    private SqlScripts() {
+    }
+
+    /**
+     * Receives each complete statement parsed out of a script
+     */
+    public interface StatementHandler {
+        void handle(String sql) throws SQLException;
+    }
+
+    /**
+     * Execute every statement of a script file on the given connection
+     */
+    public static int execute(Connection conn, String path) throws SQLException, IOException {
+        try(Reader reader = new BufferedReader(new FileReader(path))) {
+            return execute(conn, reader);
+        }
+    }
+
+    /**
+     * Execute every statement read from the reader on the given connection
+     */
+    public static int execute(Connection conn, Reader reader) throws SQLException, IOException {
+        try(Statement stmt = conn.createStatement()) {
+            return parse(reader, stmt::execute);
+        }
+    }
+
+    /**
+     * Split a script into statements on ';' outside of quotes and '--' comments.
+     * The reader is consumed incrementally, so memory is bounded by the longest statement.
+     */
+    public static int parse(Reader reader, StatementHandler handler) throws SQLException, IOException {
+        StringBuilder current = new StringBuilder();
+        int count = 0;
+        boolean inSingle = false;
+        boolean inDouble = false;
+        boolean inComment = false;
+        int c = reader.read();
+        while(c != -1) {
+            char ch = (char)c;
+            int next = reader.read();
+            if(inComment) {
+                if(ch == '\n') {
+                    inComment = false;
+                    current.append(ch);
+                }
+            }
+            else if(inSingle) {
+                current.append(ch);
+                if(ch == '\'') {
+                    if(next == '\'') {
+                        // Escaped quote inside a literal
+                        current.append('\'');
+                        next = reader.read();
+                    }
+                    else {
+                        inSingle = false;
+                    }
+                }
+            }
+            else if(inDouble) {
+                current.append(ch);
+                if(ch == '"') {
+                    inDouble = false;
+                }
+            }
+            else if(ch == '-' && next == '-') {
+                inComment = true;
+                next = reader.read();
+            }
+            else if(ch == ';') {
+                String sql = current.toString().trim();
+                if(!sql.isEmpty()) {
+                    handler.handle(sql);
+                    count++;
+                }
+                current.setLength(0);
+            }
+            else {
+                if(ch == '\'') {
+                    inSingle = true;
+                }
+                else if(ch == '"') {
+                    inDouble = true;
+                }
+                current.append(ch);
+            }
+            c = next;
+        }
+        String tail = current.toString().trim();
+        if(!tail.isEmpty()) {
+            handler.handle(tail);
+            count++;
+        }
+        return count;
+    }
+}
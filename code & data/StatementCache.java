@@ -0,0 +1,218 @@
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prepared statements kept open per physical connection, so repeated operations skip the prepare (and the
+ * server-side parse) entirely. The pool routes every prepareStatement(sql) of a borrowed connection through
+ * the cache of its physical connection; callers keep their try-with-resources blocks unchanged, since closing a
+ * cached statement closes its result sets, clears its parameters and batch and hands it back instead.
+ * Each cache holds at most maxSize statements and closes the least recently used one beyond that.
+ *
+ * Statements the application runs repeatedly are registered under a name (register), which is what the
+ * hit/miss statistics are reported by; unregistered SQL is cached all the same and counted as "(unnamed)".
+ */
+public class StatementCache {
+    public static final String[] STATS_COLUMNS = {"Statement", "Hits", "Prepares", "Hit Ratio"};
+    private static final String UNNAMED = "(unnamed)";
+
+    // Registry: SQL text -> name, and the counters per name
+    private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Counters> COUNTERS = new ConcurrentHashMap<>();
+    private static final LongAdder evictions = new LongAdder();
+
+    private static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder(); // Each miss is one prepare, i.e. one parse on the server
+    }
+
+    // One cached statement; inUse while a caller holds it
+    private static class Entry {
+        final PreparedStatement physical;
+        final List<ResultSet> openResults = new ArrayList<>();
+        boolean inUse;
+        int checkouts; // Tells a holder's proxy apart from those of earlier holders
+        boolean evicted;
+        boolean settingsChanged;
+        final int fetchSize;
+        final int queryTimeout;
+        final int maxRows;
+
+        Entry(PreparedStatement physical) throws SQLException {
+            this.physical = physical;
+            this.fetchSize = physical.getFetchSize();
+            this.queryTimeout = physical.getQueryTimeout();
+            this.maxRows = physical.getMaxRows();
+        }
+    }
+
+    private final Connection connection;
+    private final LinkedHashMap<String, Entry> entries;
+
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if(size() <= maxSize) {
+                    return false;
+                }
+                evictions.increment();
+                Entry entry = eldest.getValue();
+                if(entry.inUse) {
+                    entry.evicted = true; // Closed for real when its holder closes it
+                }
+                else {
+                    closeQuietly(entry.physical);
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Name a statement for the statistics and return its SQL, so it can be kept as a constant
+     */
+    public static String register(String name, String sql) {
+        String previous = NAMES.putIfAbsent(sql, name);
+        if(previous != null && !previous.equals(name)) {
+            throw new IllegalStateException("Statement already registered as " + previous + ": " + name);
+        }
+        return sql;
+    }
+
+    /**
+     * Hits, misses and hit ratio per statement name, most prepared first, plus an overall row
+     */
+    public static ArrayList<String[]> stats() {
+        List<Map.Entry<String, Counters>> named = new ArrayList<>(COUNTERS.entrySet());
+        named.sort(Comparator.comparingLong((Map.Entry<String, Counters> e) -> e.getValue().misses.sum()).reversed()
+                .thenComparing(Map.Entry::getKey));
+        ArrayList<String[]> rows = new ArrayList<>();
+        long hits = 0;
+        long misses = 0;
+        for(Map.Entry<String, Counters> e : named) {
+            long h = e.getValue().hits.sum();
+            long m = e.getValue().misses.sum();
+            hits += h;
+            misses += m;
+            rows.add(row(e.getKey(), h, m));
+        }
+        rows.add(row("total (" + evictions.sum() + " evicted)", hits, misses));
+        return rows;
+    }
+
+    private static String[] row(String name, long hits, long misses) {
+        long calls = hits + misses;
+        return new String[]{name, String.valueOf(hits), String.valueOf(misses), (calls == 0) ? "-" : String.format("%.1f%%", 100.0 * hits / calls)};
+    }
+
+    /**
+     * A statement for sql: the cached one when it is free, otherwise a newly prepared one
+     */
+    public synchronized PreparedStatement prepare(String sql) throws SQLException {
+        Counters counters = COUNTERS.computeIfAbsent(NAMES.getOrDefault(sql, UNNAMED), k -> new Counters());
+        Entry entry = entries.get(sql);
+        if(entry != null && !entry.inUse) {
+            counters.hits.increment();
+        }
+        else {
+            counters.misses.increment();
+            PreparedStatement physical = connection.prepareStatement(sql);
+            if(entry != null) {
+                // The cached one is held by an outer caller on this connection; this one is not kept
+                return physical;
+            }
+            entry = new Entry(physical);
+            entries.put(sql, entry);
+        }
+        entry.inUse = true;
+        entry.checkouts++;
+        return wrap(entry, entry.checkouts);
+    }
+
+    /**
+     * Close every cached statement, e.g. before the connection itself is closed
+     */
+    public synchronized void close() {
+        for(Entry entry : entries.values()) {
+            closeQuietly(entry.physical);
+        }
+        entries.clear();
+    }
+
+    private synchronized void giveBack(Entry entry, int checkout) throws SQLException {
+        if(!entry.inUse || entry.checkouts != checkout) {
+            return;
+        }
+        entry.inUse = false;
+        try {
+            for(ResultSet rs : entry.openResults) {
+                rs.close();
+            }
+            entry.openResults.clear();
+            if(entry.evicted) {
+                entry.physical.close();
+                return;
+            }
+            entry.physical.clearParameters();
+            entry.physical.clearBatch();
+            if(entry.settingsChanged) {
+                entry.physical.setFetchSize(entry.fetchSize);
+                entry.physical.setQueryTimeout(entry.queryTimeout);
+                entry.physical.setMaxRows(entry.maxRows);
+                entry.settingsChanged = false;
+            }
+        }
+        catch(SQLException e) {
+            // A statement that cannot be reset is not reused
+            entries.values().remove(entry);
+            closeQuietly(entry.physical);
+            throw e;
+        }
+    }
+
+    // The caller's view of a cached statement: close() hands it back, result sets are tracked so they close with it
+    private PreparedStatement wrap(Entry entry, int checkout) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            String name = method.getName();
+            if("close".equals(name)) {
+                giveBack(entry, checkout);
+                return null;
+            }
+            boolean held = entry.inUse && entry.checkouts == checkout;
+            if("isClosed".equals(name)) {
+                return !held || entry.physical.isClosed();
+            }
+            if(!held) {
+                throw new SQLException("Statement has already been closed");
+            }
+            if("setFetchSize".equals(name) || "setQueryTimeout".equals(name) || "setMaxRows".equals(name)) {
+                entry.settingsChanged = true;
+            }
+            Object result;
+            try {
+                result = method.invoke(entry.physical, args);
+            }
+            catch(InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if(result instanceof ResultSet) {
+                entry.openResults.add((ResultSet)result);
+            }
+            return result;
+        };
+        return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, handler);
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        }
+        catch(SQLException e) {
+            // Being discarded anyway
+        }
+    }
+}
@@ -0,0 +1,369 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Takes stock out of Medicine with one guarded UPDATE per line
+ * (UPDATE ... SET Stock_Quantity = Stock_Quantity - q WHERE ... AND Stock_Quantity >= q).
+ * The check and the decrement are a single atomic statement, so concurrent orders can never oversell
+ * and no row has to be locked in advance. All lines go to the database as one batch.
+ * When an InventoryCache is installed, stock is taken from the cache instead and written back by its flusher.
+ *
+ * Stock can also be held for an order that is still being put together: a hold decrements stock
+ * immediately and records a Stock_Hold row with an expiry time. Placing the order consumes the hold;
+ * holds that expire first are released back to Medicine by releaseExpired (or the sweeper).
+ */
+public class StockReservations {
+    private static final String DECREMENT = StatementCache.register("stockDecrement", "UPDATE Medicine SET Stock_Quantity = Stock_Quantity - ? " +
+            "WHERE Drug_Name = ? AND Pharmacy_ID = ? AND Batch_Number = ? AND Stock_Quantity >= ?");
+    private static final String INCREMENT = StatementCache.register("stockIncrement", "UPDATE Medicine SET Stock_Quantity = Stock_Quantity + ? " +
+            "WHERE Drug_Name = ? AND Pharmacy_ID = ? AND Batch_Number = ?");
+
+    private static volatile InventoryCache inventory;
+    // Whether the driver reports a row count per batched statement; null until its first guarded batch
+    private static volatile Boolean batchCounts;
+
+    // Sets the parameters of a guarded statement for one item
+    private interface Binder<T> {
+        void bind(PreparedStatement pstmt, T item) throws SQLException;
+    }
+
+    private StockReservations() {
+    }
+
+    /**
+     * Serve all reservations from the given cache (null goes back to the database)
+     */
+    public static void useInventoryCache(InventoryCache cache) {
+        inventory = cache;
+    }
+
+    /**
+     * Outcome of reserving a set of lines: one flag per line, in input order
+     */
+    public static class ReservationResult {
+        public final List<OrderPlacement.OrderLine> lines;
+        public final boolean[] reserved;
+
+        ReservationResult(List<OrderPlacement.OrderLine> lines, boolean[] reserved) {
+            this.lines = lines;
+            this.reserved = reserved;
+        }
+
+        public boolean allReserved() {
+            for(boolean r : reserved) {
+                if(!r) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public List<OrderPlacement.OrderLine> reservedLines() {
+            List<OrderPlacement.OrderLine> taken = new ArrayList<>();
+            for(int i = 0; i < reserved.length; i++) {
+                if(reserved[i]) {
+                    taken.add(lines.get(i));
+                }
+            }
+            return taken;
+        }
+
+        public List<OrderPlacement.OrderLine> failedLines() {
+            List<OrderPlacement.OrderLine> failed = new ArrayList<>();
+            for(int i = 0; i < reserved.length; i++) {
+                if(!reserved[i]) {
+                    failed.add(lines.get(i));
+                }
+            }
+            return failed;
+        }
+    }
+
+    /**
+     * Result of placing holds: the Hold_ID for each line, or -1 where stock was insufficient
+     */
+    public static class HoldResult {
+        public final List<OrderPlacement.OrderLine> lines;
+        public final long[] holdIds;
+        public final Timestamp expiresAt;
+
+        HoldResult(List<OrderPlacement.OrderLine> lines, long[] holdIds, Timestamp expiresAt) {
+            this.lines = lines;
+            this.holdIds = holdIds;
+            this.expiresAt = expiresAt;
+        }
+
+        public boolean isHeld(int index) {
+            return holdIds[index] >= 0;
+        }
+    }
+
+    /**
+     * Decrement stock for every line in one batch, inside the caller's transaction.
+     * Lines that could not be reserved are reported rather than thrown; the caller decides whether to roll back.
+     */
+    public static ReservationResult reserve(Connection conn, List<OrderPlacement.OrderLine> lines) throws SQLException {
+        InventoryCache cache = inventory;
+        if(cache != null) {
+            return cache.reserve(lines);
+        }
+        boolean[] reserved = executeGuarded(conn, DECREMENT, lines, (pstmt, line) -> {
+            pstmt.setInt(1, line.quantity);
+            pstmt.setString(2, line.drugName);
+            pstmt.setInt(3, line.pharmacyId);
+            pstmt.setString(4, line.batchNumber);
+            pstmt.setInt(5, line.quantity);
+        });
+        return new ReservationResult(lines, reserved);
+    }
+
+    /**
+     * Undo reserved lines whose transaction was rolled back.
+     * Only the cache needs this; the database rollback already undid its own decrements.
+     */
+    public static void undo(List<OrderPlacement.OrderLine> lines) throws SQLException {
+        InventoryCache cache = inventory;
+        if(cache != null) {
+            cache.restore(lines);
+        }
+    }
+
+    /**
+     * Give stock back for the given lines, inside the caller's transaction (database only)
+     */
+    static void restore(Connection conn, List<OrderPlacement.OrderLine> lines) throws SQLException {
+        if(lines.isEmpty()) {
+            return;
+        }
+        try(PreparedStatement pstmt = conn.prepareStatement(INCREMENT)) {
+            for(OrderPlacement.OrderLine line : lines) {
+                pstmt.setInt(1, line.quantity);
+                pstmt.setString(2, line.drugName);
+                pstmt.setInt(3, line.pharmacyId);
+                pstmt.setString(4, line.batchNumber);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Hold stock for an order that is still incomplete. Each line is held independently and the
+     * holds are committed, so they survive until consumed, released or expired.
+     */
+    public static HoldResult hold(Connection conn, IdAllocator ids, List<OrderPlacement.OrderLine> lines, long ttlMillis) throws SQLException {
+        List<OrderPlacement.OrderLine> merged = OrderPlacement.mergeLines(lines);
+        Timestamp expiresAt = new Timestamp(System.currentTimeMillis() + ttlMillis);
+        long[] holdIds = new long[merged.size()];
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        List<OrderPlacement.OrderLine> taken = new ArrayList<>();
+        try {
+            ReservationResult result = reserve(conn, merged);
+            String insertHold = "INSERT INTO Stock_Hold (Hold_ID, Drug_Name, Pharmacy_ID, Batch_Number, Quantity, Expires_At) VALUES (?, ?, ?, ?, ?, ?)";
+            try(PreparedStatement pstmt = conn.prepareStatement(insertHold)) {
+                boolean any = false;
+                for(int i = 0; i < merged.size(); i++) {
+                    if(!result.reserved[i]) {
+                        holdIds[i] = -1;
+                        continue;
+                    }
+                    OrderPlacement.OrderLine line = merged.get(i);
+                    taken.add(line);
+                    holdIds[i] = ids.next("Stock_Hold");
+                    pstmt.setLong(1, holdIds[i]);
+                    pstmt.setString(2, line.drugName);
+                    pstmt.setInt(3, line.pharmacyId);
+                    pstmt.setString(4, line.batchNumber);
+                    pstmt.setInt(5, line.quantity);
+                    pstmt.setTimestamp(6, expiresAt);
+                    pstmt.addBatch();
+                    any = true;
+                }
+                if(any) {
+                    pstmt.executeBatch();
+                }
+            }
+            conn.commit();
+            return new HoldResult(merged, holdIds, expiresAt);
+        }
+        catch(SQLException | RuntimeException e) {
+            conn.rollback();
+            undo(taken);
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Turn holds into a permanent decrement by deleting them, inside the caller's transaction.
+     * Returns the ids that no longer existed (already released or swept); their stock is not reserved.
+     */
+    public static List<Long> consume(Connection conn, List<Long> holdIds) throws SQLException {
+        List<Long> missing = new ArrayList<>();
+        boolean[] deleted = executeGuarded(conn, "DELETE FROM Stock_Hold WHERE Hold_ID = ?", holdIds, (pstmt, id) -> pstmt.setLong(1, id));
+        for(int i = 0; i < deleted.length; i++) {
+            if(!deleted[i]) {
+                missing.add(holdIds.get(i));
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Cancel holds and put their stock back; returns the number of holds released
+     */
+    public static int release(Connection conn, List<Long> holdIds) throws SQLException {
+        if(holdIds.isEmpty()) {
+            return 0;
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            List<Long> ids = new ArrayList<>(holdIds);
+            List<OrderPlacement.OrderLine> lines = new ArrayList<>();
+            String select = "SELECT Hold_ID, Drug_Name, Pharmacy_ID, Batch_Number, Quantity FROM Stock_Hold WHERE Hold_ID = ?";
+            try(PreparedStatement pstmt = conn.prepareStatement(select)) {
+                Iterator<Long> it = ids.iterator();
+                while(it.hasNext()) {
+                    pstmt.setLong(1, it.next());
+                    ResultSet rs = pstmt.executeQuery();
+                    if(rs.next()) {
+                        lines.add(new OrderPlacement.OrderLine(rs.getString(2), rs.getInt(3), rs.getString(4), rs.getInt(5), 0));
+                    }
+                    else {
+                        it.remove();
+                    }
+                }
+            }
+            List<OrderPlacement.OrderLine> claimed = releaseRows(conn, ids, lines);
+            conn.commit();
+            undo(claimed);
+            return claimed.size();
+        }
+        catch(SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Release every hold whose expiry time has passed; returns the number released.
+     * Safe to run from several instances at once: deleting the hold row is the claim on its stock.
+     */
+    public static int releaseExpired(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            List<Long> ids = new ArrayList<>();
+            List<OrderPlacement.OrderLine> lines = new ArrayList<>();
+            String select = "SELECT Hold_ID, Drug_Name, Pharmacy_ID, Batch_Number, Quantity FROM Stock_Hold WHERE Expires_At < ?";
+            try(PreparedStatement pstmt = conn.prepareStatement(select)) {
+                pstmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+                ResultSet rs = pstmt.executeQuery();
+                while(rs.next()) {
+                    ids.add(rs.getLong(1));
+                    lines.add(new OrderPlacement.OrderLine(rs.getString(2), rs.getInt(3), rs.getString(4), rs.getInt(5), 0));
+                }
+            }
+            List<OrderPlacement.OrderLine> claimed = releaseRows(conn, ids, lines);
+            conn.commit();
+            undo(claimed);
+            return claimed.size();
+        }
+        catch(SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Run releaseExpired periodically on a daemon thread
+     */
+    public static ScheduledExecutorService startSweeper(ConnectionPool pool, long periodMillis) {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "opms-hold-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try(Connection conn = pool.getConnection()) {
+                releaseExpired(conn);
+            }
+            catch(SQLException e) {
+                System.err.println("Releasing expired holds failed: " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return sweeper;
+    }
+
+    // Run a guarded statement once per item and report which items changed a row. Batched when the driver
+    // reports per-statement counts; a SUCCESS_NO_INFO count cannot tell a failed guard from a match, so the first
+    // such batch is rolled back to a savepoint and from then on every item is its own executeUpdate.
+    private static <T> boolean[] executeGuarded(Connection conn, String sql, List<T> items, Binder<T> binder) throws SQLException {
+        boolean[] applied = new boolean[items.size()];
+        if(items.isEmpty()) {
+            return applied;
+        }
+        Boolean counts = batchCounts;
+        // Finding out whether counts are reported needs a savepoint, which only exists inside a transaction
+        Savepoint savepoint = (counts == null && !conn.getAutoCommit()) ? conn.setSavepoint() : null;
+        if(Boolean.TRUE.equals(counts) || savepoint != null) {
+            boolean unknown = false;
+            try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for(T item : items) {
+                    binder.bind(pstmt, item);
+                    pstmt.addBatch();
+                }
+                int[] results = pstmt.executeBatch();
+                for(int i = 0; i < results.length; i++) {
+                    unknown |= results[i] == Statement.SUCCESS_NO_INFO;
+                    applied[i] = results[i] > 0;
+                }
+            }
+            if(!unknown) {
+                batchCounts = true;
+                return applied;
+            }
+            if(savepoint == null) {
+                throw new SQLException("The driver stopped reporting update counts for batched statements");
+            }
+            conn.rollback(savepoint);
+            batchCounts = false;
+            Arrays.fill(applied, false);
+        }
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for(int i = 0; i < items.size(); i++) {
+                binder.bind(pstmt, items.get(i));
+                applied[i] = pstmt.executeUpdate() > 0;
+            }
+        }
+        return applied;
+    }
+
+    // Delete the hold rows and restore stock only for the rows this transaction actually deleted.
+    // With a cache installed the stock goes back after commit (see undo).
+    private static List<OrderPlacement.OrderLine> releaseRows(Connection conn, List<Long> ids, List<OrderPlacement.OrderLine> lines) throws SQLException {
+        Set<Long> skip = new HashSet<>(consume(conn, ids));
+        List<OrderPlacement.OrderLine> claimed = new ArrayList<>();
+        for(int i = 0; i < ids.size(); i++) {
+            if(!skip.contains(ids.get(i))) {
+                claimed.add(lines.get(i));
+            }
+        }
+        if(inventory == null) {
+            restore(conn, claimed);
+        }
+        return claimed;
+    }
+}
@@ -0,0 +1,391 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * In-memory leaderboards for the top drugs (units in completed orders), top customers (amount of
+ * completed orders) and top doctors (prescriptions issued), all time and over the last 7, 30 or 365 days.
+ *
+ * Every key keeps its all-time total, the amounts of the days within the last 365 on which it had any
+ * (sorted, so a key active on a few days costs a few entries) and one running total per window. Completing an order or issuing a prescription adds to a handful of counters; a top-N query
+ * walks the keys of one board once with an N-sized heap and never touches Ordered_Drugs or Prescription.
+ * When the date changes the window totals are recomputed from the rings.
+ *
+ * The boards are built from the database on start-up (and by rebuild()). Events are applied after their
+ * transaction commits; if one cannot be applied the boards are rebuilt before the next query.
+ * Changes made outside the application are only picked up by a rebuild.
+ */
+public class TopRankings {
+    public static final int[] WINDOWS = {7, 30, 365}; // Supported windows in days; 0 means all time
+    private static final int HISTORY = 365;
+    private static final int CHUNK = 512; // Order ids per IN list when counting completed orders
+    private static final long[] NO_DAYS = new long[0];
+    private static final double[] NO_AMOUNTS = new double[0];
+
+    public enum Board {
+        DRUGS, CUSTOMERS, DOCTORS
+    }
+
+    // Per-key amounts; day is an epoch day and a window covers the days (today - window, today]
+    private static class Counter {
+        final String label;
+        private double total;
+        private final double[] windowTotals = new double[WINDOWS.length];
+        // Days within the history that have an amount, ascending, in the first count slots
+        private long[] days = NO_DAYS;
+        private double[] amounts = NO_AMOUNTS;
+        private int count;
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        synchronized void add(long day, long today, double amount) {
+            total += amount;
+            day = Math.min(day, today); // Future-dated rows count as today
+            if(day <= today - HISTORY) {
+                return;
+            }
+            int i = Arrays.binarySearch(days, 0, count, day);
+            if(i < 0) {
+                i = -i - 1;
+                if(count == days.length) {
+                    int capacity = Math.max(4, count * 2);
+                    days = Arrays.copyOf(days, capacity);
+                    amounts = Arrays.copyOf(amounts, capacity);
+                }
+                System.arraycopy(days, i, days, i + 1, count - i);
+                System.arraycopy(amounts, i, amounts, i + 1, count - i);
+                days[i] = day;
+                amounts[i] = 0;
+                count++;
+            }
+            amounts[i] += amount;
+            for(int w = 0; w < WINDOWS.length; w++) {
+                if(day > today - WINDOWS[w]) {
+                    windowTotals[w] += amount;
+                }
+            }
+        }
+
+        synchronized void recompute(long today) {
+            // Drop the days that have left the history
+            int first = 0;
+            while(first < count && days[first] <= today - HISTORY) {
+                first++;
+            }
+            if(first > 0) {
+                System.arraycopy(days, first, days, 0, count - first);
+                System.arraycopy(amounts, first, amounts, 0, count - first);
+                count -= first;
+            }
+            Arrays.fill(windowTotals, 0);
+            for(int i = 0; i < count; i++) {
+                if(days[i] > today) {
+                    continue;
+                }
+                for(int w = 0; w < WINDOWS.length; w++) {
+                    if(days[i] > today - WINDOWS[w]) {
+                        windowTotals[w] += amounts[i];
+                    }
+                }
+            }
+        }
+
+        // window is an index into WINDOWS, or -1 for all time
+        synchronized double value(int window) {
+            return (window < 0) ? total : windowTotals[window];
+        }
+    }
+
+    private final ConnectionPool pool;
+    // Read lock: events and queries; write lock: swapping in rebuilt boards and moving to a new day
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<Board, ConcurrentHashMap<String, Counter>> boards;
+    private long today;
+    private volatile boolean stale;
+
+    public TopRankings(ConnectionPool pool) throws SQLException {
+        this.pool = pool;
+        rebuild();
+    }
+
+    /**
+     * Whether top() can answer for this window (0 for all time)
+     */
+    public static boolean supports(int windowDays) {
+        return windowIndex(windowDays) != -2;
+    }
+
+    /**
+     * Reload every board from the database
+     */
+    public void rebuild() throws SQLException {
+        long day = LocalDate.now().toEpochDay();
+        java.sql.Date cutoff = java.sql.Date.valueOf(LocalDate.ofEpochDay(day - HISTORY + 1));
+        Map<Board, ConcurrentHashMap<String, Counter>> fresh = new EnumMap<>(Board.class);
+        // Rows older than the history collapse into one NULL bucket per key that only counts towards the total
+        String drugs = "SELECT Drug_Name, Drug_Name, Bucket, SUM(Ordered_Quantity) FROM (" +
+                "SELECT od.Drug_Name, od.Ordered_Quantity, CASE WHEN o.Order_Date >= ? THEN TRUNC(o.Order_Date) END AS Bucket " +
+                "FROM Ordered_Drugs od JOIN \"Order\" o ON od.Order_ID = o.Order_ID WHERE o.Status = 'complete') " +
+                "GROUP BY Drug_Name, Bucket";
+        String customers = "SELECT SSN, Customer_Name, Bucket, SUM(Total_Amount) FROM (" +
+                "SELECT c.SSN, c.First_Name || ' ' || c.Last_Name AS Customer_Name, o.Total_Amount, CASE WHEN o.Order_Date >= ? THEN TRUNC(o.Order_Date) END AS Bucket " +
+                "FROM \"Order\" o JOIN Customer c ON o.Customer_SSN = c.SSN WHERE o.Status = 'complete') " +
+                "GROUP BY SSN, Customer_Name, Bucket";
+        String doctors = "SELECT Doctor_ID, Doctor_Name, Bucket, COUNT(*) FROM (" +
+                "SELECT d.Doctor_ID, d.First_Name || ' ' || d.Last_Name AS Doctor_Name, CASE WHEN p.Prescribed_Date >= ? THEN TRUNC(p.Prescribed_Date) END AS Bucket " +
+                "FROM Prescription p JOIN Doctor d ON p.Doctor_ID = d.Doctor_ID) " +
+                "GROUP BY Doctor_ID, Doctor_Name, Bucket";
+        try(Connection conn = pool.getConnection()) {
+            fresh.put(Board.DRUGS, load(conn, drugs, cutoff, day));
+            fresh.put(Board.CUSTOMERS, load(conn, customers, cutoff, day));
+            fresh.put(Board.DOCTORS, load(conn, doctors, cutoff, day));
+        }
+        lock.writeLock().lock();
+        try {
+            boards = fresh;
+            today = day;
+            stale = false;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild before the next query, e.g. after changes whose outcome is not known yet
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Count a completed order towards the drug and customer boards; call after the completion has committed
+     */
+    public void orderCompleted(Connection conn, long orderId) {
+        try {
+            String header = "SELECT o.Order_Date, o.Total_Amount, c.SSN, c.First_Name || ' ' || c.Last_Name " +
+                    "FROM \"Order\" o JOIN Customer c ON o.Customer_SSN = c.SSN WHERE o.Order_ID = ?";
+            long day;
+            try(PreparedStatement pstmt = conn.prepareStatement(header)) {
+                pstmt.setLong(1, orderId);
+                ResultSet rs = pstmt.executeQuery();
+                if(!rs.next()) {
+                    return;
+                }
+                day = rs.getDate(1).toLocalDate().toEpochDay();
+                add(Board.CUSTOMERS, rs.getString(3), rs.getString(4), day, rs.getDouble(2));
+            }
+            try(PreparedStatement pstmt = conn.prepareStatement("SELECT Drug_Name, Ordered_Quantity FROM Ordered_Drugs WHERE Order_ID = ?")) {
+                pstmt.setLong(1, orderId);
+                ResultSet rs = pstmt.executeQuery();
+                while(rs.next()) {
+                    add(Board.DRUGS, rs.getString(1), rs.getString(1), day, rs.getInt(2));
+                }
+            }
+        }
+        catch(SQLException e) {
+            stale = true;
+        }
+    }
+
+    /**
+     * Count many completed orders towards the drug and customer boards with two queries per chunk of ids;
+     * call after the completions have committed
+     */
+    public void ordersCompleted(Connection conn, List<Long> orderIds) {
+        try {
+            for(int from = 0; from < orderIds.size(); from += CHUNK) {
+                List<Long> chunk = orderIds.subList(from, Math.min(orderIds.size(), from + CHUNK));
+                // Padded to a power of two with the last id, so only a handful of distinct statements are prepared
+                int slots = (chunk.size() == 1) ? 1 : Integer.highestOneBit(chunk.size() - 1) << 1;
+                String in = String.join(", ", Collections.nCopies(slots, "?"));
+                Map<Long, Long> orderDays = new HashMap<>();
+                String header = "SELECT o.Order_ID, o.Order_Date, o.Total_Amount, c.SSN, c.First_Name || ' ' || c.Last_Name " +
+                        "FROM \"Order\" o JOIN Customer c ON o.Customer_SSN = c.SSN WHERE o.Order_ID IN (" + in + ")";
+                try(PreparedStatement pstmt = conn.prepareStatement(header)) {
+                    bindIds(pstmt, chunk, slots);
+                    ResultSet rs = pstmt.executeQuery();
+                    while(rs.next()) {
+                        long day = rs.getDate(2).toLocalDate().toEpochDay();
+                        orderDays.put(rs.getLong(1), day);
+                        add(Board.CUSTOMERS, rs.getString(4), rs.getString(5), day, rs.getDouble(3));
+                    }
+                }
+                try(PreparedStatement pstmt = conn.prepareStatement("SELECT Order_ID, Drug_Name, Ordered_Quantity FROM Ordered_Drugs WHERE Order_ID IN (" + in + ")")) {
+                    bindIds(pstmt, chunk, slots);
+                    ResultSet rs = pstmt.executeQuery();
+                    while(rs.next()) {
+                        Long day = orderDays.get(rs.getLong(1));
+                        if(day != null) {
+                            add(Board.DRUGS, rs.getString(2), rs.getString(2), day, rs.getInt(3));
+                        }
+                    }
+                }
+            }
+        }
+        catch(SQLException e) {
+            stale = true;
+        }
+    }
+
+    /**
+     * Count a prescription towards the doctor board; call after it has committed.
+     * prescribedDate is YYYY-MM-DD.
+     */
+    public void prescriptionIssued(Connection conn, int doctorId, String prescribedDate) {
+        try {
+            String key = String.valueOf(doctorId);
+            Counter counter = board(Board.DOCTORS).get(key);
+            String label = (counter != null) ? counter.label : null;
+            if(label == null) {
+                try(PreparedStatement pstmt = conn.prepareStatement("SELECT First_Name || ' ' || Last_Name FROM Doctor WHERE Doctor_ID = ?")) {
+                    pstmt.setInt(1, doctorId);
+                    ResultSet rs = pstmt.executeQuery();
+                    if(!rs.next()) {
+                        return;
+                    }
+                    label = rs.getString(1);
+                }
+            }
+            add(Board.DOCTORS, key, label, LocalDate.parse(prescribedDate).toEpochDay(), 1);
+        }
+        catch(SQLException | RuntimeException e) {
+            stale = true;
+        }
+    }
+
+    /**
+     * The n keys with the highest amounts in the window (0 for all time) as {label, amount} rows, highest first
+     */
+    public ArrayList<String[]> top(Board board, int n, int windowDays) throws SQLException {
+        int window = windowIndex(windowDays);
+        if(window == -2) {
+            throw new IllegalArgumentException("Unsupported window: " + windowDays + " days");
+        }
+        if(stale) {
+            rebuild();
+        }
+        advance(LocalDate.now().toEpochDay());
+        // Min-heap of the best n so far; ties are broken by label so the result is stable
+        Comparator<Map.Entry<Counter, Double>> order = Comparator
+                .comparingDouble((Map.Entry<Counter, Double> e) -> e.getValue())
+                .thenComparing(e -> e.getKey().label, Comparator.reverseOrder());
+        PriorityQueue<Map.Entry<Counter, Double>> best = new PriorityQueue<>(order);
+        lock.readLock().lock();
+        try {
+            for(Counter counter : boards.get(board).values()) {
+                double value = counter.value(window);
+                if(window >= 0 && value <= 0) {
+                    continue;
+                }
+                best.add(new AbstractMap.SimpleImmutableEntry<>(counter, value));
+                if(best.size() > n) {
+                    best.poll();
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        ArrayList<String[]> rows = new ArrayList<>();
+        while(!best.isEmpty()) {
+            Map.Entry<Counter, Double> e = best.poll();
+            String amount = (board == Board.CUSTOMERS)
+                    ? String.valueOf(Math.round(e.getValue() * 100) / 100.0)
+                    : String.valueOf(Math.round(e.getValue()));
+            rows.add(new String[]{e.getKey().label, amount});
+        }
+        Collections.reverse(rows);
+        return rows;
+    }
+
+    private void add(Board board, String key, String label, long day, double amount) {
+        lock.readLock().lock();
+        try {
+            boards.get(board).computeIfAbsent(key, k -> new Counter(label)).add(day, today, amount);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void bindIds(PreparedStatement pstmt, List<Long> chunk, int slots) throws SQLException {
+        for(int i = 0; i < slots; i++) {
+            pstmt.setLong(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+        }
+    }
+
+    private ConcurrentHashMap<String, Counter> board(Board board) {
+        lock.readLock().lock();
+        try {
+            return boards.get(board);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Move the windows forward once the date has changed
+    private void advance(long day) {
+        lock.readLock().lock();
+        try {
+            if(day <= today) {
+                return;
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        lock.writeLock().lock();
+        try {
+            if(day > today) {
+                today = day;
+                for(ConcurrentHashMap<String, Counter> counters : boards.values()) {
+                    for(Counter counter : counters.values()) {
+                        counter.recompute(day);
+                    }
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static ConcurrentHashMap<String, Counter> load(Connection conn, String sql, java.sql.Date cutoff, long today) throws SQLException {
+        ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+        try(PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setDate(1, cutoff);
+            ResultSet rs = pstmt.executeQuery();
+            while(rs.next()) {
+                String label = rs.getString(2);
+                Counter counter = counters.computeIfAbsent(rs.getString(1), k -> new Counter(label));
+                java.sql.Date bucket = rs.getDate(3);
+                if(bucket != null) {
+                    counter.add(bucket.toLocalDate().toEpochDay(), today, rs.getDouble(4));
+                }
+                else {
+                    counter.add(Long.MIN_VALUE / 2, today, rs.getDouble(4));
+                }
+            }
+        }
+        return counters;
+    }
+
+    // Index into WINDOWS, -1 for all time, -2 if unsupported
+    private static int windowIndex(int windowDays) {
+        if(windowDays == 0) {
+            return -1;
+        }
+        for(int w = 0; w < WINDOWS.length; w++) {
+            if(WINDOWS[w] == windowDays) {
+                return w;
+            }
+        }
+        return -2;
+    }
+}
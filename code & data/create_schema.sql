@@ -106,4 +106,41 @@ CREATE TABLE Ordered_Drugs(
     PRIMARY KEY (Order_ID, Drug_Name, Pharmacy_ID, Batch_Number),
     CONSTRAINT FK_Ordered_Order FOREIGN KEY (Order_ID) REFERENCES "Order"(Order_ID) ON DELETE CASCADE,
     CONSTRAINT FK_Ordered_Medicine FOREIGN KEY (Drug_Name, Pharmacy_ID, Batch_Number) REFERENCES Medicine(Drug_Name, Pharmacy_ID, Batch_Number) ON DELETE CASCADE
+);
+
+CREATE TABLE Id_Allocation(
+    Name VARCHAR2(30) PRIMARY KEY,
+    Next_Value NUMBER NOT NULL CHECK (Next_Value > 0)
+);
+
+CREATE TABLE Stock_Hold(
+    Hold_ID NUMBER PRIMARY KEY,
+    Drug_Name VARCHAR2(100) NOT NULL,
+    Pharmacy_ID NUMBER NOT NULL,
+    Batch_Number VARCHAR2(20) NOT NULL,
+    Quantity NUMBER NOT NULL CHECK (Quantity > 0),
+    Expires_At TIMESTAMP NOT NULL,
+    CONSTRAINT FK_Hold_Medicine FOREIGN KEY (Drug_Name, Pharmacy_ID, Batch_Number) REFERENCES Medicine(Drug_Name, Pharmacy_ID, Batch_Number) ON DELETE CASCADE
+);
+
+CREATE TABLE Revenue_Daily(
+    Revenue_Date DATE NOT NULL,
+    Pharmacy_ID NUMBER NOT NULL,
+    Type VARCHAR2(20) NOT NULL CHECK (Type IN ('urgent', 'normal')),
+    Order_Count NUMBER NOT NULL CHECK (Order_Count >= 0),
+    Total_Amount NUMBER(14, 2) NOT NULL CHECK (Total_Amount >= 0),
+    Completed_Count NUMBER NOT NULL CHECK (Completed_Count >= 0),
+    Completed_Amount NUMBER(14, 2) NOT NULL CHECK (Completed_Amount >= 0),
+    PRIMARY KEY (Revenue_Date, Pharmacy_ID, Type),
+    CONSTRAINT FK_Revenue_Pharmacy FOREIGN KEY (Pharmacy_ID) REFERENCES Pharmacy(Pharmacy_ID) ON DELETE CASCADE
+);
+
+CREATE TABLE Reorder_Point(
+    Drug_Name VARCHAR2(100),
+    Pharmacy_ID NUMBER,
+    Threshold NUMBER NOT NULL CHECK (Threshold >= 0),
+    CONSTRAINT UQ_Reorder_Point UNIQUE (Drug_Name, Pharmacy_ID),
+    CONSTRAINT CK_Reorder_Point_Key CHECK (Drug_Name IS NOT NULL OR Pharmacy_ID IS NOT NULL),
+    CONSTRAINT FK_Reorder_Drug FOREIGN KEY (Drug_Name) REFERENCES Drug(Drug_Name) ON DELETE CASCADE,
+    CONSTRAINT FK_Reorder_Pharmacy FOREIGN KEY (Pharmacy_ID) REFERENCES Pharmacy(Pharmacy_ID) ON DELETE CASCADE
 );
\ No newline at end of file
@@ -0,0 +1,17 @@
+-- Secondary indexes for the application's hot predicates
+CREATE INDEX IDX_Order_Employee_Status ON "Order"(Employee_ID, Status);
+CREATE INDEX IDX_Prescription_Customer ON Prescription(Customer_SSN);
+CREATE INDEX IDX_Medicine_Expiry ON Medicine(Expiry_Date);
+CREATE INDEX IDX_Medicine_Stock ON Medicine(Stock_Quantity);
+CREATE INDEX IDX_Stock_Hold_Expires ON Stock_Hold(Expires_At);
+
+-- Foreign key columns that ON DELETE CASCADE probes and that no primary key or unique index already leads with
+CREATE INDEX IDX_Employee_Pharmacy ON Employee(Pharmacy_ID);
+CREATE INDEX IDX_Prescription_Doctor ON Prescription(Doctor_ID);
+CREATE INDEX IDX_Medicine_Pharmacy ON Medicine(Pharmacy_ID);
+CREATE INDEX IDX_Order_Customer ON "Order"(Customer_SSN);
+CREATE INDEX IDX_Order_Prescription ON "Order"(Prescription_ID);
+CREATE INDEX IDX_Prescribed_Drug ON Prescribed_Drugs(Drug_Name);
+CREATE INDEX IDX_Ordered_Medicine ON Ordered_Drugs(Drug_Name, Pharmacy_ID, Batch_Number);
+CREATE INDEX IDX_Stock_Hold_Medicine ON Stock_Hold(Drug_Name, Pharmacy_ID, Batch_Number);
+CREATE INDEX IDX_Revenue_Pharmacy ON Revenue_Daily(Pharmacy_ID);
@@ -0,0 +1,6 @@
+-- Keyset pagination of the prescription and incomplete order listings seeks on (date, id) within one customer or employee;
+-- the wider indexes replace the ones from V001
+CREATE INDEX IDX_Prescription_Customer_Date ON Prescription(Customer_SSN, Prescribed_Date, Prescription_ID);
+DROP INDEX IDX_Prescription_Customer;
+CREATE INDEX IDX_Order_Employee_Status_Date ON "Order"(Employee_ID, Status, Order_Date, Order_ID);
+DROP INDEX IDX_Order_Employee_Status;
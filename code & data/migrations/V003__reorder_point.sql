@@ -0,0 +1,14 @@
+-- Reorder points per drug at a pharmacy, per drug (Pharmacy_ID null) or per pharmacy (Drug_Name null)
+-- create_schema.sql has the same table for new databases; there this statement is skipped as already existing
+CREATE TABLE Reorder_Point(
+    Drug_Name VARCHAR2(100),
+    Pharmacy_ID NUMBER,
+    Threshold NUMBER NOT NULL CHECK (Threshold >= 0),
+    CONSTRAINT UQ_Reorder_Point UNIQUE (Drug_Name, Pharmacy_ID),
+    CONSTRAINT CK_Reorder_Point_Key CHECK (Drug_Name IS NOT NULL OR Pharmacy_ID IS NOT NULL),
+    CONSTRAINT FK_Reorder_Drug FOREIGN KEY (Drug_Name) REFERENCES Drug(Drug_Name) ON DELETE CASCADE,
+    CONSTRAINT FK_Reorder_Pharmacy FOREIGN KEY (Pharmacy_ID) REFERENCES Pharmacy(Pharmacy_ID) ON DELETE CASCADE
+);
+
+-- Reorder_Point(Pharmacy_ID) is probed by the ON DELETE CASCADE from Pharmacy; the unique key leads with Drug_Name
+CREATE INDEX IDX_Reorder_Pharmacy ON Reorder_Point(Pharmacy_ID);
@@ -652,4 +652,10 @@ INSERT INTO Ordered_Drugs (Order_ID, Drug_Name, Pharmacy_ID, Batch_Number, Order
 INSERT INTO Ordered_Drugs (Order_ID, Drug_Name, Pharmacy_ID, Batch_Number, Ordered_Quantity, Price) VALUES (80, 'Drug1', 5, 'B153', 6, 8.76);
 INSERT INTO Ordered_Drugs (Order_ID, Drug_Name, Pharmacy_ID, Batch_Number, Ordered_Quantity, Price) VALUES (80, 'Drug17', 4, 'B1742', 1, 95.74);
 
+INSERT INTO Revenue_Daily (Revenue_Date, Pharmacy_ID, Type, Order_Count, Total_Amount, Completed_Count, Completed_Amount)
+SELECT TRUNC(o.Order_Date), e.Pharmacy_ID, o.Type, COUNT(*), SUM(o.Total_Amount),
+       SUM(CASE WHEN o.Status = 'complete' THEN 1 ELSE 0 END), SUM(CASE WHEN o.Status = 'complete' THEN o.Total_Amount ELSE 0 END)
+FROM "Order" o JOIN Employee e ON o.Employee_ID = e.Employee_ID
+GROUP BY TRUNC(o.Order_Date), e.Pharmacy_ID, o.Type;
+
 COMMIT;
\ No newline at end of file